@@ -0,0 +1,352 @@
+package com.simulator.data;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.simulator.model.GateType;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads and writes circuit files, as JSON or, for files ending in .dlc, in a compact binary form.
+ * <p>
+ * Both formats are streamed: records are handed to a {@link Handler} as they are read, and written
+ * as they are visited, so a circuit is never held as a whole tree of JSON nodes. JSON is written
+ * without indentation and without null fields; any JSON circuit file, indented or not, can be read.
+ * <p>
+ * The binary form stores every distinct string once and refers to it by index, gives gates their
+ * position in the file as id, and codes built-in gate types as one byte. It is read through a
+ * memory-mapped FileChannel. Layout (big-endian):
+ * <pre>
+ *   int    magic "DLCC"
+ *   int    version (2)
+ *   int    string count, then per string: u2 length, UTF-8 bytes
+ *   int    gate count, then per gate: u1 type (GateType code, or 255 followed by an int string
+ *          index for custom and unknown types), float x, float y, int label string (-1 for none),
+ *          u1 flags (1: double frequency follows, 2: long phase follows)
+ *   int    wire count, then per wire: int start gate, int end gate, int end pin string,
+ *          int start pin string (-1 for none)
+ * </pre>
+ * Gate ids are not kept: a loaded gate's id is its position in the file. Version 1 files, which
+ * have no flags byte, are still read.
+ */
+public final class CircuitFileFormat {
+
+    public static final String BINARY_EXTENSION = ".dlc";
+
+    private static final int MAGIC = 0x444C4343; // "DLCC"
+    private static final int VERSION = 2;
+    private static final int HAS_FREQUENCY = 1;
+    private static final int HAS_PHASE = 2;
+    private static final int NAMED_TYPE = 255;
+    private static final int NONE = -1;
+
+    /**
+     * Receives the records of a circuit file in file order. Every gate is delivered before any wire.
+     */
+    public interface Handler {
+        void gate(GateSaveData gate);
+
+        void wire(WireSaveData wire);
+    }
+
+    private CircuitFileFormat() {
+    }
+
+    public static boolean isBinary(File file) {
+        return file.getName().toLowerCase().endsWith(BINARY_EXTENSION);
+    }
+
+    /**
+     * Reads a circuit in the format given by the file's extension, passing each record on as it is read.
+     * If the file turns out to be damaged, the records before the damage have already been delivered.
+     */
+    public static void read(File file, ObjectMapper objectMapper, Handler handler) throws IOException {
+        if (isBinary(file)) readBinary(file, handler);
+        else readJson(file, objectMapper.getFactory(), handler);
+    }
+
+    /**
+     * Reads a whole circuit in the format given by the file's extension.
+     */
+    public static CircuitData read(File file, ObjectMapper objectMapper) throws IOException {
+        List<GateSaveData> gates = new ArrayList<>();
+        List<WireSaveData> wires = new ArrayList<>();
+        read(file, objectMapper, new Handler() {
+            @Override
+            public void gate(GateSaveData gate) {
+                gates.add(gate);
+            }
+
+            @Override
+            public void wire(WireSaveData wire) {
+                wires.add(wire);
+            }
+        });
+        return new CircuitData(gates, wires);
+    }
+
+    /**
+     * Writes a circuit in the format given by the file's extension.
+     */
+    public static void write(CircuitData circuitData, File file, ObjectMapper objectMapper) throws IOException {
+        if (isBinary(file)) writeBinary(circuitData, file);
+        else writeJson(circuitData, file, objectMapper.getFactory());
+    }
+
+    private static void readJson(File file, JsonFactory factory, Handler handler) throws IOException {
+        try (JsonParser parser = factory.createParser(file)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) throw new IOException(file + " is not a circuit file");
+            boolean gatesRead = false;
+            List<WireSaveData> earlyWires = null; // Wires listed before the gates wait for them
+            String field;
+            while ((field = parser.nextFieldName()) != null) {
+                JsonToken token = parser.nextToken();
+                if (token == JsonToken.VALUE_NULL) continue;
+                if (field.equals("gates")) {
+                    expect(parser, JsonToken.START_ARRAY);
+                    while (parser.nextToken() != JsonToken.END_ARRAY) {
+                        handler.gate(readGate(parser));
+                    }
+                    gatesRead = true;
+                    if (earlyWires != null) earlyWires.forEach(handler::wire);
+                    earlyWires = null;
+                } else if (field.equals("wires")) {
+                    expect(parser, JsonToken.START_ARRAY);
+                    if (!gatesRead) earlyWires = new ArrayList<>();
+                    while (parser.nextToken() != JsonToken.END_ARRAY) {
+                        WireSaveData wire = readWire(parser);
+                        if (gatesRead) handler.wire(wire);
+                        else earlyWires.add(wire);
+                    }
+                } else {
+                    parser.skipChildren();
+                }
+            }
+            if (earlyWires != null) earlyWires.forEach(handler::wire); // No gates at all
+        }
+    }
+
+    private static GateSaveData readGate(JsonParser parser) throws IOException {
+        expect(parser, JsonToken.START_OBJECT);
+        GateSaveData gate = new GateSaveData();
+        String field;
+        while ((field = parser.nextFieldName()) != null) {
+            if (parser.nextToken() == JsonToken.VALUE_NULL) continue; // Same as a missing field
+            switch (field) {
+                case "id": gate.setId(parser.getValueAsString()); break;
+                case "gateType": gate.setGateType(parser.getValueAsString()); break;
+                case "x": gate.setX(parser.getValueAsDouble()); break;
+                case "y": gate.setY(parser.getValueAsDouble()); break;
+                case "customLabel": gate.setCustomLabel(parser.getValueAsString()); break;
+                case "frequency": gate.setFrequency(parser.getValueAsDouble()); break;
+                case "phase": gate.setPhase(parser.getValueAsLong()); break;
+                default: parser.skipChildren();
+            }
+        }
+        return gate;
+    }
+
+    private static WireSaveData readWire(JsonParser parser) throws IOException {
+        expect(parser, JsonToken.START_OBJECT);
+        WireSaveData wire = new WireSaveData();
+        String field;
+        while ((field = parser.nextFieldName()) != null) {
+            parser.nextToken();
+            switch (field) {
+                case "startGateId": wire.setStartGateId(parser.getValueAsString()); break;
+                case "endGateId": wire.setEndGateId(parser.getValueAsString()); break;
+                case "endPinType": wire.setEndPinType(parser.getValueAsString()); break;
+                case "startPinName": wire.setStartPinName(parser.getValueAsString()); break;
+                default: parser.skipChildren();
+            }
+        }
+        return wire;
+    }
+
+    private static void expect(JsonParser parser, JsonToken token) throws IOException {
+        if (parser.currentToken() != token) {
+            throw new IOException("Expected " + token + " but found " + parser.currentToken() + " at " + parser.currentLocation());
+        }
+    }
+
+    private static void writeJson(CircuitData circuitData, File file, JsonFactory factory) throws IOException {
+        try (JsonGenerator out = factory.createGenerator(file, JsonEncoding.UTF8)) {
+            out.writeStartObject();
+            out.writeArrayFieldStart("gates");
+            for (GateSaveData gate : circuitData.getGates()) {
+                out.writeStartObject();
+                writeField(out, "id", gate.getId());
+                writeField(out, "gateType", gate.getGateType());
+                out.writeNumberField("x", gate.getX());
+                out.writeNumberField("y", gate.getY());
+                writeField(out, "customLabel", gate.getCustomLabel());
+                if (gate.getFrequency() != null) out.writeNumberField("frequency", gate.getFrequency());
+                if (gate.getPhase() != null) out.writeNumberField("phase", gate.getPhase());
+                out.writeEndObject();
+            }
+            out.writeEndArray();
+            out.writeArrayFieldStart("wires");
+            for (WireSaveData wire : circuitData.getWires()) {
+                out.writeStartObject();
+                writeField(out, "startGateId", wire.getStartGateId());
+                writeField(out, "endGateId", wire.getEndGateId());
+                writeField(out, "endPinType", wire.getEndPinType());
+                writeField(out, "startPinName", wire.getStartPinName());
+                out.writeEndObject();
+            }
+            out.writeEndArray();
+            out.writeEndObject();
+        }
+    }
+
+    private static void writeField(JsonGenerator out, String name, String value) throws IOException {
+        if (value != null) out.writeStringField(name, value);
+    }
+
+    private static void writeBinary(CircuitData circuitData, File file) throws IOException {
+        List<GateSaveData> gates = circuitData.getGates();
+        List<WireSaveData> wires = circuitData.getWires();
+
+        // 1. Number the gates and collect the strings
+        Map<String, Integer> gateIndex = new LinkedHashMap<>();
+        Map<String, Integer> strings = new LinkedHashMap<>();
+        for (GateSaveData gate : gates) {
+            gateIndex.putIfAbsent(gate.getId(), gateIndex.size());
+            if (typeCode(gate.getGateType()) == NAMED_TYPE) intern(gate.getGateType(), strings);
+            intern(gate.getCustomLabel(), strings);
+        }
+        for (WireSaveData wire : wires) {
+            intern(wire.getEndPinType(), strings);
+            intern(wire.getStartPinName(), strings);
+        }
+
+        // 2. Write the tables
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file.toPath())))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+
+            out.writeInt(strings.size());
+            for (String string : strings.keySet()) {
+                byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+                if (bytes.length > 0xFFFF) throw new IOException("String too long for a circuit file: " + string.substring(0, 40) + "...");
+                out.writeShort(bytes.length);
+                out.write(bytes);
+            }
+
+            out.writeInt(gates.size());
+            for (GateSaveData gate : gates) {
+                int code = typeCode(gate.getGateType());
+                out.writeByte(code);
+                if (code == NAMED_TYPE) out.writeInt(strings.get(gate.getGateType()));
+                out.writeFloat((float) gate.getX());
+                out.writeFloat((float) gate.getY());
+                out.writeInt(indexOf(gate.getCustomLabel(), strings));
+                int flags = (gate.getFrequency() == null ? 0 : HAS_FREQUENCY) | (gate.getPhase() == null ? 0 : HAS_PHASE);
+                out.writeByte(flags);
+                if (gate.getFrequency() != null) out.writeDouble(gate.getFrequency());
+                if (gate.getPhase() != null) out.writeLong(gate.getPhase());
+            }
+
+            // Wires between unknown gates would be dropped on load anyway
+            List<WireSaveData> kept = new ArrayList<>();
+            for (WireSaveData wire : wires) {
+                if (gateIndex.containsKey(wire.getStartGateId()) && gateIndex.containsKey(wire.getEndGateId())) kept.add(wire);
+            }
+            out.writeInt(kept.size());
+            for (WireSaveData wire : kept) {
+                out.writeInt(gateIndex.get(wire.getStartGateId()));
+                out.writeInt(gateIndex.get(wire.getEndGateId()));
+                out.writeInt(indexOf(wire.getEndPinType(), strings));
+                out.writeInt(indexOf(wire.getStartPinName(), strings));
+            }
+        }
+    }
+
+    private static void readBinary(File file, Handler handler) throws IOException {
+        ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        try {
+            if (buffer.getInt() != MAGIC) throw new IOException(file + " is not a circuit file");
+            int version = buffer.getInt();
+            if (version < 1 || version > VERSION) throw new IOException(file + " has unsupported circuit file version " + version);
+
+            String[] strings = new String[buffer.getInt()];
+            for (int i = 0; i < strings.length; i++) {
+                byte[] bytes = new byte[Short.toUnsignedInt(buffer.getShort())];
+                buffer.get(bytes);
+                strings[i] = new String(bytes, StandardCharsets.UTF_8);
+            }
+
+            int gateCount = buffer.getInt();
+            for (int i = 0; i < gateCount; i++) {
+                int code = Byte.toUnsignedInt(buffer.get());
+                String type;
+                if (code == NAMED_TYPE) {
+                    type = strings[buffer.getInt()];
+                } else {
+                    GateType builtIn = GateType.fromCode(code);
+                    if (builtIn == null) throw new IOException(file + " has an unknown gate type " + code);
+                    type = builtIn.name();
+                }
+                double x = buffer.getFloat();
+                double y = buffer.getFloat();
+                String label = string(buffer.getInt(), strings);
+                GateSaveData gate = new GateSaveData(Integer.toString(i), type, x, y, label);
+                int flags = (version == 1) ? 0 : Byte.toUnsignedInt(buffer.get());
+                if ((flags & HAS_FREQUENCY) != 0) gate.setFrequency(buffer.getDouble());
+                if ((flags & HAS_PHASE) != 0) gate.setPhase(buffer.getLong());
+                handler.gate(gate);
+            }
+
+            int wireCount = buffer.getInt();
+            for (int i = 0; i < wireCount; i++) {
+                int start = buffer.getInt();
+                int end = buffer.getInt();
+                if (start < 0 || start >= gateCount || end < 0 || end >= gateCount) {
+                    throw new IOException(file + " has a wire to a missing gate");
+                }
+                WireSaveData wire = new WireSaveData(Integer.toString(start), Integer.toString(end), string(buffer.getInt(), strings));
+                wire.setStartPinName(string(buffer.getInt(), strings));
+                handler.wire(wire);
+            }
+        } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+            throw new IOException(file + " is damaged", e);
+        }
+    }
+
+    private static int typeCode(String type) {
+        GateType builtIn = GateType.fromId(type);
+        return (builtIn == null) ? NAMED_TYPE : builtIn.getCode();
+    }
+
+    private static void intern(String string, Map<String, Integer> strings) {
+        if (string != null) strings.putIfAbsent(string, strings.size());
+    }
+
+    private static int indexOf(String string, Map<String, Integer> strings) {
+        return (string == null) ? NONE : strings.get(string);
+    }
+
+    private static String string(int index, String[] strings) {
+        return (index == NONE) ? null : strings[index];
+    }
+}
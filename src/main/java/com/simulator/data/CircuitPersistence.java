@@ -1,25 +1,39 @@
 package com.simulator.data;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.SerializationFeature;
-import com.simulator.model.BinaryGate;
+import com.simulator.model.ClockGate;
+import com.simulator.model.CustomGate;
 import com.simulator.model.Gate;
-import com.simulator.model.UnaryGate;
+import com.simulator.model.Pins;
 import com.simulator.ui.ConnectionPin;
 import com.simulator.ui.GateView;
 import com.simulator.ui.SimulatorApp;
 import com.simulator.ui.Wire;
+import javafx.animation.AnimationTimer;
+import javafx.geometry.Insets;
+import javafx.geometry.Pos;
 import javafx.scene.Node;
+import javafx.scene.control.Alert;
+import javafx.scene.control.Button;
+import javafx.scene.control.ButtonType;
+import javafx.scene.control.Label;
+import javafx.scene.control.ProgressBar;
+import javafx.scene.layout.HBox;
 import javafx.scene.layout.Pane;
 import javafx.stage.FileChooser;
 import javafx.stage.Stage;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 public class CircuitPersistence {
 
@@ -29,19 +43,42 @@ public class CircuitPersistence {
     private final Pane rootPane;
     private final List<GateView> allGateViews;
 
+    private static final long FRAME_BUDGET_NANOS = 8_000_000; // Time per frame spent placing loaded gates and wires
+
+    private final HBox progressPane;
+    private final ProgressBar progressBar = new ProgressBar();
+    private final Label progressLabel = new Label();
+    private final Button cancelButton = new Button("Cancel");
+    private final Pane loadingLayer = new Pane(); // Covers the workspace with a circuit while it loads
+    private Loading loading; // Null while no circuit is loading
+
+    private File currentFile; // Where the circuit was loaded from or saved to, null if never saved
+    private EditJournal journal; // Null before the first circuit, or if autosave failed
+
     public CircuitPersistence(SimulatorApp app, Pane rootPane, List<GateView> allGateViews) {
         this.app = app;
         this.rootPane = rootPane;
         this.allGateViews = allGateViews;
 
-        this.objectMapper = new ObjectMapper();
-        this.objectMapper.enable(SerializationFeature.INDENT_OUTPUT);
+        this.objectMapper = new ObjectMapper(); // Files are written compactly
 
         this.fileChooser = new FileChooser();
         this.fileChooser.setInitialDirectory(new File(System.getProperty("user.home")));
-        this.fileChooser.getExtensionFilters().add(
-                new FileChooser.ExtensionFilter("JSON Files", "*.json")
+        this.fileChooser.getExtensionFilters().addAll(
+                new FileChooser.ExtensionFilter("JSON Files", "*.json"),
+                new FileChooser.ExtensionFilter("Compact Circuit Files", "*" + CircuitFileFormat.BINARY_EXTENSION)
         );
+
+        this.progressBar.setPrefWidth(200);
+        this.progressPane = new HBox(10, progressBar, progressLabel, cancelButton);
+        this.progressPane.setAlignment(Pos.CENTER_LEFT);
+        this.progressPane.setPadding(new Insets(5));
+        this.progressPane.setVisible(false);
+        this.progressPane.setManaged(false);
+
+        // Sized by hand (see Loading.handle) so it never affects the workspace's own size
+        this.loadingLayer.setManaged(false);
+        this.loadingLayer.setStyle("-fx-background-color: white;");
     }
 
     public void saveCircuit(Stage mainStage) {
@@ -49,38 +86,164 @@ public class CircuitPersistence {
         File file = fileChooser.showSaveDialog(mainStage);
         if (file == null) return;
 
+        try {
+            CircuitFileFormat.write(collectCircuitData(), file, objectMapper);
+            fileChooser.setInitialFileName(file.getName());
+        } catch (IOException e) {
+            System.err.println("Error saving file: " + e.getMessage());
+            return;
+        }
+
+        // A .dlc file numbers its gates in file order; the journal must name them the way the file reads back
+        if (CircuitFileFormat.isBinary(file)) {
+            for (int i = 0; i < allGateViews.size(); i++) {
+                allGateViews.get(i).setId(Integer.toString(i));
+            }
+        }
+
+        // The file now holds everything: journal from here on, and drop the journal of a never-saved circuit
+        boolean wasUntitled = (currentFile == null);
+        openJournal(file, false);
+        if (wasUntitled) {
+            try {
+                Files.deleteIfExists(EditJournal.pathFor(null));
+            } catch (IOException e) {
+                System.err.println("Error removing autosave: " + e.getMessage());
+            }
+        }
+    }
+
+    private CircuitData collectCircuitData() {
         List<GateSaveData> gateDataList = new ArrayList<>();
         List<WireSaveData> wireDataList = new ArrayList<>();
 
         for (GateView view : allGateViews) {
-            gateDataList.add(new GateSaveData(
-                    view.getId(), view.getGateType(), view.getLayoutX(), view.getLayoutY(), view.getCustomLabel()
-            ));
+            gateDataList.add(toSaveData(view));
         }
 
         for (Node node : rootPane.getChildren()) {
             if (node instanceof Wire) {
-                Wire wire = (Wire) node;
-                GateView startView = wire.getStartPin().getParentGateView();
-                GateView endView = wire.getEndPin().getParentGateView();
-                String endPinType = (wire.getEndPin() == endView.getPinInB()) ? "B" : "A";
-                wireDataList.add(new WireSaveData(startView.getId(), endView.getId(), endPinType));
+                wireDataList.add(toSaveData((Wire) node));
             }
         }
 
-        CircuitData circuitData = new CircuitData(gateDataList, wireDataList);
+        return new CircuitData(gateDataList, wireDataList);
+    }
+
+    private GateSaveData toSaveData(GateView view) {
+        GateSaveData gateData = new GateSaveData(view.getId(), view.getGateType(), view.getLayoutX(), view.getLayoutY(), view.getCustomLabel());
+        gateData.readClockSettings(view.getGateModel());
+        return gateData;
+    }
+
+    private WireSaveData toSaveData(Wire wire) {
+        GateView startView = wire.getStartPin().getParentGateView();
+        GateView endView = wire.getEndPin().getParentGateView();
+        WireSaveData wireData = new WireSaveData(startView.getId(), endView.getId(), wire.getEndPin().getName());
+        if (startView.getGateModel() instanceof CustomGate) wireData.setStartPinName(wire.getStartPin().getName());
+        return wireData;
+    }
+
+    //Autosave (see EditJournal): each edit of the workspace is appended to the circuit's journal as it happens
+
+    /**
+     * Starts journaling an empty, never-saved circuit. Replaces the journal of the previous one.
+     */
+    public void startNewCircuit() {
+        openJournal(null, false);
+    }
+
+    /**
+     * Loads the never-saved circuit left behind by an earlier session, and continues its journal.
+     */
+    public void recoverUnsavedWork() {
+        if (loading != null) return;
+        loading = new Loading(null, true);
+        loading.begin();
+    }
+
+    public void gateAdded(GateView view) {
+        record(journal -> journal.gateAdded(toSaveData(view)));
+    }
+
+    public void gateMoved(GateView view) {
+        record(journal -> journal.gateMoved(view.getId(), view.getLayoutX(), view.getLayoutY()));
+    }
+
+    public void gateRemoved(GateView view) {
+        record(journal -> journal.gateRemoved(view.getId()));
+    }
+
+    public void labelChanged(GateView view) {
+        record(journal -> journal.labelChanged(view.getId(), view.getCustomLabel()));
+    }
+
+    public void clockChanged(GateView view) {
+        ClockGate clock = (ClockGate) view.getGateModel();
+        record(journal -> journal.clockChanged(view.getId(), clock.getFrequency(), clock.getPhaseNanos()));
+    }
+
+    public void wireAdded(Wire wire) {
+        record(journal -> journal.wireAdded(toSaveData(wire)));
+    }
+
+    public void wireRemoved(Wire wire) {
+        record(journal -> journal.wireRemoved(toSaveData(wire)));
+    }
+
+    /**
+     * The workspace was emptied by the user: it is now a new, never-saved circuit.
+     */
+    public void workspaceCleared() {
+        if (loading != null) return; // Loading clears the workspace itself and journals the result when done
+        startNewCircuit();
+    }
+
+    public boolean isJournaling() {
+        return journal != null;
+    }
+
+    public void closeJournal() {
+        if (journal != null) journal.close();
+        journal = null;
+    }
+
+    private void openJournal(File file, boolean resume) {
+        closeJournal();
+        currentFile = file;
+        Path path = EditJournal.pathFor(file);
+        int size = allGateViews.size();
+        for (Node node : rootPane.getChildren()) {
+            if (node instanceof Wire) size++;
+        }
         try {
-            objectMapper.writeValue(file, circuitData);
-            fileChooser.setInitialFileName(file.getName());
+            journal = resume ? EditJournal.resume(path, size) : EditJournal.start(path, file != null, size);
         } catch (IOException e) {
-            System.err.println("Error saving file: " + e.getMessage());
+            System.err.println("Autosave is off, cannot write " + path + ": " + e.getMessage());
+        }
+    }
+
+    private void record(JournalEdit edit) {
+        if (journal == null || loading != null) return;
+        try {
+            edit.apply(journal);
+            if (journal.needsCompaction()) journal.compact(collectCircuitData()); // Written in the background
+        } catch (IOException e) {
+            System.err.println("Autosave is off: " + e.getMessage());
+            closeJournal();
         }
     }
 
+    private interface JournalEdit {
+        void apply(EditJournal journal) throws IOException;
+    }
+
     /**
-     * Loads a circuit. Returns true if successful, false if cancelled or failed.
+     * Starts loading a circuit in the background. Returns true if a file was picked, false if cancelled.
+     * The gates and wires appear over the next frames; a file that turns out to be unreadable is reported then.
      */
     public boolean loadCircuit(Stage mainStage) {
+        if (loading != null) return false;
         fileChooser.setTitle("Load Circuit");
         File file = fileChooser.showOpenDialog(mainStage);
 
@@ -88,57 +251,234 @@ public class CircuitPersistence {
             return false; // User cancelled
         }
 
-        try {
-            CircuitData circuitData = objectMapper.readValue(file, CircuitData.class);
+        boolean recover = false;
+        if (EditJournal.hasEdits(EditJournal.pathFor(file))) {
+            Alert alert = new Alert(Alert.AlertType.CONFIRMATION,
+                    "Changes to " + file.getName() + " that were never saved were found. Recover them?",
+                    ButtonType.YES, ButtonType.NO);
+            alert.setTitle("Recover Unsaved Changes");
+            recover = alert.showAndWait().orElse(ButtonType.NO) == ButtonType.YES;
+        }
 
-            app.clearWorkspace();
+        loading = new Loading(file, recover);
+        loading.begin();
+        return true;
+    }
 
-            Map<String, GateView> gateMap = new HashMap<>();
+    /**
+     * @return the bar showing the progress of a load, with its Cancel button (hidden while not loading).
+     */
+    public HBox getProgressPane() {
+        return progressPane;
+    }
 
-            // 1. Re-create gates
-            for (GateSaveData gateData : circuitData.getGates()) {
-                GateView view = app.createAndAddGate(
-                        gateData.getGateType(), gateData.getX(), gateData.getY(), gateData.getId()
-                );
-                if (gateData.getCustomLabel() != null) {
-                    view.setCustomLabel(gateData.getCustomLabel());
-                }
-                gateMap.put(view.getId(), view);
+    /**
+     * One circuit being loaded. The file is read on a background thread, which also creates the gate models
+     * (including custom gate instances) and resolves the gates at both ends of each wire. Each frame, the FX
+     * thread places whatever has been read so far, for at most FRAME_BUDGET_NANOS, so the window stays
+     * responsive and the circuit appears as it loads. Models are connected only when their wire is placed:
+     * creating a view evaluates its model, which must not race with wiring on another thread.
+     * The circuit is built on a layer over the workspace, and only replaces the workspace's circuit once it is
+     * complete: until then the current circuit is kept, so cancelling the load leaves it as it was.
+     */
+    private class Loading extends AnimationTimer implements CircuitFileFormat.Handler {
+        private final File file; // Null when recovering a never-saved circuit
+        private final boolean recover; // Read the journal instead of the file
+        private final String name;
+        private final Queue<Object> pending = new ConcurrentLinkedQueue<>(); // PendingGates, then PendingWires
+        private final Map<String, PendingGate> gatesById = new HashMap<>(); // Loader thread only
+        private final List<GateView> views = new ArrayList<>(); // FX thread only
+        private volatile boolean cancelled = false;
+        private volatile boolean finished = false;
+        private volatile IOException failure;
+        private volatile int read = 0; // Written by the loader thread only
+        private int placed = 0;
+
+        Loading(File file, boolean recover) {
+            this.file = file;
+            this.recover = recover;
+            this.name = (file == null) ? "unsaved work" : file.getName();
+        }
+
+        void begin() {
+            app.setLoading(true);
+            progressBar.setProgress(ProgressBar.INDETERMINATE_PROGRESS);
+            progressLabel.setText("Loading " + name + "...");
+            cancelButton.setOnAction(event -> cancel());
+            progressPane.setVisible(true);
+            progressPane.setManaged(true);
+
+            Thread loader = new Thread(this::readFile, "circuit-loader");
+            loader.setDaemon(true);
+            loader.start();
+            start();
+        }
+
+        private void readFile() {
+            try {
+                if (recover) EditJournal.replay(EditJournal.pathFor(file), objectMapper, this);
+                else CircuitFileFormat.read(file, objectMapper, this);
+            } catch (IOException e) {
+                failure = e;
+            } catch (CancellationException e) {
+                // Stopped by cancel()
             }
+            finished = true;
+        }
 
-            // 2. Re-create wires
-            for (WireSaveData wireData : circuitData.getWires()) {
-                GateView startView = gateMap.get(wireData.getStartGateId());
-                GateView endView = gateMap.get(wireData.getEndGateId());
-                if (startView == null || endView == null) continue;
-
-                ConnectionPin startPin = startView.getPinOut();
-                ConnectionPin endPin = (wireData.getEndPinType().equals("B")) ? endView.getPinInB() : endView.getPinInA();
-                if (startPin == null || endPin == null) continue;
-
-                Wire wire = new Wire(startPin, endPin);
-                wire.setOnMouseClicked(event -> {
-                    app.toggleSelectItem(wire, event.isShiftDown());
-                    event.consume();
-                });
-                rootPane.getChildren().add(wire);
-
-                Gate outputGate = startView.getGateModel();
-                Gate inputGate = endView.getGateModel();
-                if (inputGate instanceof UnaryGate) ((UnaryGate) inputGate).setInput(outputGate);
-                else if (inputGate instanceof BinaryGate) {
-                    if (wireData.getEndPinType().equals("B")) ((BinaryGate) inputGate).setInputB(outputGate);
-                    else ((BinaryGate) inputGate).setInputA(outputGate);
-                }
+        @Override
+        public void gate(GateSaveData gateData) {
+            if (cancelled) throw new CancellationException();
+            Gate model = app.createGateModel(gateData.getGateType());
+            if (model == null) {
+                System.err.println("Skipping gate of unknown type: " + gateData.getGateType());
+                return;
+            }
+            try {
+                gateData.applyClockSettings(model);
+            } catch (IllegalArgumentException e) {
+                System.err.println("Ignoring clock settings of gate " + gateData.getId() + ": " + e.getMessage());
             }
+            PendingGate gate = new PendingGate(gateData, model);
+            gatesById.put(gateData.getId(), gate);
+            pending.add(gate);
+            read++;
+        }
 
-            fileChooser.setInitialFileName(file.getName());
-            app.triggerCircuitUpdate();
-            return true; // Success
+        @Override
+        public void wire(WireSaveData wireData) {
+            if (cancelled) throw new CancellationException();
+            PendingGate start = gatesById.get(wireData.getStartGateId());
+            PendingGate end = gatesById.get(wireData.getEndGateId());
+            if (start == null || end == null) return;
+            pending.add(new PendingWire(start, end, wireData));
+            read++;
+        }
 
-        } catch (IOException e) {
-            System.err.println("Error loading file: " + e.getMessage());
-            return false; // Failure
+        @Override
+        public void handle(long now) {
+            long deadline = System.nanoTime() + FRAME_BUDGET_NANOS;
+            boolean readAll = finished; // Checked before draining, so nothing queued before the end is missed
+
+            List<Node> batch = new ArrayList<>();
+            Object item;
+            while (System.nanoTime() < deadline && (item = pending.poll()) != null) {
+                Node node = (item instanceof PendingGate) ? place((PendingGate) item) : place((PendingWire) item);
+                if (node != null) batch.add(node);
+                placed++;
+            }
+            if (!batch.isEmpty() && loadingLayer.getParent() == null) rootPane.getChildren().add(loadingLayer);
+            loadingLayer.resize(rootPane.getWidth(), rootPane.getHeight());
+            loadingLayer.getChildren().addAll(batch);
+
+            if (readAll && failure != null) {
+                fail();
+            } else if (readAll && pending.isEmpty()) {
+                complete();
+            } else if (readAll) {
+                progressBar.setProgress((double) placed / read);
+                progressLabel.setText(String.format("Placing %,d of %,d gates and wires...", placed, read));
+            } else {
+                progressLabel.setText(String.format("Reading %s: %,d gates and wires placed...", name, placed));
+            }
+        }
+
+        private GateView place(PendingGate gate) {
+            GateSaveData gateData = gate.gateData;
+            gate.view = app.createGateView(gate.model, gateData.getGateType(), gateData.getX(), gateData.getY(), gateData.getId());
+            if (gateData.getCustomLabel() != null) {
+                gate.view.setCustomLabel(gateData.getCustomLabel());
+            }
+            views.add(gate.view);
+            return gate.view;
+        }
+
+        private Wire place(PendingWire pendingWire) {
+            GateView startView = pendingWire.start.view;
+            GateView endView = pendingWire.end.view;
+            ConnectionPin startPin = startView.getOutputPin(pendingWire.wireData.getStartPinName());
+            ConnectionPin endPin = endView.getInputPin(pendingWire.wireData.getEndPinType());
+            if (startPin == null || endPin == null) return null;
+
+            Wire wire = new Wire(startPin, endPin);
+            wire.setOnMouseClicked(event -> {
+                app.toggleSelectItem(wire, event.isShiftDown());
+                event.consume();
+            });
+            Pins.connect(endView.getGateModel(), endPin.getName(), startView.getOutputGate(startPin));
+            return wire;
+        }
+
+        private void complete() {
+            List<Node> loaded = new ArrayList<>(loadingLayer.getChildren());
+            loadingLayer.getChildren().clear();
+            app.clearWorkspace(); // Also removes the layer
+            end();
+            rootPane.getChildren().addAll(loaded);
+            allGateViews.addAll(views);
+            if (file != null) fileChooser.setInitialFileName(file.getName());
+            openJournal(file, recover);
+            app.invalidateNetlist();
+        }
+
+        // Even a file damaged part-way through leaves the current circuit as it was
+        private void fail() {
+            discard();
+            end();
+            System.err.println("Error loading file: " + failure.getMessage());
+            keepPrevious();
+            // show() rather than showAndWait(): this runs inside an animation
+            new Alert(Alert.AlertType.ERROR, "Cannot load " + name + ": " + failure.getMessage()).show();
+        }
+
+        private void cancel() {
+            cancelled = true;
+            discard();
+            end();
+            keepPrevious();
+        }
+
+        // The previous circuit, and its journal, stay as they were. If there was none (the load was started from
+        // the welcome screen) go back there: starting an empty journal would overwrite the untitled one
+        private void keepPrevious() {
+            if (journal == null && allGateViews.isEmpty()) app.showWelcomeScreen();
+        }
+
+        // Drops the part built so far; its models were never connected to the workspace's circuit
+        private void discard() {
+            loadingLayer.getChildren().clear();
+            rootPane.getChildren().remove(loadingLayer);
+        }
+
+        private void end() {
+            stop();
+            loading = null;
+            progressPane.setVisible(false);
+            progressPane.setManaged(false);
+            app.setLoading(false);
+        }
+    }
+
+    private static final class PendingGate {
+        final GateSaveData gateData;
+        final Gate model;
+        GateView view; // Set when placed
+
+        PendingGate(GateSaveData gateData, Gate model) {
+            this.gateData = gateData;
+            this.model = model;
+        }
+    }
+
+    private static final class PendingWire {
+        final PendingGate start;
+        final PendingGate end;
+        final WireSaveData wireData;
+
+        PendingWire(PendingGate start, PendingGate end, WireSaveData wireData) {
+            this.start = start;
+            this.end = end;
+            this.wireData = wireData;
         }
     }
 
@@ -1,5 +1,6 @@
 package com.simulator.data;
 
+import java.util.ArrayList;
 import java.util.List;
 
 public class CustomGateTemplate {
@@ -12,6 +13,9 @@ public class CustomGateTemplate {
     // List of all pin mappings
     private List<PinMapping> mappings;
 
+    // Outputs for every input pattern (see LookupGate), or null if the gate is sequential or too wide
+    private long[] lookupTable;
+
     // No-arg constructor for Jackson
     public CustomGateTemplate() {
 
@@ -49,4 +53,37 @@ public class CustomGateTemplate {
     public void setMappings(List<PinMapping> mappings) {
         this.mappings = mappings;
     }
+
+    public long[] getLookupTable() {
+        return lookupTable;
+    }
+
+    public void setLookupTable(long[] lookupTable) {
+        this.lookupTable = lookupTable;
+    }
+
+    /**
+     * @return the exposed input names in pin order (several internal pins can share one exposed input).
+     */
+    public List<String> listInputNames() {
+        return listNames("IN");
+    }
+
+    /**
+     * @return the exposed output names in pin order.
+     */
+    public List<String> listOutputNames() {
+        return listNames("OUT");
+    }
+
+    private List<String> listNames(String direction) {
+        List<String> names = new ArrayList<>();
+        if (mappings == null) return names;
+        for (PinMapping mapping : mappings) {
+            if (direction.equals(mapping.getDirection()) && !names.contains(mapping.getExposedName())) {
+                names.add(mapping.getExposedName());
+            }
+        }
+        return names;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,446 @@
+package com.simulator.data;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.simulator.model.ClockGate;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UTFDataFormatException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Autosave journal: an append-only sidecar file that records every edit of the workspace as a small
+ * binary record, so unsaved work survives a crash at a cost per edit instead of per circuit.
+ * <p>
+ * A circuit saved as X.json is journaled in X.json.journal; a circuit that was never saved in
+ * autosave.journal in the working directory. The header says whether the journal is based on its circuit
+ * file: the circuit is rebuilt by reading that file (if so) and replaying the records on top. Once the
+ * records outnumber the gates and wires they started from (and at least COMPACT_MIN_EDITS were appended),
+ * the journal is compacted into a snapshot of add records with no base, so replay stays proportional
+ * to the circuit. The snapshot is written on a background thread; edits recorded meanwhile go to the
+ * journal as usual and are appended to the snapshot before it replaces the journal.
+ * <p>
+ * The journal is used from the FX thread; the methods are synchronized against the compacting thread.
+ * <p>
+ * Layout (big-endian, strings in DataOutput's modified UTF-8, "" for none):
+ * <pre>
+ *   int    magic "DLCJ"
+ *   u1     version (1)
+ *   u1     1 if based on the circuit file, else 0
+ *   records, each a u1 kind followed by:
+ *     ADD_GATE     id, type, double x, double y, label
+ *     MOVE_GATE    id, double x, double y
+ *     REMOVE_GATE  id (its wires are removed by their own records first)
+ *     SET_LABEL    id, label
+ *     ADD_WIRE     start id, start pin, end id, end pin
+ *     REMOVE_WIRE  start id, start pin, end id, end pin
+ *     SET_CLOCK    id, double frequency, long phase (also follows the ADD_GATE of a clock not at its defaults)
+ * </pre>
+ * A record cut short by a crash is ignored on replay and overwritten when the journal is resumed.
+ */
+public final class EditJournal {
+
+    public static final String EXTENSION = ".journal";
+
+    private static final Path UNTITLED = Paths.get("autosave" + EXTENSION);
+    private static final int MAGIC = 0x444C434A; // "DLCJ"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 6;
+    private static final int COMPACT_MIN_EDITS = 1000;
+
+    private static final int ADD_GATE = 1;
+    private static final int MOVE_GATE = 2;
+    private static final int REMOVE_GATE = 3;
+    private static final int SET_LABEL = 4;
+    private static final int ADD_WIRE = 5;
+    private static final int REMOVE_WIRE = 6;
+    private static final int SET_CLOCK = 7;
+
+    private final Path path;
+    private final ByteArrayOutputStream record = new ByteArrayOutputStream(); // The record being written
+    private final DataOutputStream recordOut = new DataOutputStream(record);
+    private DataOutputStream out;
+    private int edits = 0; // Records appended since the starting point
+    private int baseSize; // Gates and wires in the starting point
+    private ByteArrayOutputStream tail; // Records appended while a snapshot is being written, else null
+    private int tailRecords;
+    private boolean closed = false;
+
+    private EditJournal(Path path, int baseSize) throws IOException {
+        this.path = path;
+        this.baseSize = baseSize;
+        this.out = openAppend(path);
+    }
+
+    /**
+     * @param circuitFile the file the circuit was loaded from or saved to, or null if it has none
+     * @return where that circuit's journal lives.
+     */
+    public static Path pathFor(File circuitFile) {
+        return (circuitFile == null) ? UNTITLED : Paths.get(circuitFile.getPath() + EXTENSION);
+    }
+
+    /**
+     * @return true if the journal exists and holds edits, i.e. there is unsaved work to recover.
+     */
+    public static boolean hasEdits(Path path) {
+        try {
+            return Files.isRegularFile(path) && Files.size(path) > HEADER_SIZE;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Starts an empty journal, replacing any old one.
+     *
+     * @param based    true if the circuit file is the starting point, false if the circuit starts empty
+     * @param baseSize the number of gates and wires in the starting point
+     */
+    public static EditJournal start(Path path, boolean based, int baseSize) throws IOException {
+        try (DataOutputStream header = new DataOutputStream(Files.newOutputStream(path))) {
+            writeHeader(header, based);
+        }
+        return new EditJournal(path, based ? baseSize : 0);
+    }
+
+    /**
+     * Continues a journal whose circuit was rebuilt with {@link #replay}. A record cut short at the end is dropped.
+     *
+     * @param size the number of gates and wires in the rebuilt circuit
+     */
+    public static EditJournal resume(Path path, int size) throws IOException {
+        Replay replay = read(path);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            channel.truncate(replay.validLength);
+        }
+        EditJournal journal = new EditJournal(path, size);
+        journal.edits = replay.records;
+        journal.baseSize = Math.max(0, size - replay.records);
+        return journal;
+    }
+
+    /**
+     * Rebuilds the circuit recorded in a journal and passes it on, all gates first.
+     */
+    public static void replay(Path path, ObjectMapper objectMapper, CircuitFileFormat.Handler handler) throws IOException {
+        Replay replay = read(path);
+        Map<String, GateSaveData> gates = new LinkedHashMap<>();
+        Map<String, WireSaveData> wires = new LinkedHashMap<>();
+
+        // 1. The circuit file the journal started from
+        if (replay.based) {
+            File base = new File(path.toString().substring(0, path.toString().length() - EXTENSION.length()));
+            CircuitData circuit = CircuitFileFormat.read(base, objectMapper);
+            for (GateSaveData gate : circuit.getGates()) gates.put(gate.getId(), gate);
+            for (WireSaveData wire : circuit.getWires()) wires.put(key(wire), wire);
+        }
+
+        // 2. The edits since
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(replay.bytes, HEADER_SIZE, replay.validLength - HEADER_SIZE));
+        for (int i = 0; i < replay.records; i++) {
+            int kind = in.readUnsignedByte();
+            switch (kind) {
+                case ADD_GATE: {
+                    GateSaveData gate = new GateSaveData(in.readUTF(), in.readUTF(), in.readDouble(), in.readDouble(), orNull(in.readUTF()));
+                    gates.put(gate.getId(), gate);
+                    break;
+                }
+                case MOVE_GATE: {
+                    GateSaveData gate = gates.get(in.readUTF());
+                    double x = in.readDouble();
+                    double y = in.readDouble();
+                    if (gate != null) {
+                        gate.setX(x);
+                        gate.setY(y);
+                    }
+                    break;
+                }
+                case REMOVE_GATE:
+                    gates.remove(in.readUTF());
+                    break;
+                case SET_LABEL: {
+                    GateSaveData gate = gates.get(in.readUTF());
+                    String label = orNull(in.readUTF());
+                    if (gate != null) gate.setCustomLabel(label);
+                    break;
+                }
+                case ADD_WIRE: {
+                    WireSaveData wire = readWire(in);
+                    wires.put(key(wire), wire);
+                    break;
+                }
+                case REMOVE_WIRE:
+                    wires.remove(key(readWire(in)));
+                    break;
+                case SET_CLOCK: {
+                    GateSaveData gate = gates.get(in.readUTF());
+                    double frequency = in.readDouble();
+                    long phase = in.readLong();
+                    if (gate != null) {
+                        gate.setFrequency(frequency);
+                        gate.setPhase(phase);
+                    }
+                    break;
+                }
+                default:
+                    throw new IOException(path + " has an unknown record"); // Cannot happen after read()
+            }
+        }
+
+        gates.values().forEach(handler::gate);
+        wires.values().forEach(handler::wire);
+    }
+
+    public synchronized void gateAdded(GateSaveData gate) throws IOException {
+        writeGate(recordOut, gate);
+        recorded();
+    }
+
+    public synchronized void gateMoved(String id, double x, double y) throws IOException {
+        recordOut.writeByte(MOVE_GATE);
+        recordOut.writeUTF(id);
+        recordOut.writeDouble(x);
+        recordOut.writeDouble(y);
+        recorded();
+    }
+
+    public synchronized void gateRemoved(String id) throws IOException {
+        recordOut.writeByte(REMOVE_GATE);
+        recordOut.writeUTF(id);
+        recorded();
+    }
+
+    public synchronized void labelChanged(String id, String label) throws IOException {
+        recordOut.writeByte(SET_LABEL);
+        recordOut.writeUTF(id);
+        recordOut.writeUTF(orEmpty(label));
+        recorded();
+    }
+
+    public synchronized void clockChanged(String id, double frequency, long phaseNanos) throws IOException {
+        writeClock(recordOut, id, frequency, phaseNanos);
+        recorded();
+    }
+
+    public synchronized void wireAdded(WireSaveData wire) throws IOException {
+        writeWire(recordOut, ADD_WIRE, wire);
+        recorded();
+    }
+
+    public synchronized void wireRemoved(WireSaveData wire) throws IOException {
+        writeWire(recordOut, REMOVE_WIRE, wire);
+        recorded();
+    }
+
+    /**
+     * @return true once replaying the journal would cost more than writing a snapshot of the circuit.
+     */
+    public synchronized boolean needsCompaction() {
+        return tail == null && edits >= Math.max(COMPACT_MIN_EDITS, baseSize);
+    }
+
+    /**
+     * Starts replacing the journal with a snapshot of the circuit, written on a background thread.
+     * The snapshot is written next to the journal and moved over it once complete, so a crash leaves
+     * one or the other; it is flushed only once, at the end, as it is of no use before.
+     */
+    public synchronized void compact(CircuitData circuit) {
+        if (tail != null || closed) return;
+        tail = new ByteArrayOutputStream();
+        tailRecords = 0;
+        Thread compactor = new Thread(() -> writeSnapshot(circuit), "journal-compactor");
+        compactor.setDaemon(true);
+        compactor.start();
+    }
+
+    private void writeSnapshot(CircuitData circuit) {
+        Path snapshot = path.resolveSibling(path.getFileName() + ".tmp");
+        try {
+            // 1. The circuit as it was when compaction started
+            try (DataOutputStream snapshotOut = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(snapshot)))) {
+                writeHeader(snapshotOut, false);
+                for (GateSaveData gate : circuit.getGates()) writeGate(snapshotOut, gate);
+                for (WireSaveData wire : circuit.getWires()) writeWire(snapshotOut, ADD_WIRE, wire);
+            }
+            // 2. The edits recorded since, then the snapshot takes the journal's place
+            synchronized (this) {
+                if (closed) {
+                    Files.deleteIfExists(snapshot);
+                    return;
+                }
+                try (OutputStream append = Files.newOutputStream(snapshot, StandardOpenOption.APPEND)) {
+                    tail.writeTo(append);
+                }
+                out.close();
+                try {
+                    Files.move(snapshot, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } finally {
+                    out = openAppend(path); // The snapshot, or the old journal if it could not be replaced
+                }
+                edits = tailRecords;
+                baseSize = circuit.getGates().size() + circuit.getWires().size();
+                tail = null;
+            }
+        } catch (IOException e) {
+            System.err.println("Error compacting " + path + ": " + e.getMessage());
+            try {
+                Files.deleteIfExists(snapshot);
+            } catch (IOException ignored) {
+                // Overwritten by the next compaction
+            }
+            synchronized (this) {
+                tail = null;
+                edits = 0; // The journal is intact; try again after as many edits
+            }
+        }
+    }
+
+    // True while a snapshot is being written
+    synchronized boolean isCompacting() {
+        return tail != null;
+    }
+
+    public synchronized void close() {
+        closed = true;
+        try {
+            out.close();
+        } catch (IOException e) {
+            System.err.println("Error closing " + path + ": " + e.getMessage());
+        }
+    }
+
+    // Each record reaches the file before the edit returns, so it survives the application crashing
+    private void recorded() throws IOException {
+        try {
+            record.writeTo(out);
+            out.flush();
+            if (tail != null) {
+                record.writeTo(tail);
+                tailRecords++;
+            }
+        } finally {
+            record.reset();
+        }
+        edits++;
+    }
+
+    private static DataOutputStream openAppend(Path path) throws IOException {
+        return new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(path, StandardOpenOption.CREATE, StandardOpenOption.APPEND)));
+    }
+
+    private static void writeHeader(DataOutputStream out, boolean based) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeByte(VERSION);
+        out.writeByte(based ? 1 : 0);
+    }
+
+    private static void writeGate(DataOutputStream out, GateSaveData gate) throws IOException {
+        out.writeByte(ADD_GATE);
+        out.writeUTF(gate.getId());
+        out.writeUTF(gate.getGateType());
+        out.writeDouble(gate.getX());
+        out.writeDouble(gate.getY());
+        out.writeUTF(orEmpty(gate.getCustomLabel()));
+        if (gate.getFrequency() != null || gate.getPhase() != null) {
+            writeClock(out, gate.getId(), (gate.getFrequency() == null) ? ClockGate.DEFAULT_FREQUENCY : gate.getFrequency(),
+                    (gate.getPhase() == null) ? 0 : gate.getPhase());
+        }
+    }
+
+    private static void writeClock(DataOutputStream out, String id, double frequency, long phaseNanos) throws IOException {
+        out.writeByte(SET_CLOCK);
+        out.writeUTF(id);
+        out.writeDouble(frequency);
+        out.writeLong(phaseNanos);
+    }
+
+    private static void writeWire(DataOutputStream out, int kind, WireSaveData wire) throws IOException {
+        out.writeByte(kind);
+        out.writeUTF(wire.getStartGateId());
+        out.writeUTF(orEmpty(wire.getStartPinName()));
+        out.writeUTF(wire.getEndGateId());
+        out.writeUTF(orEmpty(wire.getEndPinType()));
+    }
+
+    private static WireSaveData readWire(DataInputStream in) throws IOException {
+        String startGateId = in.readUTF();
+        String startPinName = orNull(in.readUTF());
+        WireSaveData wire = new WireSaveData(startGateId, in.readUTF(), orNull(in.readUTF()));
+        wire.setStartPinName(startPinName);
+        return wire;
+    }
+
+    private static String key(WireSaveData wire) {
+        return wire.getStartGateId() + '\0' + wire.getStartPinName() + '\0' + wire.getEndGateId() + '\0' + wire.getEndPinType();
+    }
+
+    private static String orEmpty(String value) {
+        return (value == null) ? "" : value;
+    }
+
+    private static String orNull(String value) {
+        return value.isEmpty() ? null : value;
+    }
+
+    // Checks the header and finds where the last complete record ends
+    private static Replay read(Path path) throws IOException {
+        byte[] bytes = Files.readAllBytes(path);
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        if (bytes.length < HEADER_SIZE || in.readInt() != MAGIC) throw new IOException(path + " is not an autosave journal");
+        int version = in.readUnsignedByte();
+        if (version != VERSION) throw new IOException(path + " has unsupported journal version " + version);
+        boolean based = in.readUnsignedByte() != 0;
+
+        int validLength = HEADER_SIZE;
+        int records = 0;
+        try {
+            while (in.available() > 0) {
+                switch (in.readUnsignedByte()) {
+                    case ADD_GATE: in.readUTF(); in.readUTF(); in.readDouble(); in.readDouble(); in.readUTF(); break;
+                    case MOVE_GATE: in.readUTF(); in.readDouble(); in.readDouble(); break;
+                    case REMOVE_GATE: in.readUTF(); break;
+                    case SET_LABEL: in.readUTF(); in.readUTF(); break;
+                    case ADD_WIRE:
+                    case REMOVE_WIRE: in.readUTF(); in.readUTF(); in.readUTF(); in.readUTF(); break;
+                    case SET_CLOCK: in.readUTF(); in.readDouble(); in.readLong(); break;
+                    default: throw new EOFException(); // Garbage after a torn write
+                }
+                validLength = bytes.length - in.available();
+                records++;
+            }
+        } catch (EOFException | UTFDataFormatException e) {
+            // The last record was cut short; everything before it stands
+        }
+        return new Replay(bytes, based, validLength, records);
+    }
+
+    private static final class Replay {
+        final byte[] bytes;
+        final boolean based;
+        final int validLength;
+        final int records;
+
+        Replay(byte[] bytes, boolean based, int validLength, int records) {
+            this.bytes = bytes;
+            this.based = based;
+            this.validLength = validLength;
+            this.records = records;
+        }
+    }
+}
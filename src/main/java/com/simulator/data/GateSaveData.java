@@ -1,11 +1,20 @@
 package com.simulator.data;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.simulator.model.ClockGate;
+import com.simulator.model.Gate;
+
 public class GateSaveData {
     private String id;
     private String gateType; // e.g., "AND_GATE", "SWITCH"
     private double x;
     private double y;
     private String customLabel;
+    // Clocks only; null for the defaults, and then left out of the file
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private Double frequency; // Hz
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private Long phase; // Nanoseconds
 
     // Default constructor (required by Jackson)
     public GateSaveData() {}
@@ -59,4 +68,42 @@ public class GateSaveData {
     public void setCustomLabel(String customLabel) {
         this.customLabel = customLabel;
     }
+
+    public Double getFrequency() {
+        return frequency;
+    }
+
+    public void setFrequency(Double frequency) {
+        this.frequency = frequency;
+    }
+
+    public Long getPhase() {
+        return phase;
+    }
+
+    public void setPhase(Long phase) {
+        this.phase = phase;
+    }
+
+    /**
+     * Takes the frequency and phase of a clock, leaving out those at their default. Does nothing for other gates.
+     */
+    public void readClockSettings(Gate model) {
+        if (!(model instanceof ClockGate)) return;
+        ClockGate clock = (ClockGate) model;
+        frequency = (clock.getFrequency() == ClockGate.DEFAULT_FREQUENCY) ? null : clock.getFrequency();
+        phase = (clock.getPhaseNanos() == 0) ? null : clock.getPhaseNanos();
+    }
+
+    /**
+     * Gives a newly created clock the saved frequency and phase. Does nothing for other gates.
+     *
+     * @throws IllegalArgumentException if the saved frequency is not positive or the phase is negative.
+     */
+    public void applyClockSettings(Gate model) {
+        if (!(model instanceof ClockGate)) return;
+        ClockGate clock = (ClockGate) model;
+        if (frequency != null) clock.setFrequency(frequency);
+        if (phase != null) clock.setPhaseNanos(phase);
+    }
 }
\ No newline at end of file
@@ -0,0 +1,179 @@
+package com.simulator.data;
+
+import com.simulator.engine.Netlist;
+import com.simulator.engine.NetlistCompiler;
+import com.simulator.model.*;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * The internals of a {@link CustomGateTemplate} built as model gates, with no JavaFX involved.
+ * Nested custom gates are created through a factory, so they are built the same way as on the workspace.
+ */
+public final class TemplateCircuit {
+
+    private final Map<String, Gate> gatesById = new LinkedHashMap<>();
+    private final List<String> inputNames;
+    private final List<String> outputNames;
+    private final List<List<PinMapping>> inputPins = new ArrayList<>(); // Internal pins of each exposed input
+    private final Gate[] outputGates;
+
+    /**
+     * @param instances creates a custom gate component by template name, or returns null if it cannot
+     * @throws IllegalArgumentException if the template references an unknown gate type or a missing gate.
+     */
+    public TemplateCircuit(CustomGateTemplate template, Function<String, CustomGate> instances) {
+        // 1. Re-create gates
+        for (GateSaveData gateData : template.getInternalGates()) {
+            String type = gateData.getGateType();
+            Gate model;
+            if (type != null && type.startsWith("CUSTOM:")) {
+                model = instances.apply(type.substring("CUSTOM:".length()));
+            } else {
+                GateType builtIn = GateType.fromId(type);
+                model = (builtIn == null) ? null : builtIn.createModel();
+            }
+            if (model == null) throw new IllegalArgumentException("Unknown gate type '" + type + "' in " + template.getGateName());
+            gateData.applyClockSettings(model);
+            gatesById.put(gateData.getId(), model);
+        }
+
+        // 2. Re-create wires
+        for (WireSaveData wireData : template.getInternalWires()) {
+            Gate start = gatesById.get(wireData.getStartGateId());
+            Gate end = gatesById.get(wireData.getEndGateId());
+            Gate source = (start == null) ? null : Pins.output(start, wireData.getStartPinName());
+            if (source == null || end == null || !Pins.connect(end, wireData.getEndPinType(), source)) {
+                throw new IllegalArgumentException("Broken internal wire in " + template.getGateName());
+            }
+        }
+
+        // 3. Resolve the exposed pins
+        this.inputNames = template.listInputNames();
+        this.outputNames = template.listOutputNames();
+        for (int i = 0; i < inputNames.size(); i++) {
+            inputPins.add(new ArrayList<>());
+        }
+        this.outputGates = new Gate[outputNames.size()];
+        for (PinMapping mapping : template.getMappings()) {
+            Gate gate = gatesById.get(mapping.getInternalGateId());
+            if (gate == null) throw new IllegalArgumentException("Pin " + mapping.getExposedName() + " of "
+                    + template.getGateName() + " references a missing gate");
+            if ("IN".equals(mapping.getDirection())) {
+                inputPins.get(inputNames.indexOf(mapping.getExposedName())).add(mapping);
+            } else {
+                Gate output = Pins.output(gate, mapping.getInternalPinType());
+                if (output == null) throw new IllegalArgumentException("Pin " + mapping.getExposedName() + " of "
+                        + template.getGateName() + " is not an output");
+                outputGates[outputNames.indexOf(mapping.getExposedName())] = output;
+            }
+        }
+    }
+
+    public List<String> getInputNames() {
+        return inputNames;
+    }
+
+    public List<String> getOutputNames() {
+        return outputNames;
+    }
+
+    /**
+     * Connects a source to every internal pin of an exposed input.
+     */
+    public void connectInput(int index, Gate source) {
+        for (PinMapping mapping : inputPins.get(index)) {
+            Pins.connect(gatesById.get(mapping.getInternalGateId()), mapping.getInternalPinType(), source);
+        }
+    }
+
+    public Gate getOutputGate(int index) {
+        return outputGates[index];
+    }
+
+    /**
+     * @return every internal gate by its id in the template.
+     */
+    public Map<String, Gate> getGates() {
+        return gatesById;
+    }
+
+    /**
+     * Turns the internal gates into the definition shared by every {@link CompositeGate} of the template.
+     * The exposed inputs are connected to ports; this circuit must not be used afterwards.
+     */
+    public CompositeGate.Definition toDefinition(String templateName) {
+        CompositeGate.Port[] ports = new CompositeGate.Port[inputNames.size()];
+        for (int i = 0; i < ports.length; i++) {
+            ports[i] = new CompositeGate.Port();
+            connectInput(i, ports[i]);
+        }
+        return new CompositeGate.Definition(templateName, inputNames.toArray(new String[0]),
+                outputNames.toArray(new String[0]), ports, outputGates, gatesById);
+    }
+
+    /**
+     * Computes the lookup table (see {@link LookupGate}) by evaluating every input pattern,
+     * 64 patterns per pass of the bit-parallel netlist evaluator.
+     *
+     * @return the table, or null if the circuit has more than {@link LookupGate#MAX_INPUTS} inputs or
+     * {@link LookupGate#MAX_OUTPUTS} outputs, no outputs, or depends on more than its inputs
+     * (a switch, a clock or a feedback loop inside).
+     */
+    public long[] computeLookupTable() {
+        int inputCount = inputNames.size();
+        if (inputCount > LookupGate.MAX_INPUTS || outputGates.length > LookupGate.MAX_OUTPUTS || outputGates.length == 0) {
+            return null;
+        }
+        // Drive each exposed input from a switch, whose word the evaluator takes as given
+        List<Gate> roots = new ArrayList<>();
+        InputSwitch[] drivers = new InputSwitch[inputCount];
+        for (int i = 0; i < inputCount; i++) {
+            drivers[i] = new InputSwitch();
+            connectInput(i, drivers[i]);
+            roots.add(drivers[i]);
+        }
+        for (Gate output : outputGates) {
+            roots.add(output);
+        }
+        Netlist netlist = NetlistCompiler.compile(roots);
+        // Any source besides the drivers (a switch or clock inside, also in nested gates) rules a table out
+        if (netlist.hasFeedback() || netlist.getSourceNodes().length != inputCount) return null;
+
+        int[] inputNodes = new int[inputCount];
+        for (int i = 0; i < inputCount; i++) {
+            inputNodes[i] = netlist.indexOf(drivers[i]);
+        }
+        int[] outputNodes = new int[outputGates.length];
+        for (int j = 0; j < outputGates.length; j++) {
+            outputNodes[j] = netlist.indexOf(outputGates[j]);
+        }
+
+        int rows = 1 << inputCount;
+        long[] table = new long[rows];
+        long[] words = new long[netlist.size()];
+        for (int base = 0; base < rows; base += 64) {
+            // Bit p of input i's word is bit i of row base + p
+            for (int i = 0; i < inputCount; i++) {
+                long word = 0;
+                for (int p = 0; p < 64; p++) {
+                    if ((((base + p) >>> i) & 1) != 0) word |= 1L << p;
+                }
+                words[inputNodes[i]] = word;
+            }
+            netlist.evaluateWords(words);
+            for (int p = 0; p < 64 && base + p < rows; p++) {
+                long row = 0;
+                for (int j = 0; j < outputNodes.length; j++) {
+                    if (((words[outputNodes[j]] >>> p) & 1) != 0) row |= 1L << j;
+                }
+                table[base + p] = row;
+            }
+        }
+        return table;
+    }
+}
@@ -0,0 +1,232 @@
+package com.simulator.data;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.util.ByteBufferBackedInputStream;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A packed library of custom gate templates in a single file (*.dlclib), read into memory when opened.
+ * The file is not mapped: a library replaced on disk (e.g. re-packed or synced) must not change
+ * the bytes under a library that is already open.
+ * The header indexes every template by name, so a library can be listed without parsing any template;
+ * a template body is parsed only when it is asked for.
+ * <p>
+ * Layout (big-endian):
+ * <pre>
+ *   int    magic "DLCL"
+ *   int    version (1)
+ *   int    template count
+ *   per template: u2 name length, name (UTF-8), long body offset, int body length, u2 inputs, u2 outputs
+ *   bodies: each template as compact JSON (the same form as a file in custom_gates)
+ * </pre>
+ * Packing from the command line:
+ * <pre>
+ *   TemplateLibrary &lt;library.dlclib&gt; &lt;template.json | directory&gt;...
+ * </pre>
+ */
+public final class TemplateLibrary {
+
+    public static final String EXTENSION = ".dlclib";
+
+    private static final int MAGIC = 0x444C434C; // "DLCL"
+    private static final int VERSION = 1;
+
+    private final ByteBuffer buffer;
+    private final Map<String, Entry> entries; // In file order
+
+    private TemplateLibrary(ByteBuffer buffer, Map<String, Entry> entries) {
+        this.buffer = buffer;
+        this.entries = entries;
+    }
+
+    /**
+     * Reads a library file and its index.
+     *
+     * @throws IOException if the file cannot be read or is not a valid library.
+     */
+    public static TemplateLibrary open(Path file) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file));
+        try {
+            if (buffer.getInt() != MAGIC) throw new IOException(file + " is not a template library");
+            int version = buffer.getInt();
+            if (version != VERSION) throw new IOException(file + " has unsupported library version " + version);
+
+            int count = buffer.getInt();
+            Map<String, Entry> entries = new LinkedHashMap<>();
+            for (int i = 0; i < count; i++) {
+                byte[] name = new byte[Short.toUnsignedInt(buffer.getShort())];
+                buffer.get(name);
+                long offset = buffer.getLong();
+                int length = buffer.getInt();
+                int inputs = Short.toUnsignedInt(buffer.getShort());
+                int outputs = Short.toUnsignedInt(buffer.getShort());
+                if (offset < 0 || length < 0 || offset + length > buffer.capacity()) {
+                    throw new IOException(file + " has a damaged index");
+                }
+                entries.putIfAbsent(new String(name, StandardCharsets.UTF_8), new Entry((int) offset, length, inputs, outputs));
+            }
+            return new TemplateLibrary(buffer, entries);
+        } catch (RuntimeException e) {
+            throw new IOException(file + " has a damaged index", e); // Truncated header
+        }
+    }
+
+    /**
+     * @return the names of the templates in the library, in file order.
+     */
+    public Set<String> getNames() {
+        return Collections.unmodifiableSet(entries.keySet());
+    }
+
+    public boolean contains(String name) {
+        return entries.containsKey(name);
+    }
+
+    /**
+     * @return the number of exposed inputs of a template, read from the index (-1 if not in the library).
+     */
+    public int getInputCount(String name) {
+        Entry entry = entries.get(name);
+        return (entry == null) ? -1 : entry.inputs;
+    }
+
+    /**
+     * @return the number of exposed outputs of a template, read from the index (-1 if not in the library).
+     */
+    public int getOutputCount(String name) {
+        Entry entry = entries.get(name);
+        return (entry == null) ? -1 : entry.outputs;
+    }
+
+    /**
+     * Parses one template body. Every call parses it again; callers keep the result.
+     *
+     * @return the template, or null if it is not in the library.
+     */
+    public CustomGateTemplate read(String name, ObjectMapper objectMapper) throws IOException {
+        Entry entry = entries.get(name);
+        if (entry == null) return null;
+        ByteBuffer body = buffer.slice(entry.offset, entry.length);
+        return objectMapper.readValue(new ByteBufferBackedInputStream(body), CustomGateTemplate.class);
+    }
+
+    /**
+     * Writes templates into a new library file, replacing any existing one.
+     * Templates with the same name as an earlier one are skipped. The library is written next to
+     * the file and then moved over it, so a reader never sees a half-written library.
+     */
+    public static void pack(List<CustomGateTemplate> templates, Path file, ObjectMapper objectMapper) throws IOException {
+        // 1. Bodies first, so the index knows their sizes
+        Map<String, byte[]> bodies = new LinkedHashMap<>();
+        Map<String, CustomGateTemplate> byName = new LinkedHashMap<>();
+        for (CustomGateTemplate template : templates) {
+            String name = template.getGateName();
+            if (name == null || bodies.containsKey(name)) continue;
+            bodies.put(name, objectMapper.writer().without(SerializationFeature.INDENT_OUTPUT).writeValueAsBytes(template));
+            byName.put(name, template);
+        }
+
+        ByteArrayOutputStream index = new ByteArrayOutputStream();
+        DataOutputStream indexOut = new DataOutputStream(index);
+        long headerSize = 12;
+        for (String name : bodies.keySet()) {
+            headerSize += 2 + name.getBytes(StandardCharsets.UTF_8).length + 8 + 4 + 2 + 2;
+        }
+        long offset = headerSize;
+        for (Map.Entry<String, byte[]> body : bodies.entrySet()) {
+            byte[] name = body.getKey().getBytes(StandardCharsets.UTF_8);
+            CustomGateTemplate template = byName.get(body.getKey());
+            indexOut.writeShort(name.length);
+            indexOut.write(name);
+            indexOut.writeLong(offset);
+            indexOut.writeInt(body.getValue().length);
+            indexOut.writeShort(template.listInputNames().size());
+            indexOut.writeShort(template.listOutputNames().size());
+            offset += body.getValue().length;
+        }
+
+        // 2. Header, index, bodies
+        Path packed = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            try (OutputStream stream = new BufferedOutputStream(Files.newOutputStream(packed));
+                 DataOutputStream out = new DataOutputStream(stream)) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(bodies.size());
+                index.writeTo(out);
+                for (byte[] body : bodies.values()) {
+                    out.write(body);
+                }
+            }
+            Files.move(packed, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            Files.deleteIfExists(packed);
+            throw e;
+        }
+    }
+
+    public static void main(String[] args) {
+        if (args.length < 2) {
+            System.err.println("Usage: TemplateLibrary <library" + EXTENSION + "> <template.json | directory>...");
+            System.exit(2);
+        }
+        ObjectMapper objectMapper = new ObjectMapper();
+        List<CustomGateTemplate> templates = new ArrayList<>();
+        boolean allRead = true;
+        for (int i = 1; i < args.length; i++) {
+            File source = new File(args[i]);
+            File[] files = source.isDirectory()
+                    ? source.listFiles((dir, name) -> name.toLowerCase().endsWith(".json"))
+                    : new File[]{source};
+            if (files == null) continue;
+            for (File file : files) {
+                try {
+                    templates.add(objectMapper.readValue(file, CustomGateTemplate.class));
+                } catch (IOException e) {
+                    System.err.println(file.getPath() + ": " + e.getMessage());
+                    allRead = false;
+                }
+            }
+        }
+        try {
+            pack(templates, Path.of(args[0]), objectMapper);
+            System.out.println("Packed " + templates.size() + " templates into " + args[0]);
+        } catch (IOException e) {
+            System.err.println("Cannot write " + args[0] + ": " + e.getMessage());
+            System.exit(1);
+        }
+        System.exit(allRead ? 0 : 1);
+    }
+
+    private static final class Entry {
+        final int offset;
+        final int length;
+        final int inputs;
+        final int outputs;
+
+        Entry(int offset, int length, int inputs, int outputs) {
+            this.offset = offset;
+            this.length = length;
+            this.inputs = inputs;
+            this.outputs = outputs;
+        }
+    }
+}
@@ -1,6 +1,9 @@
 package com.simulator.data;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.simulator.model.CompositeGate;
+import com.simulator.model.CustomGate;
+import com.simulator.model.LookupGate;
 import com.simulator.ui.ConnectionPin;
 import com.simulator.ui.GateView;
 import com.simulator.ui.Wire;
@@ -11,42 +14,292 @@ import javafx.scene.layout.Pane;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.*;
 
 public class TemplateManager {
-    private final Map<String, CustomGateTemplate> customGateTemplates = new HashMap<>();
+    private static final Path TEMPLATE_DIRECTORY = Paths.get("custom_gates");
+    private static final long WATCH_SETTLE_MILLIS = 200; // Bursts of file events within this are merged into one reload
+
+    // The template maps are guarded by this: circuits create instances on a background loading thread
+    private final Map<String, CustomGateTemplate> customGateTemplates = new HashMap<>(); // From template files
+    private final Map<String, TemplateLibrary> libraryTemplates = new HashMap<>(); // Indexed in a packed library
+    private final Map<String, CustomGateTemplate> parsedLibraryTemplates = new HashMap<>(); // Parsed on first use
+    private final Map<Path, LoadedFile> loadedFiles = new HashMap<>(); // What each file held when last parsed
     private final ObjectMapper objectMapper;
+    private final Map<String, CompositeGate.Definition> definitions = new HashMap<>(); // Built on first use
+    private final Set<String> instantiating = new HashSet<>(); // Templates being built, to catch self-nesting
+    private WatchService watchService; // Null while not watching
 
     public TemplateManager(ObjectMapper objectMapper) {
         this.objectMapper = objectMapper;
     }
 
-    public void loadCustomGateTemplates() {
-        customGateTemplates.clear();
-        File directory = new File("custom_gates");
-        if (!directory.exists() || !directory.isDirectory()) return;
+    /**
+     * Brings the templates in line with the files in custom_gates. Only files that are new, or whose size
+     * or modification time changed since they were last parsed, are read; removed files drop their template.
+     * Packed libraries ({@link TemplateLibrary}) in the folder only have their index read here.
+     *
+     * @return the names of the templates that were added, changed or removed.
+     */
+    public synchronized Set<String> loadCustomGateTemplates() {
+        Set<String> changed = new HashSet<>();
+        Map<Path, BasicFileAttributes> present = new HashMap<>();
+        if (Files.isDirectory(TEMPLATE_DIRECTORY)) {
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(TEMPLATE_DIRECTORY,
+                    file -> file.getFileName().toString().toLowerCase().endsWith(".json") || isLibrary(file))) {
+                for (Path file : files) {
+                    present.put(file, Files.readAttributes(file, BasicFileAttributes.class));
+                }
+            } catch (IOException e) {
+                System.err.println("Error listing custom gates: " + e.getMessage());
+                return changed;
+            }
+        }
 
-        File[] files = directory.listFiles((dir, name) -> name.toLowerCase().endsWith(".json"));
-        if (files == null) return;
+        // 1. Files that are gone
+        Iterator<Map.Entry<Path, LoadedFile>> loaded = loadedFiles.entrySet().iterator();
+        while (loaded.hasNext()) {
+            Map.Entry<Path, LoadedFile> entry = loaded.next();
+            if (!present.containsKey(entry.getKey())) {
+                forget(entry.getValue(), changed);
+                loaded.remove();
+            }
+        }
 
-        for (File file : files) {
+        // 2. Files that are new or were modified
+        List<CustomGateTemplate> parsed = new ArrayList<>();
+        for (Map.Entry<Path, BasicFileAttributes> entry : present.entrySet()) {
+            long size = entry.getValue().size();
+            long modified = entry.getValue().lastModifiedTime().toMillis();
+            LoadedFile previous = loadedFiles.get(entry.getKey());
+            if (previous != null && previous.size == size && previous.modified == modified) continue;
             try {
-                CustomGateTemplate template = objectMapper.readValue(file, CustomGateTemplate.class);
+                if (isLibrary(entry.getKey())) {
+                    TemplateLibrary library = TemplateLibrary.open(entry.getKey());
+                    if (previous != null) forget(previous, changed);
+                    loadedFiles.put(entry.getKey(), new LoadedFile(size, modified, null, library));
+                    continue; // Its names are added below
+                }
+                CustomGateTemplate template = objectMapper.readValue(entry.getKey().toFile(), CustomGateTemplate.class);
+                if (previous != null) forget(previous, changed);
+                loadedFiles.put(entry.getKey(), new LoadedFile(size, modified, template, null));
                 if (template.getGateName() != null) {
                     customGateTemplates.put(template.getGateName(), template);
+                    changed.add(template.getGateName());
+                    parsed.add(template);
                 }
             } catch (IOException e) {
+                // Possibly still being written; the old version stays until the file parses
                 System.err.println("Error loading custom gate: " + e.getMessage());
             }
         }
+        // 3. Library entries not provided yet (new libraries, or names another library no longer provides)
+        for (LoadedFile file : loadedFiles.values()) {
+            if (file.library == null) continue;
+            for (String name : file.library.getNames()) {
+                if (libraryTemplates.putIfAbsent(name, file.library) == null) changed.add(name);
+            }
+        }
+        if (!changed.isEmpty()) definitions.clear(); // Other templates may nest a changed one
+
+        // Templates bundled before lookup tables existed (or with a damaged table) get one now
+        for (CustomGateTemplate template : parsed) {
+            ensureLookupTable(template);
+        }
+        return changed;
+    }
+
+    private static boolean isLibrary(Path file) {
+        return file.getFileName().toString().toLowerCase().endsWith(TemplateLibrary.EXTENSION);
+    }
+
+    private void ensureLookupTable(CustomGateTemplate template) {
+        long[] table = template.getLookupTable();
+        int inputs = template.listInputNames().size();
+        if (table == null || inputs > LookupGate.MAX_INPUTS || table.length != 1 << inputs) {
+            template.setLookupTable(buildLookupTable(template));
+        }
+    }
+
+    // Drops the templates a file held, unless another file has replaced them since
+    private void forget(LoadedFile file, Set<String> changed) {
+        if (file.library != null) {
+            for (String name : file.library.getNames()) {
+                if (libraryTemplates.get(name) == file.library) {
+                    libraryTemplates.remove(name);
+                    parsedLibraryTemplates.remove(name);
+                    changed.add(name);
+                }
+            }
+            return;
+        }
+        String name = file.template.getGateName();
+        if (name != null && customGateTemplates.get(name) == file.template) {
+            customGateTemplates.remove(name);
+            changed.add(name);
+        }
+    }
+
+    /**
+     * Watches custom_gates for files added, changed or removed by other programs (e.g. a shared library
+     * being synced) and runs the listener on a background thread after each burst of changes.
+     * Does nothing if already watching or if the directory does not exist yet.
+     */
+    public void startWatching(Runnable listener) {
+        if (watchService != null || !Files.isDirectory(TEMPLATE_DIRECTORY)) return;
+        WatchService service;
+        try {
+            service = FileSystems.getDefault().newWatchService();
+            TEMPLATE_DIRECTORY.register(service, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+        } catch (IOException e) {
+            System.err.println("Error watching custom gates: " + e.getMessage());
+            return;
+        }
+        watchService = service;
+
+        Thread watcher = new Thread(() -> {
+            try {
+                while (true) {
+                    WatchKey key = service.take();
+                    Thread.sleep(WATCH_SETTLE_MILLIS);
+                    key.pollEvents(); // Everything since take(), merged into one reload
+                    boolean valid = key.reset();
+                    listener.run();
+                    if (!valid) break; // The directory was removed
+                }
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                // Stopped
+            }
+        }, "template-watcher");
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+
+    public void stopWatching() {
+        if (watchService == null) return;
+        try {
+            watchService.close();
+        } catch (IOException e) {
+            System.err.println("Error closing template watcher: " + e.getMessage());
+        }
+        watchService = null;
+    }
+
+    /**
+     * @return the template, parsed from its library on first use, or null if there is no such template.
+     * A template file in custom_gates takes precedence over a library entry of the same name.
+     */
+    public synchronized CustomGateTemplate getTemplate(String name) {
+        CustomGateTemplate template = customGateTemplates.get(name);
+        if (template == null) template = parsedLibraryTemplates.get(name);
+        if (template != null) return template;
+
+        TemplateLibrary library = libraryTemplates.get(name);
+        if (library == null) return null;
+        try {
+            template = library.read(name, objectMapper);
+        } catch (IOException e) {
+            System.err.println("Error loading custom gate " + name + ": " + e.getMessage());
+            return null;
+        }
+        template.setGateName(name);
+        parsedLibraryTemplates.put(name, template);
+        ensureLookupTable(template);
+        return template;
+    }
+
+    public synchronized boolean hasTemplate(String name) {
+        return customGateTemplates.containsKey(name) || libraryTemplates.containsKey(name);
+    }
+
+    /**
+     * @return the names of every template, from files and libraries, without parsing any library entry.
+     */
+    public synchronized Set<String> getTemplateNames() {
+        Set<String> names = new HashSet<>(customGateTemplates.keySet());
+        names.addAll(libraryTemplates.keySet());
+        return names;
+    }
+
+    /**
+     * @return e.g. "2 inputs, 1 output", taken from a library's index if the template has not been parsed.
+     */
+    public synchronized String describeTemplate(String name) {
+        int inputs;
+        int outputs;
+        CustomGateTemplate template = customGateTemplates.getOrDefault(name, parsedLibraryTemplates.get(name));
+        if (template != null) {
+            inputs = template.listInputNames().size();
+            outputs = template.listOutputNames().size();
+        } else if (libraryTemplates.containsKey(name)) {
+            inputs = libraryTemplates.get(name).getInputCount(name);
+            outputs = libraryTemplates.get(name).getOutputCount(name);
+        } else {
+            return "";
+        }
+        return inputs + (inputs == 1 ? " input, " : " inputs, ") + outputs + (outputs == 1 ? " output" : " outputs");
     }
 
-    public CustomGateTemplate getTemplate(String name) {
-        return customGateTemplates.get(name);
+    /**
+     * Creates a component for a template, to be placed as a single gate: a {@link LookupGate} if the
+     * template has a lookup table, otherwise a {@link CompositeGate}. Either way the heavy part (the table,
+     * or the internal gates) is built once per template and shared, so an instance costs a few objects.
+     *
+     * @return the component, or null if the template is unknown or broken.
+     */
+    public synchronized CustomGate createInstance(String name) {
+        CustomGateTemplate template = getTemplate(name);
+        if (template == null) return null;
+        if (template.getLookupTable() != null) {
+            return new LookupGate(name, template.listInputNames().toArray(new String[0]),
+                    template.listOutputNames().toArray(new String[0]), template.getLookupTable());
+        }
+        CompositeGate.Definition definition = definitions.get(name);
+        if (definition == null) {
+            definition = buildDefinition(template);
+            if (definition == null) return null;
+            definitions.put(name, definition);
+        }
+        return new CompositeGate(definition);
     }
 
-    public Map<String, CustomGateTemplate> getAllTemplates() {
-        return customGateTemplates;
+    private CompositeGate.Definition buildDefinition(CustomGateTemplate template) {
+        String name = template.getGateName();
+        if (!instantiating.add(name)) {
+            System.err.println("Error building custom gate: " + name + " contains itself");
+            return null;
+        }
+        try {
+            return new TemplateCircuit(template, this::createInstance).toDefinition(name);
+        } catch (IllegalArgumentException e) {
+            System.err.println("Error building custom gate: " + e.getMessage());
+            return null;
+        } finally {
+            instantiating.remove(name);
+        }
+    }
+
+    /**
+     * @return the template's lookup table, or null if it is sequential, too wide or cannot be built.
+     */
+    private long[] buildLookupTable(CustomGateTemplate template) {
+        try {
+            return new TemplateCircuit(template, this::createInstance).computeLookupTable();
+        } catch (IllegalArgumentException e) {
+            System.err.println("Error building custom gate: " + e.getMessage());
+            return null;
+        }
     }
 
     public void bundleSelectedCircuit(List<Node> selectedItems, Pane rootPane) {
@@ -65,11 +318,11 @@ public class TemplateManager {
         int outCounter = 1;
 
         for (GateView gate : selectedGates) {
-            checkAndMapInput(gate, gate.getPinInA(), selectedGates, mappings, inputPinSources, "A", rootPane);
-            checkAndMapInput(gate, gate.getPinInB(), selectedGates, mappings, inputPinSources, "B", rootPane);
+            for (ConnectionPin pinIn : gate.getInputPins()) {
+                checkAndMapInput(gate, pinIn, selectedGates, mappings, inputPinSources, rootPane);
+            }
 
-            ConnectionPin pinOut = gate.getPinOut();
-            if (pinOut != null) {
+            for (ConnectionPin pinOut : gate.getOutputPins()) {
                 List<Wire> outWires = getWiresConnectedFrom(pinOut, rootPane);
                 boolean isExternal = outWires.isEmpty();
                 if (!isExternal) {
@@ -82,7 +335,7 @@ public class TemplateManager {
                 }
                 if (isExternal) {
                     String exposedName = "Out-" + outCounter++;
-                    mappings.add(new PinMapping(exposedName, "OUT", gate.getId(), "OUT"));
+                    mappings.add(new PinMapping(exposedName, "OUT", gate.getId(), pinOut.getName()));
                 }
             }
         }
@@ -101,6 +354,7 @@ public class TemplateManager {
             template.setInternalGates((List<GateSaveData>) internalData.get(0));
             template.setInternalWires((List<WireSaveData>) internalData.get(1));
             template.setMappings(mappings);
+            template.setLookupTable(buildLookupTable(template));
             saveCustomGateTemplate(template);
         }
     }
@@ -113,8 +367,7 @@ public class TemplateManager {
         File file = new File(directory, fileName);
 
         try {
-            objectMapper.writeValue(file, template);
-            loadCustomGateTemplates(); // Reload to memory
+            objectMapper.writeValue(file, template); // Picked up by the next loadCustomGateTemplates()
             new Alert(Alert.AlertType.INFORMATION, "Custom gate saved! Reloading Palette...").showAndWait();
         } catch (IOException e) {
             new Alert(Alert.AlertType.ERROR, "Error saving custom gate: " + e.getMessage()).showAndWait();
@@ -123,14 +376,14 @@ public class TemplateManager {
 
     //Helpers
 
-    private void checkAndMapInput(GateView gate, ConnectionPin pin, List<GateView> selectedGates, List<PinMapping> mappings, Map<String, String> sources, String pinType, Pane rootPane) {
-        if (pin != null) {
-            Wire wire = getWireConnectedTo(pin, rootPane);
-            if (wire == null || !selectedGates.contains(wire.getStartPin().getParentGateView())) {
-                String sourceId = (wire == null) ? "unconnected_" + pin.getId() : wire.getStartPin().getParentGateView().getId();
-                String exposedName = sources.computeIfAbsent(sourceId, k -> "In-" + (sources.size() + 1));
-                mappings.add(new PinMapping(exposedName, "IN", gate.getId(), pinType));
-            }
+    private void checkAndMapInput(GateView gate, ConnectionPin pin, List<GateView> selectedGates, List<PinMapping> mappings, Map<String, String> sources, Pane rootPane) {
+        Wire wire = getWireConnectedTo(pin, rootPane);
+        if (wire == null || !selectedGates.contains(wire.getStartPin().getParentGateView())) {
+            // One exposed input per external output pin
+            String sourceId = (wire == null) ? "unconnected_" + pin.getId()
+                    : wire.getStartPin().getParentGateView().getId() + ":" + wire.getStartPin().getName();
+            String exposedName = sources.computeIfAbsent(sourceId, k -> "In-" + (sources.size() + 1));
+            mappings.add(new PinMapping(exposedName, "IN", gate.getId(), pin.getName()));
         }
     }
 
@@ -162,9 +415,11 @@ public class TemplateManager {
         List<WireSaveData> internalWiresData = new ArrayList<>();
 
         for (GateView view : selectedGates) {
-            internalGatesData.add(new GateSaveData(
+            GateSaveData gateData = new GateSaveData(
                     view.getId(), view.getGateType(), view.getLayoutX(), view.getLayoutY(), view.getCustomLabel()
-            ));
+            );
+            gateData.readClockSettings(view.getGateModel());
+            internalGatesData.add(gateData);
         }
 
         for (Node node : rootPane.getChildren()) {
@@ -173,11 +428,29 @@ public class TemplateManager {
                 GateView startView = wire.getStartPin().getParentGateView();
                 GateView endView = wire.getEndPin().getParentGateView();
                 if (selectedGates.contains(startView) && selectedGates.contains(endView)) {
-                    String endPinType = (wire.getEndPin() == endView.getPinInA()) ? "A" : "B";
-                    internalWiresData.add(new WireSaveData(startView.getId(), endView.getId(), endPinType));
+                    WireSaveData wireData = new WireSaveData(startView.getId(), endView.getId(), wire.getEndPin().getName());
+                    if (startView.getGateModel() instanceof CustomGate) wireData.setStartPinName(wire.getStartPin().getName());
+                    internalWiresData.add(wireData);
                 }
             }
         }
         return Arrays.asList(internalGatesData, internalWiresData);
     }
-}
\ No newline at end of file
+
+    /**
+     * A parsed template file or opened library, with the size and modification time it had when read.
+     */
+    private static final class LoadedFile {
+        final long size;
+        final long modified;
+        final CustomGateTemplate template; // Null for a library
+        final TemplateLibrary library;     // Null for a template file
+
+        LoadedFile(long size, long modified, CustomGateTemplate template, TemplateLibrary library) {
+            this.size = size;
+            this.modified = modified;
+            this.template = template;
+            this.library = library;
+        }
+    }
+}
@@ -3,7 +3,8 @@ package com.simulator.data;
 public class WireSaveData {
     private String startGateId;
     private String endGateId;
-    private String endPinType; // "A" for pinInA, "B" for pinInB
+    private String endPinType; // "A" for pinInA, "B" for pinInB, or the input name of a custom gate
+    private String startPinName; // Output name of a custom gate; null for single-output gates
 
     //Default constructor (required by Jackson)
     public WireSaveData() {}
@@ -38,4 +39,12 @@ public class WireSaveData {
     public void setEndPinType(String endPinType) {
         this.endPinType = endPinType;
     }
+
+    public String getStartPinName() {
+        return startPinName;
+    }
+
+    public void setStartPinName(String startPinName) {
+        this.startPinName = startPinName;
+    }
 }
\ No newline at end of file
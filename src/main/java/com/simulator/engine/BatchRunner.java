@@ -0,0 +1,245 @@
+package com.simulator.engine;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.simulator.data.CircuitFileFormat;
+import com.simulator.data.TemplateManager;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Command-line runner that loads, validates and evaluates saved circuits without starting JavaFX.
+ * <p>
+ * Usage: BatchRunner [--table] [--vcd DIR] [--cycles N] [--threads N] &lt;circuit.json | circuit.dlc | directory&gt;...
+ * <ul>
+ *   <li>Every file is validated and evaluated with its switches as saved.</li>
+ *   <li>Custom gates are built from the templates in custom_gates, as in the editor.</li>
+ *   <li>--table also prints the full truth table of each circuit.</li>
+ *   <li>--vcd runs the clocks for N cycles of the fastest clock (default 100) and writes
+ *       DIR/&lt;name&gt;.vcd for each circuit.</li>
+ *   <li>Files are processed in parallel; reports are printed in argument order.</li>
+ * </ul>
+ * The exit code is 1 if any circuit failed to load or validate, 2 on bad arguments.
+ */
+public class BatchRunner {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final TemplateManager templateManager = new TemplateManager(objectMapper); // Shared by every file
+    private final boolean printTable;
+    private final File vcdDirectory; // null if no traces are written
+    private final long cycles;
+
+    public BatchRunner(boolean printTable) {
+        this(printTable, null, 0);
+    }
+
+    public BatchRunner(boolean printTable, File vcdDirectory, long cycles) {
+        this.printTable = printTable;
+        this.vcdDirectory = vcdDirectory;
+        this.cycles = cycles;
+        templateManager.loadCustomGateTemplates();
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        boolean printTable = false;
+        int threads = Runtime.getRuntime().availableProcessors();
+        File vcdDirectory = null;
+        long cycles = 100;
+        List<File> files = new ArrayList<>();
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--table": printTable = true; break;
+                case "--threads":
+                    if (i + 1 >= args.length) usage();
+                    try {
+                        threads = Integer.parseInt(args[++i]);
+                    } catch (NumberFormatException e) {
+                        badValue("--threads", args[i]);
+                    }
+                    break;
+                case "--vcd":
+                    if (i + 1 >= args.length) usage();
+                    vcdDirectory = new File(args[++i]);
+                    break;
+                case "--cycles":
+                    if (i + 1 >= args.length) usage();
+                    try {
+                        cycles = Long.parseLong(args[++i]);
+                    } catch (NumberFormatException e) {
+                        badValue("--cycles", args[i]);
+                    }
+                    break;
+                default: collectFiles(new File(args[i]), files);
+            }
+        }
+        if (files.isEmpty()) usage();
+        if (vcdDirectory != null && !vcdDirectory.isDirectory() && !vcdDirectory.mkdirs()) {
+            System.err.println("Cannot create VCD directory " + vcdDirectory);
+            System.exit(2);
+        }
+
+        BatchRunner runner = new BatchRunner(printTable, vcdDirectory, cycles);
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, threads));
+        List<Future<Result>> results = new ArrayList<>();
+        for (File file : files) {
+            results.add(executor.submit(() -> runner.run(file)));
+        }
+
+        boolean allPassed = true;
+        for (Future<Result> future : results) {
+            try {
+                Result result = future.get();
+                System.out.print(result.report);
+                allPassed &= result.passed;
+            } catch (ExecutionException e) {
+                System.err.println("Unexpected error: " + e.getCause());
+                allPassed = false;
+            }
+        }
+        executor.shutdown();
+        System.exit(allPassed ? 0 : 1);
+    }
+
+    /**
+     * Loads, validates and evaluates a single circuit file.
+     */
+    public Result run(File file) {
+        StringBuilder report = new StringBuilder();
+        HeadlessCircuit circuit;
+        try {
+            circuit = HeadlessCircuit.load(file, objectMapper, templateManager::createInstance);
+        } catch (Exception e) {
+            report.append(file.getPath()).append(": FAILED (").append(e.getMessage()).append(")\n");
+            return new Result(report.toString(), false);
+        }
+
+        boolean passed = circuit.getErrors().isEmpty();
+        boolean[] outputs = null;
+        if (passed) {
+            try {
+                outputs = circuit.evaluate();
+            } catch (IllegalStateException e) {
+                circuit.getErrors().add(e.getMessage());
+                passed = false;
+            }
+        }
+
+        File vcdFile = null;
+        if (passed && vcdDirectory != null) {
+            vcdFile = new File(vcdDirectory, file.getName().replaceFirst("\\.(json|dlc)$", "") + ".vcd");
+            try {
+                circuit.writeVcd(vcdFile.toPath(), cycles);
+            } catch (IOException e) {
+                circuit.getErrors().add("Cannot write " + vcdFile.getPath() + " (" + e.getMessage() + ")");
+                vcdFile = null;
+                passed = false;
+            }
+        }
+
+        report.append(file.getPath()).append(": ").append(passed ? "OK" : "FAILED")
+                .append(" (").append(circuit.getGateCount()).append(" gates, ")
+                .append(circuit.getWireCount()).append(" wires)\n");
+        for (String error : circuit.getErrors()) {
+            report.append("  error: ").append(error).append('\n');
+        }
+        for (String warning : circuit.getWarnings()) {
+            report.append("  warning: ").append(warning).append('\n');
+        }
+        if (outputs != null) {
+            for (int k = 0; k < outputs.length; k++) {
+                report.append("  ").append(circuit.getOutputNames().get(k)).append(" = ").append(outputs[k] ? 1 : 0).append('\n');
+            }
+        }
+        if (vcdFile != null) {
+            report.append("  trace: ").append(vcdFile.getPath()).append('\n');
+        }
+
+        if (passed && printTable && !circuit.getInputNames().isEmpty() && !circuit.getOutputNames().isEmpty()) {
+            appendTable(report, circuit);
+        }
+        return new Result(report.toString(), passed);
+    }
+
+    private void appendTable(StringBuilder report, HeadlessCircuit circuit) {
+        if (circuit.getInputNames().size() > 30) {
+            report.append("  (truth table skipped: too many inputs)\n");
+            return;
+        }
+        TruthTable table = circuit.buildTruthTable().generate();
+
+        report.append("  ").append(String.join(" ", circuit.getInputNames()))
+                .append(" | ").append(String.join(" ", circuit.getOutputNames())).append('\n');
+        for (int row = 0; row < table.getRowCount(); row++) {
+            report.append("  ");
+            for (int j = 0; j < table.getInputCount(); j++) {
+                appendCell(report, table.getInput(row, j), circuit.getInputNames().get(j).length());
+            }
+            report.append("| ");
+            for (int k = 0; k < table.getOutputCount(); k++) {
+                appendCell(report, table.getOutput(row, k), circuit.getOutputNames().get(k).length());
+            }
+            report.append('\n');
+        }
+    }
+
+    // Writes a 0/1 cell padded to the width of its column header
+    private static void appendCell(StringBuilder report, boolean value, int width) {
+        report.append(value ? '1' : '0');
+        for (int i = 1; i < width; i++) report.append(' ');
+        report.append(' ');
+    }
+
+    private static void collectFiles(File file, List<File> files) {
+        if (file.isDirectory()) {
+            File[] children = file.listFiles();
+            if (children == null) return;
+            Arrays.sort(children);
+            for (File child : children) {
+                if (child.isDirectory() || child.getName().toLowerCase().endsWith(".json") || CircuitFileFormat.isBinary(child)) {
+                    collectFiles(child, files);
+                }
+            }
+        } else {
+            files.add(file);
+        }
+    }
+
+    private static void badValue(String option, String value) {
+        System.err.println("Invalid value for " + option + ": " + value);
+        usage();
+    }
+
+    private static void usage() {
+        System.err.println("Usage: BatchRunner [--table] [--vcd DIR] [--cycles N] [--threads N] <circuit.json | circuit.dlc | directory>...");
+        System.exit(2);
+    }
+
+    /**
+     * The printed report for one circuit and whether it passed.
+     */
+    public static class Result {
+        private final String report;
+        private final boolean passed;
+
+        Result(String report, boolean passed) {
+            this.report = report;
+            this.passed = passed;
+        }
+
+        public String getReport() {
+            return report;
+        }
+
+        public boolean isPassed() {
+            return passed;
+        }
+    }
+}
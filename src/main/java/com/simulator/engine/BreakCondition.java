@@ -0,0 +1,278 @@
+package com.simulator.engine;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.ToIntFunction;
+
+/**
+ * A breakpoint condition over signal values, compiled once into a tree of small lambdas that
+ * read node values directly, so testing it after every simulation step costs a few array reads.
+ * <p>
+ * Syntax (names are component labels; quote names containing spaces or symbols):
+ * <pre>
+ *   Q                      signal is 1
+ *   Q == 0                 signal has the given value
+ *   rise(Q), fall(Q)       signal changed to 1 / to 0 in the last step
+ *   {Q3, Q2, Q1, Q0} == 12 bus value, most significant bit first (decimal, 0x.. or 0b..)
+ *   !, &amp;&amp;, ||, ( )          the usual logic, ! binding tightest
+ * </pre>
+ * A condition remembers the previous value of the signals used in rise/fall, so one instance
+ * must not be shared between runs at the same time.
+ */
+public final class BreakCondition {
+
+    @FunctionalInterface
+    private interface Test {
+        boolean test(boolean[] values, boolean[] previous);
+    }
+
+    private final String text;
+    private final Test root;
+    private final int[] edgeNodes;    // Nodes whose previous value is needed
+    private final boolean[] previous; // Parallel to edgeNodes
+
+    private BreakCondition(String text, Test root, int[] edgeNodes) {
+        this.text = text;
+        this.root = root;
+        this.edgeNodes = edgeNodes;
+        this.previous = new boolean[edgeNodes.length];
+    }
+
+    /**
+     * Parses and compiles a condition.
+     *
+     * @param resolver maps a signal name to its node, or -1 if there is no such signal
+     * @throws IllegalArgumentException if the text is not a valid condition or names an unknown signal.
+     */
+    public static BreakCondition compile(String text, ToIntFunction<String> resolver) {
+        Parser parser = new Parser(text, resolver);
+        Test root = parser.parseOr();
+        if (parser.peek() != null) throw parser.error("Unexpected '" + parser.peek() + "'");
+
+        int[] edgeNodes = new int[parser.edgeNodes.size()];
+        for (int i = 0; i < edgeNodes.length; i++) {
+            edgeNodes[i] = parser.edgeNodes.get(i);
+        }
+        return new BreakCondition(text, root, edgeNodes);
+    }
+
+    /**
+     * Takes the current values as the starting point for rise/fall.
+     */
+    public void reset(boolean[] values) {
+        for (int i = 0; i < edgeNodes.length; i++) {
+            previous[i] = values[edgeNodes[i]];
+        }
+    }
+
+    /**
+     * Evaluates the condition after a simulation step.
+     */
+    public boolean test(boolean[] values) {
+        boolean result = root.test(values, previous);
+        for (int i = 0; i < edgeNodes.length; i++) {
+            previous[i] = values[edgeNodes[i]];
+        }
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return text;
+    }
+
+    /**
+     * Recursive descent parser that builds the lambdas directly.
+     */
+    private static final class Parser {
+        private final String text;
+        private final ToIntFunction<String> resolver;
+        private final List<String> tokens = new ArrayList<>();
+        private final List<Boolean> quoted = new ArrayList<>();
+        private final List<Integer> edgeNodes = new ArrayList<>();
+        private int position = 0;
+
+        Parser(String text, ToIntFunction<String> resolver) {
+            this.text = text;
+            this.resolver = resolver;
+            tokenize();
+        }
+
+        Test parseOr() {
+            Test left = parseAnd();
+            while ("||".equals(peek())) {
+                next();
+                Test a = left;
+                Test b = parseAnd();
+                left = (values, previous) -> a.test(values, previous) || b.test(values, previous);
+            }
+            return left;
+        }
+
+        private Test parseAnd() {
+            Test left = parseUnary();
+            while ("&&".equals(peek())) {
+                next();
+                Test a = left;
+                Test b = parseUnary();
+                left = (values, previous) -> a.test(values, previous) && b.test(values, previous);
+            }
+            return left;
+        }
+
+        private Test parseUnary() {
+            if ("!".equals(peek())) {
+                next();
+                Test inner = parseUnary();
+                return (values, previous) -> !inner.test(values, previous);
+            }
+            return parsePrimary();
+        }
+
+        private Test parsePrimary() {
+            String token = next();
+            if (token == null) throw error("Unexpected end of condition");
+
+            if (token.equals("(") && !isQuoted()) {
+                Test inner = parseOr();
+                expect(")");
+                return inner;
+            }
+            if (token.equals("{") && !isQuoted()) {
+                return parseBus();
+            }
+            if ((token.equals("rise") || token.equals("fall")) && !isQuoted() && "(".equals(peek())) {
+                next();
+                int node = resolve(next());
+                expect(")");
+                int slot = edgeNodes.indexOf(node);
+                if (slot < 0) {
+                    slot = edgeNodes.size();
+                    edgeNodes.add(node);
+                }
+                int edge = slot;
+                return token.equals("rise")
+                        ? (values, previous) -> values[node] && !previous[edge]
+                        : (values, previous) -> !values[node] && previous[edge];
+            }
+
+            int node = resolve(token);
+            if ("==".equals(peek()) || "!=".equals(peek())) {
+                boolean equals = next().equals("==");
+                long value = parseNumber(next());
+                if (value != 0 && value != 1) throw error("A single signal can only be compared with 0 or 1");
+                boolean expected = (value == 1) == equals;
+                return expected ? (values, previous) -> values[node] : (values, previous) -> !values[node];
+            }
+            return (values, previous) -> values[node];
+        }
+
+        // {MSB, ..., LSB} == value
+        private Test parseBus() {
+            List<Integer> bits = new ArrayList<>();
+            bits.add(resolve(next()));
+            while (",".equals(peek())) {
+                next();
+                bits.add(resolve(next()));
+            }
+            expect("}");
+            if (bits.size() > 63) throw error("Buses are limited to 63 signals");
+
+            String operator = next();
+            if (!"==".equals(operator) && !"!=".equals(operator)) throw error("Expected == or != after a bus");
+            long value = parseNumber(next());
+            if (value >>> bits.size() != 0) throw error("Value " + value + " does not fit in " + bits.size() + " bits");
+
+            int[] nodes = new int[bits.size()];
+            boolean[] expected = new boolean[bits.size()];
+            for (int i = 0; i < nodes.length; i++) {
+                nodes[i] = bits.get(i);
+                expected[i] = ((value >>> (nodes.length - 1 - i)) & 1) != 0;
+            }
+            Test match = (values, previous) -> {
+                for (int i = 0; i < nodes.length; i++) {
+                    if (values[nodes[i]] != expected[i]) return false;
+                }
+                return true;
+            };
+            if (operator.equals("==")) return match;
+            return (values, previous) -> !match.test(values, previous);
+        }
+
+        private long parseNumber(String token) {
+            if (token == null) throw error("Expected a number");
+            try {
+                String lower = token.toLowerCase();
+                if (lower.startsWith("0x")) return Long.parseLong(lower.substring(2), 16);
+                if (lower.startsWith("0b")) return Long.parseLong(lower.substring(2), 2);
+                return Long.parseLong(token);
+            } catch (NumberFormatException e) {
+                throw error("Invalid number '" + token + "'");
+            }
+        }
+
+        private int resolve(String name) {
+            if (name == null) throw error("Expected a signal name");
+            int node = resolver.applyAsInt(name);
+            if (node < 0) throw error("Unknown signal '" + name + "'");
+            return node;
+        }
+
+        private void expect(String token) {
+            String actual = next();
+            if (!token.equals(actual)) throw error("Expected '" + token + "'");
+        }
+
+        // The next token, with quoted names kept in quotes so they never match an operator
+        String peek() {
+            if (position >= tokens.size()) return null;
+            String token = tokens.get(position);
+            return quoted.get(position) ? "\"" + token + "\"" : token;
+        }
+
+        private String next() {
+            return (position < tokens.size()) ? tokens.get(position++) : null;
+        }
+
+        private boolean isQuoted() {
+            return quoted.get(position - 1);
+        }
+
+        IllegalArgumentException error(String message) {
+            return new IllegalArgumentException(message + " in condition: " + text);
+        }
+
+        private void tokenize() {
+            int i = 0;
+            while (i < text.length()) {
+                char c = text.charAt(i);
+                if (Character.isWhitespace(c)) {
+                    i++;
+                } else if (c == '"') {
+                    int end = text.indexOf('"', i + 1);
+                    if (end < 0) throw error("Unterminated quote");
+                    add(text.substring(i + 1, end), true);
+                    i = end + 1;
+                } else if (text.startsWith("&&", i) || text.startsWith("||", i)
+                        || text.startsWith("==", i) || text.startsWith("!=", i)) {
+                    add(text.substring(i, i + 2), false);
+                    i += 2;
+                } else if ("!(){},".indexOf(c) >= 0) {
+                    add(String.valueOf(c), false);
+                    i++;
+                } else if (Character.isLetterOrDigit(c) || c == '_') {
+                    int start = i;
+                    while (i < text.length() && (Character.isLetterOrDigit(text.charAt(i)) || text.charAt(i) == '_')) i++;
+                    add(text.substring(start, i), false);
+                } else {
+                    throw error("Unexpected character '" + c + "'");
+                }
+            }
+        }
+
+        private void add(String token, boolean isQuoted) {
+            tokens.add(token);
+            quoted.add(isQuoted);
+        }
+    }
+}
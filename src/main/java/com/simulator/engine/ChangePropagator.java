@@ -0,0 +1,135 @@
+package com.simulator.engine;
+
+/**
+ * Event-driven evaluation of a {@link Netlist}.
+ * A change on a source schedules only the gates in its fan-out; each scheduled gate is
+ * re-evaluated and, if its output actually changed, schedules its own fan-out in turn.
+ * Gates are processed in topological rank order, so a gate is evaluated once per change wave
+ * even when several of its inputs changed.
+ */
+public final class ChangePropagator {
+
+    // Upper bound on evaluations per node in one propagate() call, so feedback loops cannot hang the caller
+    private static final int MAX_EVALUATIONS_PER_NODE = 64;
+
+    private final Netlist netlist;
+
+    // Min-heap of scheduled nodes, ordered by rank
+    private final int[] heap;
+    private int heapSize = 0;
+    private final boolean[] scheduled;
+
+    // Nodes whose value changed since the last clearChanges()
+    private final int[] changed;
+    private int changedCount = 0;
+    private final boolean[] changedFlag;
+
+    public ChangePropagator(Netlist netlist) {
+        this.netlist = netlist;
+        this.heap = new int[netlist.size()];
+        this.scheduled = new boolean[netlist.size()];
+        this.changed = new int[netlist.size()];
+        this.changedFlag = new boolean[netlist.size()];
+    }
+
+    /**
+     * Sets the value of a source node and schedules its fan-out if the value changed.
+     * Call {@link #propagate(boolean[])} afterwards to settle the circuit.
+     */
+    public void setSource(boolean[] values, int node, boolean value) {
+        if (values[node] == value) return;
+        values[node] = value;
+        markChanged(node);
+        scheduleFanout(node);
+    }
+
+    /**
+     * Evaluates scheduled gates until no more outputs change.
+     *
+     * @return true if the circuit settled, false if the evaluation budget ran out (an oscillating loop).
+     */
+    public boolean propagate(boolean[] values) {
+        long budget = (long) netlist.size() * MAX_EVALUATIONS_PER_NODE;
+        while (heapSize > 0) {
+            if (budget-- <= 0) {
+                // Drop the remaining events; the loop keeps its last values
+                while (heapSize > 0) scheduled[pop()] = false;
+                return false;
+            }
+            int node = pop();
+            scheduled[node] = false;
+
+            boolean value = netlist.evaluateNode(node, values);
+            if (value != values[node]) {
+                values[node] = value;
+                markChanged(node);
+                scheduleFanout(node);
+            }
+        }
+        return true;
+    }
+
+    public int getChangedCount() {
+        return changedCount;
+    }
+
+    public int getChanged(int index) {
+        return changed[index];
+    }
+
+    /**
+     * Forgets the recorded changes (does not touch the signal values).
+     */
+    public void clearChanges() {
+        for (int i = 0; i < changedCount; i++) {
+            changedFlag[changed[i]] = false;
+        }
+        changedCount = 0;
+    }
+
+    private void markChanged(int node) {
+        if (changedFlag[node]) return;
+        changedFlag[node] = true;
+        changed[changedCount++] = node;
+    }
+
+    private void scheduleFanout(int node) {
+        for (int next : netlist.getFanout(node)) {
+            if (!scheduled[next]) {
+                scheduled[next] = true;
+                push(next);
+            }
+        }
+    }
+
+    //Heap helpers
+
+    private void push(int node) {
+        int rank = netlist.getRank(node);
+        int i = heapSize++;
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (netlist.getRank(heap[parent]) <= rank) break;
+            heap[i] = heap[parent];
+            i = parent;
+        }
+        heap[i] = node;
+    }
+
+    private int pop() {
+        int top = heap[0];
+        int last = heap[--heapSize];
+        int rank = netlist.getRank(last);
+        int i = 0;
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= heapSize) break;
+            if (child + 1 < heapSize && netlist.getRank(heap[child + 1]) < netlist.getRank(heap[child])) child++;
+            if (netlist.getRank(heap[child]) >= rank) break;
+            heap[i] = heap[child];
+            i = child;
+        }
+        heap[i] = last;
+        return top;
+    }
+}
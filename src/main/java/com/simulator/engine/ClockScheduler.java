@@ -0,0 +1,103 @@
+package com.simulator.engine;
+
+import java.util.PriorityQueue;
+
+/**
+ * Drives any number of clocks, each with its own half period and phase, on one simulated timeline.
+ * Pending toggles are kept in a priority queue ordered by time, so advancing the timeline costs
+ * O(log clocks) per toggle regardless of how many clocks exist or how fast they run.
+ * The k-th toggle of a clock happens at phase + k * halfPeriod (k = 1, 2, ...).
+ * The scheduler only decides which clock nodes toggle when; the caller applies the toggles.
+ */
+public final class ClockScheduler {
+
+    private final PriorityQueue<ClockSource> queue = new PriorityQueue<>(
+            (a, b) -> (a.nextToggle != b.nextToggle) ? Long.compare(a.nextToggle, b.nextToggle) : Integer.compare(a.node, b.node));
+    private long time = 0;
+
+    /**
+     * Adds a clock, scheduling its first toggle after the current time.
+     *
+     * @param node            the clock's node in the netlist
+     * @param halfPeriodNanos time between two toggles
+     * @param phaseNanos      offset of the clock's toggles
+     */
+    public void register(int node, long halfPeriodNanos, long phaseNanos) {
+        ClockSource source = new ClockSource(node, halfPeriodNanos, phaseNanos);
+        source.nextToggle = source.firstToggleAfter(time);
+        queue.add(source);
+    }
+
+    /**
+     * @return the simulated time of the last processed step, in nanoseconds.
+     */
+    public long getTime() {
+        return time;
+    }
+
+    /**
+     * @return the time of the next toggle, or Long.MAX_VALUE if there are no clocks.
+     */
+    public long getNextToggleTime() {
+        ClockSource next = queue.peek();
+        return (next == null) ? Long.MAX_VALUE : next.nextToggle;
+    }
+
+    public int getClockCount() {
+        return queue.size();
+    }
+
+    /**
+     * Advances to the next toggle time and collects every clock that toggles at that instant.
+     *
+     * @param toggled receives the nodes that toggle; must hold at least getClockCount() entries
+     * @return the number of nodes written to 'toggled' (0 if there are no clocks)
+     */
+    public int step(int[] toggled) {
+        ClockSource next = queue.peek();
+        if (next == null) return 0;
+
+        time = next.nextToggle;
+        int count = 0;
+        while (!queue.isEmpty() && queue.peek().nextToggle == time) {
+            ClockSource source = queue.poll();
+            toggled[count++] = source.node;
+            source.nextToggle += source.halfPeriod;
+            queue.add(source);
+        }
+        return count;
+    }
+
+    /**
+     * Moves the timeline to the given time without toggling anything,
+     * rescheduling every clock to its first toggle after that time.
+     */
+    public void resetTo(long newTime) {
+        this.time = newTime;
+        ClockSource[] sources = queue.toArray(new ClockSource[0]);
+        queue.clear();
+        for (ClockSource source : sources) {
+            source.nextToggle = source.firstToggleAfter(newTime);
+            queue.add(source);
+        }
+    }
+
+    private static final class ClockSource {
+        final int node;
+        final long halfPeriod;
+        final long phase;
+        long nextToggle;
+
+        ClockSource(int node, long halfPeriod, long phase) {
+            this.node = node;
+            this.halfPeriod = halfPeriod;
+            this.phase = phase;
+        }
+
+        long firstToggleAfter(long t) {
+            if (t < phase + halfPeriod) return phase + halfPeriod;
+            long k = (t - phase) / halfPeriod + 1;
+            return phase + k * halfPeriod;
+        }
+    }
+}
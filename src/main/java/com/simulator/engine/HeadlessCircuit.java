@@ -0,0 +1,260 @@
+package com.simulator.engine;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.simulator.data.CircuitData;
+import com.simulator.data.CircuitFileFormat;
+import com.simulator.data.GateSaveData;
+import com.simulator.data.WireSaveData;
+import com.simulator.model.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * A circuit loaded straight from {@link CircuitData} into model gates, with no JavaFX involved.
+ * Used for batch evaluation and validation of saved circuit files.
+ * Loading never fails on bad content: problems are collected as errors and warnings instead.
+ */
+public class HeadlessCircuit {
+
+    private final Map<String, Gate> gatesById = new LinkedHashMap<>();
+    private final List<String> gateNames = new ArrayList<>(); // Label of each gate, in gatesById order
+    private final List<Gate> inputs = new ArrayList<>();   // Switches and clocks, in file order
+    private final List<Gate> outputs = new ArrayList<>();  // Probes, in file order
+    private final List<String> inputNames = new ArrayList<>();
+    private final List<String> outputNames = new ArrayList<>();
+    private final List<String> errors = new ArrayList<>();
+    private final List<String> warnings = new ArrayList<>();
+    private final int wireCount;
+    private final Netlist netlist;
+
+    /**
+     * Loads a circuit that uses built-in gates only; custom gates are reported as errors.
+     */
+    public HeadlessCircuit(CircuitData circuitData) {
+        this(circuitData, name -> null);
+    }
+
+    /**
+     * @param instances creates a custom gate component by template name (e.g. {@code TemplateManager::createInstance}),
+     *                  or returns null if there is no such template
+     */
+    public HeadlessCircuit(CircuitData circuitData, Function<String, CustomGate> instances) {
+        List<GateSaveData> gates = (circuitData.getGates() == null) ? Collections.emptyList() : circuitData.getGates();
+        List<WireSaveData> wires = (circuitData.getWires() == null) ? Collections.emptyList() : circuitData.getWires();
+        this.wireCount = wires.size();
+
+        // 1. Re-create gates
+        for (GateSaveData gateData : gates) {
+            String typeId = gateData.getGateType();
+            Gate model;
+            String baseLabel;
+            if (typeId != null && typeId.startsWith("CUSTOM:")) {
+                baseLabel = typeId.substring("CUSTOM:".length());
+                model = instances.apply(baseLabel);
+                if (model == null) {
+                    errors.add("Unknown custom gate '" + baseLabel + "' (gate " + gateData.getId() + ")");
+                    continue;
+                }
+            } else {
+                GateType type = GateType.fromId(typeId);
+                if (type == null) {
+                    errors.add("Unknown gate type '" + typeId + "' (gate " + gateData.getId() + ")");
+                    continue;
+                }
+                model = type.createModel();
+                baseLabel = type.getBaseLabel();
+            }
+            if (gatesById.containsKey(gateData.getId())) {
+                errors.add("Duplicate gate id " + gateData.getId());
+                continue;
+            }
+            gatesById.put(gateData.getId(), model);
+            try {
+                gateData.applyClockSettings(model);
+            } catch (IllegalArgumentException e) {
+                errors.add(e.getMessage() + " (gate " + gateData.getId() + ")");
+            }
+
+            String label = (gateData.getCustomLabel() == null || gateData.getCustomLabel().isEmpty())
+                    ? baseLabel : gateData.getCustomLabel();
+            gateNames.add(label);
+            if (model instanceof InputSwitch || model instanceof ClockGate) {
+                inputs.add(model);
+                inputNames.add(label);
+            } else if (model instanceof OutputProbe) {
+                outputs.add(model);
+                outputNames.add(label);
+            }
+        }
+
+        // 2. Re-create wires
+        Map<Gate, Integer> connectedPins = new LinkedHashMap<>();
+        for (WireSaveData wireData : wires) {
+            Gate outputGate = gatesById.get(wireData.getStartGateId());
+            Gate inputGate = gatesById.get(wireData.getEndGateId());
+            if (outputGate == null || inputGate == null) {
+                errors.add("Wire references a missing gate (" + wireData.getStartGateId() + " -> " + wireData.getEndGateId() + ")");
+                continue;
+            }
+            Gate source = Pins.output(outputGate, wireData.getStartPinName());
+            if (source == null) {
+                errors.add((outputGate instanceof OutputProbe)
+                        ? "Wire starts at a probe, which has no output pin (" + wireData.getStartGateId() + ")"
+                        : "Wire starts at unknown pin '" + wireData.getStartPinName() + "' (" + wireData.getStartGateId() + ")");
+                continue;
+            }
+            // Saves from before pin names default to input A
+            String endPin = (wireData.getEndPinType() == null) ? Pins.A : wireData.getEndPinType();
+            if (!Pins.connect(inputGate, endPin, source)) {
+                errors.add((inputPinCount(inputGate) == 0)
+                        ? "Wire ends at a source, which has no input pin (" + wireData.getEndGateId() + ")"
+                        : "Wire ends at unknown pin '" + endPin + "' (" + wireData.getEndGateId() + ")");
+                continue;
+            }
+            connectedPins.merge(inputGate, 1, Integer::sum);
+        }
+
+        // 3. Check for unconnected inputs (allowed, they read as LOW)
+        for (Map.Entry<String, Gate> entry : gatesById.entrySet()) {
+            Gate gate = entry.getValue();
+            if (connectedPins.getOrDefault(gate, 0) < inputPinCount(gate)) {
+                warnings.add("Gate " + entry.getKey() + " has an unconnected input");
+            }
+        }
+
+        this.netlist = NetlistCompiler.compile(gatesById.values());
+    }
+
+    private static int inputPinCount(Gate gate) {
+        if (gate instanceof BinaryGate) return 2;
+        if (gate instanceof UnaryGate) return 1;
+        if (gate instanceof CustomGate) return ((CustomGate) gate).getInputCount();
+        return 0;
+    }
+
+    /**
+     * Reads a circuit file saved by CircuitPersistence.
+     */
+    public static HeadlessCircuit load(File file, ObjectMapper objectMapper) throws IOException {
+        return new HeadlessCircuit(CircuitFileFormat.read(file, objectMapper));
+    }
+
+    /**
+     * Reads a circuit file saved by CircuitPersistence, building its custom gates through the given factory.
+     */
+    public static HeadlessCircuit load(File file, ObjectMapper objectMapper, Function<String, CustomGate> instances) throws IOException {
+        return new HeadlessCircuit(CircuitFileFormat.read(file, objectMapper), instances);
+    }
+
+    /**
+     * Evaluates the circuit with the switches at their current states.
+     *
+     * @return the value of each output, in {@link #getOutputNames()} order.
+     * @throws IllegalStateException if a feedback loop does not settle.
+     */
+    public boolean[] evaluate() {
+        boolean[] values = new boolean[netlist.size()];
+        netlist.readSources(values);
+        if (!netlist.evaluate(values)) {
+            throw new IllegalStateException("A feedback loop is oscillating and did not settle");
+        }
+        boolean[] results = new boolean[outputs.size()];
+        for (int k = 0; k < results.length; k++) {
+            results[k] = values[netlist.indexOf(outputs.get(k))];
+        }
+        return results;
+    }
+
+    /**
+     * Runs the clocks from the saved state and streams every net to a VCD file.
+     * The run lasts the given number of full periods of the fastest clock;
+     * without clocks only the initial values are written.
+     */
+    public void writeVcd(Path path, long cycles) throws IOException {
+        boolean[] values = new boolean[netlist.size()];
+        netlist.readSources(values);
+        netlist.evaluate(values);
+        ChangePropagator propagator = new ChangePropagator(netlist);
+
+        int[] clockNodes = netlist.getClockNodes();
+        ClockScheduler scheduler = new ClockScheduler();
+        long fastestHalfPeriod = Long.MAX_VALUE;
+        for (int i = 0; i < clockNodes.length; i++) {
+            scheduler.register(clockNodes[i], netlist.getClockHalfPeriod(i), netlist.getClockPhase(i));
+            fastestHalfPeriod = Math.min(fastestHalfPeriod, netlist.getClockHalfPeriod(i));
+        }
+        long endTime = (clockNodes.length == 0) ? 0 : cycles * 2 * fastestHalfPeriod;
+
+        try (VcdWriter vcd = new VcdWriter(path, gatesById.values().toArray(new Gate[0]), gateNames.toArray(new String[0]))) {
+            vcd.bind(netlist);
+            vcd.writeValues(0, values);
+            int[] toggled = new int[clockNodes.length];
+            while (scheduler.getNextToggleTime() <= endTime) {
+                int count = scheduler.step(toggled);
+                for (int i = 0; i < count; i++) {
+                    propagator.setSource(values, toggled[i], !values[toggled[i]]);
+                }
+                propagator.propagate(values);
+                vcd.writeChanges(scheduler.getTime(), values, propagator);
+                propagator.clearChanges();
+            }
+        }
+    }
+
+    /**
+     * Builds the truth table over every switch and clock (clocks keep their current state).
+     */
+    public TruthTable buildTruthTable() {
+        int[] inputNodes = new int[inputs.size()];
+        boolean[] pinned = new boolean[inputs.size()];
+        int[] outputNodes = new int[outputs.size()];
+        for (int j = 0; j < inputNodes.length; j++) {
+            inputNodes[j] = netlist.indexOf(inputs.get(j));
+            pinned[j] = inputs.get(j) instanceof ClockGate;
+        }
+        for (int k = 0; k < outputNodes.length; k++) {
+            outputNodes[k] = netlist.indexOf(outputs.get(k));
+        }
+        return new TruthTable(netlist, inputNodes, pinned, outputNodes);
+    }
+
+    public Netlist getNetlist() {
+        return netlist;
+    }
+
+    public Gate getGate(String id) {
+        return gatesById.get(id);
+    }
+
+    public int getGateCount() {
+        return gatesById.size();
+    }
+
+    public int getWireCount() {
+        return wireCount;
+    }
+
+    public List<String> getInputNames() {
+        return inputNames;
+    }
+
+    public List<String> getOutputNames() {
+        return outputNames;
+    }
+
+    public List<String> getErrors() {
+        return errors;
+    }
+
+    public List<String> getWarnings() {
+        return warnings;
+    }
+}
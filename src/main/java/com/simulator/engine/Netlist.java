@@ -0,0 +1,439 @@
+package com.simulator.engine;
+
+import com.simulator.model.ClockGate;
+import com.simulator.model.CompositeGate;
+import com.simulator.model.Gate;
+import com.simulator.model.LookupGate;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A flat, compiled form of a circuit.
+ * Every gate is an int-indexed node with an opcode and the indices of its inputs,
+ * and the non-source nodes are stored in topological order so that a single
+ * forward pass evaluates each gate exactly once.
+ * Signal values are kept by the caller in a plain boolean[] (one slot per node).
+ * Each node also knows its fan-out, so a change can be propagated to just the affected cone
+ * (see {@link ChangePropagator}).
+ * <p>
+ * Custom gates with a lookup table (see {@link LookupGate}) become one LUT node per output pin,
+ * which reads any number of inputs and evaluates with a single table read.
+ * Other custom gates (see {@link CompositeGate}) get a private copy of their template's compiled
+ * nodes, placed as one contiguous block; those nodes have no model gate of their own.
+ * <p>
+ * Feedback loops (latches) are strongly connected components of the wire graph. They are kept
+ * together in the evaluation order and settled by iterating until their values stop changing,
+ * up to {@link #MAX_SETTLE_ITERATIONS}; the acyclic parts are still evaluated exactly once.
+ * <p>
+ * A netlist never changes after it is compiled (clock timing is copied in at compile time too),
+ * so it can be handed to another thread. Only {@link #readSources(boolean[])} touches the models.
+ */
+public final class Netlist {
+
+    // Node opcodes
+    public static final byte SWITCH = 0;
+    public static final byte CLOCK = 1;
+    public static final byte PROBE = 2;
+    public static final byte AND = 3;
+    public static final byte OR = 4;
+    public static final byte NOT = 5;
+    public static final byte NAND = 6;
+    public static final byte NOR = 7;
+    public static final byte XOR = 8;
+    public static final byte XNOR = 9;
+    public static final byte OPAQUE = 10; // Unknown Gate implementation, sampled through getOutput()
+    public static final byte LUT = 11;    // One output of a LookupGate
+
+    /** Input index used for an unconnected pin. */
+    public static final int UNCONNECTED = -1;
+
+    /** Passes over a feedback loop before it is reported as oscillating. */
+    public static final int MAX_SETTLE_ITERATIONS = 64;
+
+    private final Gate[] gates;
+    private final byte[] ops;
+    private final int[] inputA;
+    private final int[] inputB;
+    private final int[][] lutInputs; // Inputs of each LUT node (null for other nodes), bit 0 first
+    private final long[][] lutTables; // Table rows of each LUT node, shared by the outputs of a template
+    private final int[] lutBits;      // Output bit of each LUT node within its table row
+    private final int[] sourceNodes; // Nodes whose value comes from the model (switches, clocks, opaque gates)
+    private final int[] order;       // All other nodes, in topological order of their components
+    private final int[] loopEnd;     // For the first position of a feedback loop in 'order', its end position; else 0
+    private final boolean hasFeedback;
+    private final int[] rank;        // Position of each node in 'order' (-1 for sources)
+    private final int[][] fanout;    // Nodes reading each node's output
+    private final int[] stateNodes;  // Sources plus every node inside a feedback loop
+    private final int[] clockNodes;
+    private final long[] clockHalfPeriods; // Parallel to clockNodes
+    private final long[] clockPhases;
+    private final Map<Gate, Integer> indexByGate;
+    private final CompositeGate[] owners;             // Instance each copied template node belongs to, else null
+    private final Map<CompositeGate, Integer> blocks; // First node of each instance's copy
+
+    /**
+     * @param gates the model gate of each node; for nodes copied from a template, the template's gate
+     *              (shared by every copy, so not in 'indexByGate')
+     */
+    Netlist(Gate[] gates, byte[] ops, int[] inputA, int[] inputB, int[][] lutInputs, long[][] lutTables, int[] lutBits,
+            int[] sourceNodes, int[] order, int[] loopEnd, int[][] fanout,
+            Map<Gate, Integer> indexByGate, CompositeGate[] owners, Map<CompositeGate, Integer> blocks) {
+        this.gates = gates;
+        this.ops = ops;
+        this.inputA = inputA;
+        this.inputB = inputB;
+        this.lutInputs = lutInputs;
+        this.lutTables = lutTables;
+        this.lutBits = lutBits;
+        this.sourceNodes = sourceNodes;
+        this.order = order;
+        this.loopEnd = loopEnd;
+        this.fanout = fanout;
+
+        boolean feedback = false;
+        for (int end : loopEnd) {
+            if (end != 0) {
+                feedback = true;
+                break;
+            }
+        }
+        this.hasFeedback = feedback;
+
+        this.rank = new int[gates.length];
+        Arrays.fill(rank, -1);
+        for (int i = 0; i < order.length; i++) {
+            rank[order[i]] = i;
+        }
+
+        int loopNodes = 0;
+        for (int position = 0; position < order.length; position++) {
+            if (loopEnd[position] != 0) {
+                loopNodes += loopEnd[position] - position;
+                position = loopEnd[position] - 1;
+            }
+        }
+        this.stateNodes = Arrays.copyOf(sourceNodes, sourceNodes.length + loopNodes);
+        int cursor = sourceNodes.length;
+        for (int position = 0; position < order.length; position++) {
+            if (loopEnd[position] != 0) {
+                for (int i = position; i < loopEnd[position]; i++) stateNodes[cursor++] = order[i];
+                position = loopEnd[position] - 1;
+            }
+        }
+
+        int clockCount = 0;
+        for (int node : sourceNodes) {
+            if (ops[node] == CLOCK) clockCount++;
+        }
+        this.clockNodes = new int[clockCount];
+        clockCount = 0;
+        for (int node : sourceNodes) {
+            if (ops[node] == CLOCK) clockNodes[clockCount++] = node;
+        }
+        this.clockHalfPeriods = new long[clockCount];
+        this.clockPhases = new long[clockCount];
+        for (int i = 0; i < clockCount; i++) {
+            ClockGate clock = (ClockGate) gates[clockNodes[i]];
+            clockHalfPeriods[i] = clock.getHalfPeriodNanos();
+            clockPhases[i] = clock.getPhaseNanos();
+        }
+
+        this.indexByGate = indexByGate;
+        this.owners = owners;
+        this.blocks = blocks;
+    }
+
+    /**
+     * @return the number of nodes (and the required length of a signal array).
+     */
+    public int size() {
+        return gates.length;
+    }
+
+    /**
+     * @return the node index of the given model gate, or -1 if it is not part of this netlist.
+     */
+    public int indexOf(Gate gate) {
+        Integer index = indexByGate.get(gate);
+        return (index == null) ? -1 : index;
+    }
+
+    /**
+     * @return the node of a gate inside a custom gate instance, or -1 if it is not part of this netlist.
+     *
+     * @param path the instance on the workspace, followed by any nested instances leading to the gate
+     *             (those are the shared gates of the enclosing template)
+     * @param gate a gate of the innermost template
+     */
+    public int indexOf(List<CompositeGate> path, Gate gate) {
+        Integer first = blocks.get(path.get(0));
+        if (first == null) return -1;
+        int node = first;
+        Netlist template = NetlistCompiler.compileTemplate(path.get(0).getDefinition());
+        for (int i = 1; i < path.size(); i++) {
+            Integer nested = template.blocks.get(path.get(i));
+            if (nested == null) return -1;
+            node += nested;
+            template = NetlistCompiler.compileTemplate(path.get(i).getDefinition());
+        }
+        int inside = template.indexOf(gate);
+        return (inside < 0) ? -1 : node + inside;
+    }
+
+    /**
+     * @return the node of this netlist that carries the same signal as a node of another netlist
+     * compiled from the same models (e.g. an older version of the circuit), or -1 if there is none.
+     */
+    public int indexOf(Netlist other, int node) {
+        CompositeGate owner = other.owners[node];
+        if (owner == null) return indexOf(other.gates[node]);
+        Integer first = blocks.get(owner);
+        return (first == null) ? -1 : first + node - other.blocks.get(owner);
+    }
+
+    /**
+     * @return the model gate of a node. Nodes copied from a template return the template's shared gate.
+     */
+    public Gate getGate(int node) {
+        return gates[node];
+    }
+
+    public byte getOp(int node) {
+        return ops[node];
+    }
+
+    public int getInputA(int node) {
+        return inputA[node];
+    }
+
+    public int getInputB(int node) {
+        return inputB[node];
+    }
+
+    /**
+     * @return the inputs of a LUT node, input 0 first, or null for any other node.
+     * The returned array must not be modified.
+     */
+    public int[] getLookupInputs(int node) {
+        return lutInputs[node];
+    }
+
+    long[] getLookupTable(int node) {
+        return lutTables[node];
+    }
+
+    int getLookupBit(int node) {
+        return lutBits[node];
+    }
+
+    /**
+     * @return the nodes that read this node's output. The returned array must not be modified.
+     */
+    public int[] getFanout(int node) {
+        return fanout[node];
+    }
+
+    /**
+     * @return the position of the node in evaluation order, or -1 for a source.
+     */
+    public int getRank(int node) {
+        return rank[node];
+    }
+
+    /**
+     * @return true if the circuit contains at least one feedback loop.
+     */
+    public boolean hasFeedback() {
+        return hasFeedback;
+    }
+
+    /**
+     * @return the nodes without inputs (switches, clocks). The returned array must not be modified.
+     */
+    public int[] getSourceNodes() {
+        return sourceNodes;
+    }
+
+    /**
+     * @return the nodes that hold state: every source and every node inside a feedback loop.
+     * Restoring these and calling {@link #evaluate(boolean[])} restores every other node.
+     * The returned array must not be modified.
+     */
+    public int[] getStateNodes() {
+        return stateNodes;
+    }
+
+    /**
+     * @return the nodes of every ClockGate. The returned array must not be modified.
+     */
+    public int[] getClockNodes() {
+        return clockNodes;
+    }
+
+    /**
+     * @return the half period of the i-th clock in {@link #getClockNodes()}, as it was when compiled.
+     */
+    public long getClockHalfPeriod(int i) {
+        return clockHalfPeriods[i];
+    }
+
+    /**
+     * @return the phase of the i-th clock in {@link #getClockNodes()}, as it was when compiled.
+     */
+    public long getClockPhase(int i) {
+        return clockPhases[i];
+    }
+
+    /**
+     * Copies the current state of every source (switch, clock) from the model into the signal array.
+     */
+    public void readSources(boolean[] values) {
+        for (int node : sourceNodes) {
+            values[node] = gates[node].getOutput();
+        }
+    }
+
+    /**
+     * Evaluates every non-source node once, in topological order, settling feedback loops by iteration.
+     * Sources must already hold their values (see {@link #readSources(boolean[])}).
+     *
+     * @return true if every loop settled, false if one was still changing after MAX_SETTLE_ITERATIONS passes.
+     */
+    public boolean evaluate(boolean[] values) {
+        boolean settled = true;
+        int position = 0;
+        while (position < order.length) {
+            int end = loopEnd[position];
+            if (end == 0) {
+                int node = order[position++];
+                values[node] = evaluateNode(node, values);
+                continue;
+            }
+            settled &= settleLoop(position, end, values);
+            position = end;
+        }
+        return settled;
+    }
+
+    private boolean settleLoop(int from, int to, boolean[] values) {
+        for (int pass = 0; pass < MAX_SETTLE_ITERATIONS; pass++) {
+            boolean changed = false;
+            for (int position = from; position < to; position++) {
+                int node = order[position];
+                boolean value = evaluateNode(node, values);
+                if (value != values[node]) {
+                    values[node] = value;
+                    changed = true;
+                }
+            }
+            if (!changed) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Bit-parallel version of {@link #evaluate(boolean[])}: every node holds 64 independent
+     * signal values in one long, so one pass evaluates 64 input patterns at once.
+     * Source words must already be filled in by the caller.
+     */
+    public void evaluateWords(long[] words) {
+        int position = 0;
+        while (position < order.length) {
+            int end = loopEnd[position];
+            if (end == 0) {
+                int node = order[position++];
+                words[node] = evaluateNodeWord(node, words);
+                continue;
+            }
+            // Settle the loop for all 64 patterns at once (each bit converges independently)
+            for (int pass = 0; pass < MAX_SETTLE_ITERATIONS; pass++) {
+                boolean changed = false;
+                for (int i = position; i < end; i++) {
+                    int node = order[i];
+                    long word = evaluateNodeWord(node, words);
+                    if (word != words[node]) {
+                        words[node] = word;
+                        changed = true;
+                    }
+                }
+                if (!changed) break;
+            }
+            position = end;
+        }
+    }
+
+    private long evaluateNodeWord(int node, long[] words) {
+        int a = inputA[node];
+        int b = inputB[node];
+        long wordA = (a != UNCONNECTED) ? words[a] : 0L;
+        long wordB = (b != UNCONNECTED) ? words[b] : 0L;
+
+        switch (ops[node]) {
+            case PROBE: return wordA;
+            case AND: return wordA & wordB;
+            case OR: return wordA | wordB;
+            case NOT: return ~wordA;
+            case NAND: return ~(wordA & wordB);
+            case NOR: return ~(wordA | wordB);
+            case XOR: return wordA ^ wordB;
+            case XNOR: return ~(wordA ^ wordB);
+            case LUT: return lookupWord(node, words);
+            default: return words[node]; // Sources keep their preset word
+        }
+    }
+
+    /**
+     * Computes the output of a single node from the current values of its inputs.
+     */
+    boolean evaluateNode(int node, boolean[] values) {
+        int a = inputA[node];
+        int b = inputB[node];
+        // Unconnected inputs read as LOW, just like in the model
+        boolean stateA = (a != UNCONNECTED) && values[a];
+        boolean stateB = (b != UNCONNECTED) && values[b];
+
+        switch (ops[node]) {
+            case PROBE: return stateA;
+            case AND: return stateA && stateB;
+            case OR: return stateA || stateB;
+            case NOT: return !stateA;
+            case NAND: return !(stateA && stateB);
+            case NOR: return !(stateA || stateB);
+            case XOR: return stateA ^ stateB;
+            case XNOR: return !(stateA ^ stateB);
+            case LUT: return lookup(node, values);
+            default: return values[node]; // Sources keep their sampled value
+        }
+    }
+
+    private boolean lookup(int node, boolean[] values) {
+        int[] inputs = lutInputs[node];
+        int row = 0;
+        for (int i = 0; i < inputs.length; i++) {
+            if (inputs[i] != UNCONNECTED && values[inputs[i]]) row |= 1 << i;
+        }
+        return ((lutTables[node][row] >>> lutBits[node]) & 1) != 0;
+    }
+
+    // Looks up each of the 64 patterns separately
+    private long lookupWord(int node, long[] words) {
+        int[] inputs = lutInputs[node];
+        long[] table = lutTables[node];
+        int bit = lutBits[node];
+        long result = 0;
+        for (int pattern = 0; pattern < 64; pattern++) {
+            int row = 0;
+            for (int i = 0; i < inputs.length; i++) {
+                if (inputs[i] != UNCONNECTED && ((words[inputs[i]] >>> pattern) & 1) != 0) row |= 1 << i;
+            }
+            result |= ((table[row] >>> bit) & 1) << pattern;
+        }
+        return result;
+    }
+
+    static boolean isSource(byte op) {
+        return op == SWITCH || op == CLOCK || op == OPAQUE;
+    }
+}
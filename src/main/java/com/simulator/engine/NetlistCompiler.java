@@ -0,0 +1,341 @@
+package com.simulator.engine;
+
+import com.simulator.model.*;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Compiles a graph of model {@link Gate} objects into a levelized {@link Netlist}.
+ * The compiler only reads the fan-in of each gate, so it works on any circuit
+ * built through setInput/setInputA/setInputB, including circuits with feedback loops.
+ * Each custom gate template is compiled only once; its instances copy the result (see {@link #compileTemplate}).
+ */
+public final class NetlistCompiler {
+
+    // Compiled internals of each custom gate template, shared by all its instances and netlists
+    private static final Map<CompositeGate.Definition, Netlist> TEMPLATES = Collections.synchronizedMap(new WeakHashMap<>());
+
+    private NetlistCompiler() {
+    }
+
+    /**
+     * @return the compiled internal gates of a template, compiled on first use and then shared.
+     * The template's ports are source nodes; nested instances are copied in as usual.
+     */
+    static Netlist compileTemplate(CompositeGate.Definition definition) {
+        Netlist template = TEMPLATES.get(definition);
+        if (template == null) {
+            List<Gate> roots = new ArrayList<>(definition.getInternalGates().values());
+            for (int i = 0; i < definition.getInputCount(); i++) {
+                roots.add(definition.getPort(i));
+            }
+            template = compile(roots);
+            TEMPLATES.put(definition, template);
+        }
+        return template;
+    }
+
+    /**
+     * Builds a netlist for the given gates.
+     * Gates reachable through their inputs are included even if they are not in the collection.
+     */
+    public static Netlist compile(Collection<? extends Gate> roots) {
+        // 1. Collect every reachable gate and give it an index (iteratively, so deep chains are safe).
+        // An instance of a CompositeGate gets a block of nodes copied from its compiled template instead.
+        Map<Gate, Integer> indexByGate = new IdentityHashMap<>();
+        Map<CompositeGate, Integer> blocks = new IdentityHashMap<>();
+        List<Gate> gates = new ArrayList<>();
+        List<CompositeGate> owners = new ArrayList<>();
+        Deque<Gate> pending = new ArrayDeque<>();
+        for (Gate root : roots) {
+            if (root != null) pending.push(root);
+        }
+        while (!pending.isEmpty()) {
+            Gate gate = pending.pop();
+            if (gate instanceof CustomGate) {
+                // The component itself is not a node, its output pins are
+                CustomGate custom = (CustomGate) gate;
+                for (int i = 0; i < custom.getOutputCount(); i++) {
+                    pending.push(custom.getOutputGate(i));
+                }
+                continue;
+            }
+            if (indexByGate.containsKey(gate)) continue;
+            if (gate instanceof CompositeGate.Output) {
+                CompositeGate.Output output = (CompositeGate.Output) gate;
+                CompositeGate instance = output.getOwner();
+                Netlist template = compileTemplate(instance.getDefinition());
+                Integer first = blocks.get(instance);
+                if (first == null) {
+                    first = gates.size();
+                    blocks.put(instance, first);
+                    for (int node = 0; node < template.size(); node++) {
+                        gates.add(template.getGate(node));
+                        owners.add(instance);
+                    }
+                    for (int i = 0; i < instance.getInputCount(); i++) {
+                        Gate input = instance.getInput(i);
+                        if (input != null && !indexByGate.containsKey(input)) pending.push(input);
+                    }
+                }
+                // The pin is an alias of the instance's copy of the gate driving it
+                indexByGate.put(output, first + template.indexOf(instance.getDefinition().getOutputGate(output.getIndex())));
+                continue;
+            }
+            indexByGate.put(gate, gates.size());
+            gates.add(gate);
+            owners.add(null);
+            for (Gate input : faninOf(gate)) {
+                if (input != null && !indexByGate.containsKey(input)) pending.push(input);
+            }
+        }
+
+        // 2. Resolve opcodes and input indices
+        int size = gates.size();
+        byte[] ops = new byte[size];
+        int[] inputA = new int[size];
+        int[] inputB = new int[size];
+        int[][] lutInputs = new int[size][];
+        long[][] lutTables = new long[size][];
+        int[] lutBits = new int[size];
+        for (int i = 0; i < size; i++) {
+            CompositeGate owner = owners.get(i);
+            if (owner != null) {
+                // A copied template node: same op, inputs shifted into the instance's block
+                Netlist template = compileTemplate(owner.getDefinition());
+                int first = blocks.get(owner);
+                int local = i - first;
+                ops[i] = template.getOp(local);
+                inputA[i] = shift(template.getInputA(local), first);
+                inputB[i] = shift(template.getInputB(local), first);
+                int[] lookupInputs = template.getLookupInputs(local);
+                if (lookupInputs != null) {
+                    lutInputs[i] = new int[lookupInputs.length];
+                    for (int k = 0; k < lookupInputs.length; k++) {
+                        lutInputs[i][k] = shift(lookupInputs[k], first);
+                    }
+                    lutTables[i] = template.getLookupTable(local);
+                    lutBits[i] = template.getLookupBit(local);
+                }
+                continue;
+            }
+            Gate gate = gates.get(i);
+            Gate[] fanin = faninOf(gate);
+            ops[i] = opOf(gate);
+            if (ops[i] == Netlist.LUT) {
+                LookupGate.Output output = (LookupGate.Output) gate;
+                lutInputs[i] = new int[fanin.length];
+                for (int k = 0; k < fanin.length; k++) {
+                    lutInputs[i][k] = (fanin[k] != null) ? indexByGate.get(fanin[k]) : Netlist.UNCONNECTED;
+                }
+                lutTables[i] = output.getOwner().getTable();
+                lutBits[i] = output.getBit();
+                inputA[i] = Netlist.UNCONNECTED;
+                inputB[i] = Netlist.UNCONNECTED;
+                continue;
+            }
+            inputA[i] = (fanin.length > 0 && fanin[0] != null) ? indexByGate.get(fanin[0]) : Netlist.UNCONNECTED;
+            inputB[i] = (fanin.length > 1 && fanin[1] != null) ? indexByGate.get(fanin[1]) : Netlist.UNCONNECTED;
+        }
+        // Each copied port becomes a buffer reading whatever drives that input of the instance
+        for (Map.Entry<CompositeGate, Integer> block : blocks.entrySet()) {
+            CompositeGate instance = block.getKey();
+            Netlist template = compileTemplate(instance.getDefinition());
+            for (int i = 0; i < instance.getInputCount(); i++) {
+                int node = block.getValue() + template.indexOf(instance.getDefinition().getPort(i));
+                Gate input = instance.getInput(i);
+                ops[node] = Netlist.PROBE;
+                inputA[node] = (input != null) ? indexByGate.get(input) : Netlist.UNCONNECTED;
+                inputB[node] = Netlist.UNCONNECTED;
+            }
+        }
+
+        // 3. Order the combinational nodes by strongly connected component (Tarjan's algorithm).
+        // Acyclic parts become single-node components; feedback loops become multi-node
+        // components that the netlist settles by iteration.
+        int[][] fanout = buildFanout(ops, inputA, inputB, lutInputs);
+        int sourceCount = 0;
+        for (int i = 0; i < size; i++) {
+            if (Netlist.isSource(ops[i])) sourceCount++;
+        }
+        int[] sourceNodes = new int[sourceCount];
+        sourceCount = 0;
+        for (int i = 0; i < size; i++) {
+            if (Netlist.isSource(ops[i])) sourceNodes[sourceCount++] = i;
+        }
+
+        int[] componentOrder = new int[size - sourceCount]; // Nodes grouped by component, sinks first
+        List<Integer> componentEnds = new ArrayList<>();
+        findComponents(ops, fanout, componentOrder, componentEnds);
+
+        // Tarjan emits components in reverse topological order, so lay them out back to front
+        int[] order = new int[componentOrder.length];
+        int[] loopEnd = new int[componentOrder.length];
+        int cursor = 0;
+        for (int c = componentEnds.size() - 1; c >= 0; c--) {
+            int from = (c == 0) ? 0 : componentEnds.get(c - 1);
+            int to = componentEnds.get(c);
+            int start = cursor;
+            for (int i = from; i < to; i++) {
+                order[cursor++] = componentOrder[i];
+            }
+            int first = componentOrder[from];
+            boolean cyclic = (to - from > 1) || readsItself(first, inputA, inputB, lutInputs);
+            if (cyclic) loopEnd[start] = cursor;
+        }
+
+        return new Netlist(gates.toArray(new Gate[0]), ops, inputA, inputB, lutInputs, lutTables, lutBits,
+                sourceNodes, order, loopEnd, fanout, indexByGate, owners.toArray(new CompositeGate[0]), blocks);
+    }
+
+    private static int shift(int input, int first) {
+        return (input == Netlist.UNCONNECTED) ? input : first + input;
+    }
+
+    /**
+     * Iterative Tarjan SCC search over the combinational nodes (no recursion, so deep chains are safe).
+     * Fills 'componentOrder' with the nodes grouped by component and records the end offset of each component.
+     */
+    private static void findComponents(byte[] ops, int[][] fanout, int[] componentOrder, List<Integer> componentEnds) {
+        int size = ops.length;
+        int[] index = new int[size];
+        int[] low = new int[size];
+        int[] edgeCursor = new int[size];
+        boolean[] onStack = new boolean[size];
+        int[] stack = new int[size];
+        int[] callStack = new int[size];
+        Arrays.fill(index, -1);
+
+        int nextIndex = 0;
+        int stackTop = 0;
+        int emitted = 0;
+
+        for (int root = 0; root < size; root++) {
+            if (Netlist.isSource(ops[root]) || index[root] != -1) continue;
+
+            int callTop = 0;
+            callStack[callTop++] = root;
+            index[root] = low[root] = nextIndex++;
+            stack[stackTop++] = root;
+            onStack[root] = true;
+
+            while (callTop > 0) {
+                int node = callStack[callTop - 1];
+                if (edgeCursor[node] < fanout[node].length) {
+                    int next = fanout[node][edgeCursor[node]++];
+                    if (index[next] == -1) {
+                        index[next] = low[next] = nextIndex++;
+                        stack[stackTop++] = next;
+                        onStack[next] = true;
+                        callStack[callTop++] = next;
+                    } else if (onStack[next]) {
+                        low[node] = Math.min(low[node], index[next]);
+                    }
+                    continue;
+                }
+
+                // All edges explored: close the component if this node is its root
+                callTop--;
+                if (low[node] == index[node]) {
+                    int member;
+                    do {
+                        member = stack[--stackTop];
+                        onStack[member] = false;
+                        componentOrder[emitted++] = member;
+                    } while (member != node);
+                    componentEnds.add(emitted);
+                }
+                if (callTop > 0) {
+                    int parent = callStack[callTop - 1];
+                    low[parent] = Math.min(low[parent], low[node]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Builds the fan-out list of every node from the fan-in arrays.
+     * Source nodes are never listed as fan-out targets, since their value does not depend on their inputs.
+     */
+    static int[][] buildFanout(byte[] ops, int[] inputA, int[] inputB, int[][] lutInputs) {
+        int size = ops.length;
+        int[] counts = new int[size];
+        for (int i = 0; i < size; i++) {
+            if (Netlist.isSource(ops[i])) continue;
+            if (inputA[i] != Netlist.UNCONNECTED) counts[inputA[i]]++;
+            if (inputB[i] != Netlist.UNCONNECTED) counts[inputB[i]]++;
+            if (lutInputs[i] != null) {
+                for (int input : lutInputs[i]) {
+                    if (input != Netlist.UNCONNECTED) counts[input]++;
+                }
+            }
+        }
+        int[][] fanout = new int[size][];
+        for (int i = 0; i < size; i++) {
+            fanout[i] = new int[counts[i]];
+            counts[i] = 0;
+        }
+        for (int i = 0; i < size; i++) {
+            if (Netlist.isSource(ops[i])) continue;
+            if (inputA[i] != Netlist.UNCONNECTED) fanout[inputA[i]][counts[inputA[i]]++] = i;
+            if (inputB[i] != Netlist.UNCONNECTED) fanout[inputB[i]][counts[inputB[i]]++] = i;
+            if (lutInputs[i] != null) {
+                for (int input : lutInputs[i]) {
+                    if (input != Netlist.UNCONNECTED) fanout[input][counts[input]++] = i;
+                }
+            }
+        }
+        return fanout;
+    }
+
+    private static boolean readsItself(int node, int[] inputA, int[] inputB, int[][] lutInputs) {
+        if (inputA[node] == node || inputB[node] == node) return true;
+        if (lutInputs[node] != null) {
+            for (int input : lutInputs[node]) {
+                if (input == node) return true;
+            }
+        }
+        return false;
+    }
+
+    private static Gate[] faninOf(Gate gate) {
+        if (gate instanceof BinaryGate) {
+            BinaryGate binary = (BinaryGate) gate;
+            return new Gate[]{binary.getInputA(), binary.getInputB()};
+        } else if (gate instanceof UnaryGate) {
+            return new Gate[]{((UnaryGate) gate).getInput()};
+        } else if (gate instanceof LookupGate.Output) {
+            LookupGate owner = ((LookupGate.Output) gate).getOwner();
+            Gate[] inputs = new Gate[owner.getInputCount()];
+            for (int i = 0; i < inputs.length; i++) {
+                inputs[i] = owner.getInput(i);
+            }
+            return inputs;
+        }
+        return new Gate[0];
+    }
+
+    private static byte opOf(Gate gate) {
+        if (gate instanceof InputSwitch) return Netlist.SWITCH;
+        if (gate instanceof ClockGate) return Netlist.CLOCK;
+        if (gate instanceof OutputProbe) return Netlist.PROBE;
+        if (gate instanceof NandGate) return Netlist.NAND;
+        if (gate instanceof NorGate) return Netlist.NOR;
+        if (gate instanceof XnorGate) return Netlist.XNOR;
+        if (gate instanceof XorGate) return Netlist.XOR;
+        if (gate instanceof AndGate) return Netlist.AND;
+        if (gate instanceof OrGate) return Netlist.OR;
+        if (gate instanceof NotGate) return Netlist.NOT;
+        if (gate instanceof LookupGate.Output) return Netlist.LUT;
+        return Netlist.OPAQUE;
+    }
+}
@@ -0,0 +1,145 @@
+package com.simulator.engine;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+
+/**
+ * Checkpoints and input log that let the simulation step backwards.
+ * <p>
+ * Every CHECKPOINT_INTERVAL steps the state nodes of the netlist (sources and feedback loops,
+ * see {@link Netlist#getStateNodes()}) are packed into a bit vector, so a checkpoint costs one bit
+ * per state node. Input changes between checkpoints are logged with their step number. Any step can
+ * then be rebuilt by restoring the nearest earlier checkpoint and replaying forward: logged steps
+ * re-apply their input, all other steps are clock instants, which the scheduler reproduces.
+ * <p>
+ * Only the last MAX_CHECKPOINTS checkpoints are kept; older history is dropped.
+ */
+final class SimulationHistory {
+
+    static final int CHECKPOINT_INTERVAL = 256;
+    static final int MAX_CHECKPOINTS = 4096;
+
+    private final int[] stateNodes;
+    private final ArrayDeque<Checkpoint> checkpoints = new ArrayDeque<>(); // Oldest first
+
+    // Input log, oldest first, in [eventStart, eventEnd)
+    private long[] eventSteps = new long[64];
+    private long[] eventTimes = new long[64];
+    private int[] eventInputs = new int[64]; // node * 2 + value
+    private int eventStart = 0;
+    private int eventEnd = 0;
+
+    SimulationHistory(Netlist netlist) {
+        this.stateNodes = netlist.getStateNodes();
+    }
+
+    /**
+     * Takes a checkpoint if the step is due for one.
+     */
+    void stepCompleted(long step, long time, boolean[] values) {
+        if (step % CHECKPOINT_INTERVAL == 0) checkpoint(step, time, values);
+    }
+
+    void checkpoint(long step, long time, boolean[] values) {
+        long[] bits = new long[(stateNodes.length + 63) >>> 6];
+        for (int i = 0; i < stateNodes.length; i++) {
+            if (values[stateNodes[i]]) bits[i >>> 6] |= 1L << i;
+        }
+        checkpoints.addLast(new Checkpoint(step, time, bits));
+
+        if (checkpoints.size() > MAX_CHECKPOINTS) {
+            checkpoints.removeFirst();
+            long oldest = checkpoints.getFirst().step;
+            while (eventStart < eventEnd && eventSteps[eventStart] <= oldest) eventStart++;
+        }
+    }
+
+    /**
+     * Logs that the given step set a source.
+     */
+    void logInput(long step, long time, int node, boolean value) {
+        if (eventEnd == eventSteps.length) {
+            // Reclaim the dropped front first, grow only if the log is really full
+            int live = eventEnd - eventStart;
+            int capacity = (live * 2 > eventSteps.length) ? eventSteps.length * 2 : eventSteps.length;
+            eventSteps = compact(eventSteps, capacity);
+            eventTimes = compact(eventTimes, capacity);
+            eventInputs = Arrays.copyOf(Arrays.copyOfRange(eventInputs, eventStart, eventEnd), capacity);
+            eventStart = 0;
+            eventEnd = live;
+        }
+        eventSteps[eventEnd] = step;
+        eventTimes[eventEnd] = time;
+        eventInputs[eventEnd] = node * 2 + (value ? 1 : 0);
+        eventEnd++;
+    }
+
+    private long[] compact(long[] array, int capacity) {
+        return Arrays.copyOf(Arrays.copyOfRange(array, eventStart, eventEnd), capacity);
+    }
+
+    /**
+     * @return the position of the input logged for the step in the log, or -1 if it was a clock step.
+     */
+    int findInput(long step) {
+        int index = Arrays.binarySearch(eventSteps, eventStart, eventEnd, step);
+        return (index >= 0) ? index : -1;
+    }
+
+    int getInputNode(int index) {
+        return eventInputs[index] >>> 1;
+    }
+
+    boolean getInputValue(int index) {
+        return (eventInputs[index] & 1) != 0;
+    }
+
+    long getInputTime(int index) {
+        return eventTimes[index];
+    }
+
+    /**
+     * @return the latest checkpoint at or before the step, or null if the history does not go back that far.
+     */
+    Checkpoint findCheckpoint(long step) {
+        Iterator<Checkpoint> newestFirst = checkpoints.descendingIterator();
+        while (newestFirst.hasNext()) {
+            Checkpoint checkpoint = newestFirst.next();
+            if (checkpoint.step <= step) return checkpoint;
+        }
+        return null;
+    }
+
+    /**
+     * Forgets everything after the step (the future is rewritten after stepping back).
+     */
+    void truncateAfter(long step) {
+        while (!checkpoints.isEmpty() && checkpoints.getLast().step > step) checkpoints.removeLast();
+        while (eventEnd > eventStart && eventSteps[eventEnd - 1] > step) eventEnd--;
+    }
+
+    /**
+     * The packed state after one step.
+     */
+    final class Checkpoint {
+        final long step;
+        final long time;
+        private final long[] bits;
+
+        Checkpoint(long step, long time, long[] bits) {
+            this.step = step;
+            this.time = time;
+            this.bits = bits;
+        }
+
+        /**
+         * Writes the state nodes back; the caller must re-evaluate the netlist afterwards.
+         */
+        void restore(boolean[] values) {
+            for (int i = 0; i < stateNodes.length; i++) {
+                values[stateNodes[i]] = (bits[i >>> 6] & (1L << i)) != 0;
+            }
+        }
+    }
+}
@@ -0,0 +1,637 @@
+package com.simulator.engine;
+
+import com.simulator.model.Gate;
+import com.simulator.model.InputSwitch;
+
+import java.io.IOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Runs the simulation on a dedicated thread.
+ * <p>
+ * The editor publishes immutable {@link Netlist} versions (a new one after every structural edit)
+ * and sends source changes as commands; all signal and clock state belongs to the worker thread.
+ * Clocks advance in real time using a {@link ClockScheduler}. Whenever the signals changed, the
+ * worker publishes an immutable {@link Snapshot}, at most once per PUBLISH_INTERVAL_NANOS
+ * (immediately after a command, so clicks feel instant). Readers just take the latest snapshot,
+ * so a slow reader skips intermediate states instead of falling behind.
+ * <p>
+ * The worker never touches the model gates; everything it needs is in the netlist.
+ * Optionally a {@link WaveformRecorder} records selected nets after every step (each command
+ * and each clock instant); snapshots then carry the steps recorded since the last update the
+ * reader reported as applied ({@link #waveformShown(WaveformRecorder.Update)}).
+ * A {@link VcdWriter} can stream every change to a file in the same way.
+ * <p>
+ * {@link #run(long, BreakCondition)} fast-forwards instead: the clocks are stepped as fast as
+ * possible, detached from real time, until a cycle count is reached or a condition holds.
+ * No snapshot is published until the run stops, so the display is not updated meanwhile.
+ * <p>
+ * Every step is numbered and kept in a {@link SimulationHistory}, so the simulation can be paused
+ * and moved to any earlier step ({@link #goToStep(long)}) by restoring a checkpoint and replaying.
+ * Replayed steps are not recorded again; the trace and the VCD file keep the steps as first simulated.
+ * After a move back, nothing is written to the VCD file until simulated time passes the last time
+ * written; the first step after it writes every net that differs from the file.
+ * The history starts over with every netlist version.
+ */
+public final class SimulationWorker {
+
+    // Snapshots are published at most this often while clocks are running
+    private static final long PUBLISH_INTERVAL_NANOS = 8_000_000;
+    // Longest stretch spent on clock events before commands are served again
+    private static final long SLICE_NANOS = 8_000_000;
+    // Steps between two deadline checks while fast-forwarding
+    private static final int STEPS_PER_CHECK = 256;
+
+    private final BlockingQueue<Runnable> commands = new LinkedBlockingQueue<>();
+    private final AtomicReference<Snapshot> latest = new AtomicReference<>();
+    private final Thread thread;
+    private volatile boolean running = true;
+
+    // Worker thread state
+    private Netlist netlist;
+    private boolean[] values;
+    private ChangePropagator propagator;
+    private ClockScheduler scheduler;
+    private int[] toggledNodes;
+    private boolean oscillating = false;
+    private boolean dirty = false; // Signals changed since the last snapshot
+    private long simulatedTime = 0;
+    private long lastRealTime;
+    private long lastPublishTime;
+    private Gate[] tracedGates;
+    private int traceDepth;
+    private WaveformRecorder recorder;
+    private volatile WaveformRecorder.Update shownWaveform; // Last update applied by the reader
+    private VcdWriter vcd;
+    private boolean vcdBehind = false; // Moved back before the last time written to the VCD file
+    private SimulationHistory history;
+    private long sourceCommands = 0; // setSource commands served so far
+    private long stepCount = 0; // Step the values belong to
+    private long headStep = 0;  // Latest step simulated; later than stepCount after stepping back
+    private boolean paused = false;
+
+    // Fast-forward run in progress, or null
+    private CompletableFuture<RunResult> run;
+    private BreakCondition runCondition;
+    private long runStartTime;
+    private long runEndTime;
+    private long runCyclePeriod;
+
+    public SimulationWorker() {
+        this.thread = new Thread(this::run, "simulation");
+        this.thread.setDaemon(true);
+    }
+
+    public void start() {
+        thread.start();
+    }
+
+    public void shutdown() {
+        running = false;
+        thread.interrupt();
+    }
+
+    /**
+     * Switches the simulation to a new circuit version.
+     * Nodes whose model gate was also part of the previous version keep their current value,
+     * so clocks and latches carry over an edit. Switches are set by the editor, so they always
+     * take their value from 'sourceValues', as do all nodes that are new.
+     *
+     * @param sourceValues signal array with the sources read from the models
+     *                     (see {@link Netlist#readSources(boolean[])}); owned by the worker afterwards
+     */
+    public void publish(Netlist netlist, boolean[] sourceValues) {
+        commands.add(() -> install(netlist, sourceValues));
+    }
+
+    /**
+     * Sets a switch (or any other source) to a new value.
+     * Ignored if the gate is not part of the current version.
+     */
+    public void setSource(Gate source, boolean value) {
+        commands.add(() -> {
+            sourceCommands++;
+            applySource(source, value);
+        });
+    }
+
+    /**
+     * Starts recording the given gates, discarding any previous recording.
+     * The recording restarts whenever a new netlist version is published.
+     *
+     * @param depth the number of steps to keep
+     */
+    public void startTrace(Gate[] gates, int depth) {
+        Gate[] traced = gates.clone();
+        commands.add(() -> {
+            tracedGates = traced;
+            traceDepth = depth;
+            resetRecorder();
+        });
+    }
+
+    /**
+     * Tells the worker which waveform update the reader has applied, so the next snapshots only
+     * carry the steps recorded after it.
+     */
+    public void waveformShown(WaveformRecorder.Update update) {
+        shownWaveform = update;
+    }
+
+    public void stopTrace() {
+        commands.add(() -> {
+            tracedGates = null;
+            recorder = null;
+            dirty = true;
+        });
+    }
+
+    /**
+     * Starts streaming changes to a VCD file (replacing any previous one).
+     * The worker closes the writer when recording stops or the worker shuts down.
+     */
+    public void startVcd(VcdWriter writer) {
+        commands.add(() -> {
+            closeVcd();
+            vcd = writer;
+            if (netlist != null) {
+                vcd.bind(netlist);
+                writeVcd(true, simulatedTime);
+            }
+        });
+    }
+
+    public void stopVcd() {
+        commands.add(this::closeVcd);
+    }
+
+    /**
+     * Fast-forwards the clocks by the given number of full periods of the fastest clock,
+     * stopping early as soon as the condition holds (tested after every step).
+     * Any previous run is cancelled. Switch changes sent meanwhile are still applied.
+     *
+     * @param condition the breakpoint, compiled against the current netlist, or null to run all cycles
+     * @return completes when the run stops; the run is cancelled if a new netlist version is published
+     */
+    public CompletableFuture<RunResult> run(long cycles, BreakCondition condition) {
+        CompletableFuture<RunResult> future = new CompletableFuture<>();
+        commands.add(() -> startRun(future, cycles, condition));
+        return future;
+    }
+
+    public void cancelRun() {
+        commands.add(() -> finishRun(RunResult.Outcome.CANCELLED));
+    }
+
+    /**
+     * Stops the clocks from following real time. Switch changes and runs still work while paused.
+     */
+    public void pause() {
+        commands.add(() -> {
+            paused = true;
+            dirty = true;
+        });
+    }
+
+    /**
+     * Lets the clocks follow real time again, from the current step.
+     * If the simulation was moved back, the steps after the current one are discarded.
+     */
+    public void resume() {
+        commands.add(() -> {
+            paused = false;
+            lastRealTime = System.nanoTime();
+            dirty = true;
+        });
+    }
+
+    /**
+     * Pauses and moves one step forward: replays the next step if the simulation was moved back,
+     * otherwise simulates the next clock instant.
+     */
+    public void stepForward() {
+        commands.add(() -> {
+            paused = true;
+            if (stepCount < headStep) {
+                moveTo(stepCount + 1);
+            } else if (scheduler != null && scheduler.getClockCount() > 0) {
+                beginStep();
+                stepClocks();
+                simulatedTime = scheduler.getTime();
+                completeStep(simulatedTime);
+            }
+            dirty = true;
+        });
+    }
+
+    /**
+     * Pauses and moves one step back.
+     */
+    public void stepBack() {
+        commands.add(() -> {
+            paused = true;
+            moveTo(stepCount - 1);
+            dirty = true;
+        });
+    }
+
+    /**
+     * Pauses and moves to the given step of the current netlist version.
+     * The step is clamped to the history that is still available.
+     */
+    public void goToStep(long step) {
+        commands.add(() -> {
+            paused = true;
+            moveTo(step);
+            dirty = true;
+        });
+    }
+
+    /**
+     * @return the most recent snapshot, or null if nothing has been simulated yet.
+     */
+    public Snapshot getSnapshot() {
+        return latest.get();
+    }
+
+    private void run() {
+        lastRealTime = System.nanoTime();
+        while (running) {
+            try {
+                Runnable command = commands.poll(waitNanos(), TimeUnit.NANOSECONDS);
+                boolean commanded = (command != null);
+                while (command != null) {
+                    command.run();
+                    command = commands.poll();
+                }
+                advanceClocks();
+                // Nothing is shown during a fast-forward run; finishing it marks the state dirty
+                if (dirty && netlist != null && run == null
+                        && (commanded || System.nanoTime() - lastPublishTime >= PUBLISH_INTERVAL_NANOS)) {
+                    publishSnapshot();
+                }
+            } catch (InterruptedException e) {
+                break; // Shut down
+            } catch (RuntimeException e) {
+                System.err.println("Simulation error: " + e.getMessage());
+            }
+        }
+        closeVcd();
+    }
+
+    // How long to wait for a command before the next clock toggle (or snapshot) is due
+    private long waitNanos() {
+        long now = System.nanoTime();
+        long wait = Long.MAX_VALUE;
+        if (run != null) return 0;
+        if (!paused && scheduler != null && scheduler.getClockCount() > 0) {
+            wait = scheduler.getNextToggleTime() - (simulatedTime + (now - lastRealTime));
+        }
+        if (dirty) {
+            wait = Math.min(wait, lastPublishTime + PUBLISH_INTERVAL_NANOS - now);
+        }
+        return Math.max(0, wait);
+    }
+
+    private void install(Netlist next, boolean[] nextValues) {
+        finishRun(RunResult.Outcome.CANCELLED); // The condition was compiled against the old nodes
+        if (netlist != null) {
+            // Carry the state over by model identity (and instance, for nodes copied from a template)
+            for (int node = 0; node < next.size(); node++) {
+                if (next.getGate(node) instanceof InputSwitch) continue; // As read from the model
+                int previous = netlist.indexOf(next, node);
+                if (previous >= 0) nextValues[node] = values[previous];
+            }
+        }
+        this.netlist = next;
+        this.values = nextValues;
+        this.oscillating = !next.evaluate(nextValues);
+        this.propagator = new ChangePropagator(next);
+
+        // Re-register the clocks, continuing from the current simulated time
+        int[] clockNodes = next.getClockNodes();
+        this.scheduler = new ClockScheduler();
+        scheduler.resetTo(simulatedTime);
+        for (int i = 0; i < clockNodes.length; i++) {
+            scheduler.register(clockNodes[i], next.getClockHalfPeriod(i), next.getClockPhase(i));
+        }
+        this.toggledNodes = new int[clockNodes.length];
+        this.history = new SimulationHistory(next);
+        this.stepCount = 0;
+        this.headStep = 0;
+        history.checkpoint(0, simulatedTime, values);
+        this.dirty = true;
+        resetRecorder();
+        if (vcd != null) {
+            vcd.bind(next);
+            writeVcd(true, simulatedTime);
+        }
+    }
+
+    private void resetRecorder() {
+        if (tracedGates == null || netlist == null) return;
+        recorder = new WaveformRecorder(netlist, tracedGates, traceDepth);
+        recorder.record(values);
+        dirty = true;
+    }
+
+    private void applySource(Gate source, boolean value) {
+        if (netlist == null) return;
+        int node = netlist.indexOf(source);
+        if (node < 0 || values[node] == value) return;
+        beginStep();
+        history.logInput(stepCount + 1, simulatedTime, node, value);
+        propagator.setSource(values, node, value);
+        if (!propagator.propagate(values)) oscillating = true;
+        completeStep(simulatedTime);
+    }
+
+    // A new step always continues from the current one; a future left by stepping back is discarded
+    private void beginStep() {
+        if (stepCount < headStep) {
+            history.truncateAfter(stepCount);
+            headStep = stepCount;
+        }
+    }
+
+    // Toggles every clock due at the next clock instant
+    private void stepClocks() {
+        int count = scheduler.step(toggledNodes);
+        for (int i = 0; i < count; i++) {
+            int node = toggledNodes[i];
+            propagator.setSource(values, node, !values[node]);
+        }
+        if (!propagator.propagate(values)) oscillating = true;
+    }
+
+    private void completeStep(long time) {
+        stepCount++;
+        headStep = stepCount;
+        history.stepCompleted(stepCount, time, values);
+        if (recorder != null) recorder.record(values);
+        if (vcd != null) writeVcd(false, time);
+        // The VCD file has the changes now; clear them so the next step only scans its own
+        dirty |= propagator.getChangedCount() > 0;
+        propagator.clearChanges();
+    }
+
+    // Restores the nearest checkpoint and replays up to the target step
+    private void moveTo(long target) {
+        if (netlist == null) return;
+        target = Math.max(0, Math.min(target, headStep));
+        if (target < stepCount) {
+            SimulationHistory.Checkpoint checkpoint = history.findCheckpoint(target);
+            if (checkpoint == null) return; // Older than the history kept
+            checkpoint.restore(values);
+            if (!netlist.evaluate(values)) oscillating = true;
+            stepCount = checkpoint.step;
+            simulatedTime = checkpoint.time;
+            scheduler.resetTo(checkpoint.time);
+        }
+        while (stepCount < target) {
+            long step = stepCount + 1;
+            int input = history.findInput(step);
+            if (input >= 0) {
+                propagator.setSource(values, history.getInputNode(input), history.getInputValue(input));
+                if (!propagator.propagate(values)) oscillating = true;
+                simulatedTime = history.getInputTime(input);
+            } else {
+                stepClocks();
+                simulatedTime = scheduler.getTime();
+            }
+            stepCount = step;
+        }
+        propagator.clearChanges();
+        if (vcd != null && stepCount < headStep) vcdBehind = true;
+    }
+
+    private void advanceClocks() {
+        long now = System.nanoTime();
+        if (run != null) {
+            lastRealTime = now; // Real time resumes from wherever the run stops
+            fastForward(now + SLICE_NANOS);
+            return;
+        }
+        if (paused) {
+            lastRealTime = now;
+            return;
+        }
+        simulatedTime += now - lastRealTime;
+        lastRealTime = now;
+        if (scheduler == null) return;
+
+        long deadline = now + SLICE_NANOS;
+        while (scheduler.getNextToggleTime() <= simulatedTime) {
+            if (System.nanoTime() > deadline) {
+                // Too slow to keep up: let simulated time lag behind instead of building a backlog
+                simulatedTime = scheduler.getTime();
+                break;
+            }
+            beginStep();
+            stepClocks();
+            completeStep(scheduler.getTime());
+        }
+    }
+
+    private void startRun(CompletableFuture<RunResult> future, long cycles, BreakCondition condition) {
+        finishRun(RunResult.Outcome.CANCELLED);
+        if (netlist == null || netlist.getClockNodes().length == 0) {
+            future.complete(new RunResult(RunResult.Outcome.NO_CLOCKS, 0, simulatedTime));
+            return;
+        }
+        long fastestHalfPeriod = Long.MAX_VALUE;
+        for (int i = 0; i < netlist.getClockNodes().length; i++) {
+            fastestHalfPeriod = Math.min(fastestHalfPeriod, netlist.getClockHalfPeriod(i));
+        }
+        // Continue from the next toggle, not from wherever real time had got to
+        scheduler.resetTo(simulatedTime);
+        run = future;
+        runCondition = condition;
+        runCyclePeriod = 2 * fastestHalfPeriod;
+        runStartTime = simulatedTime;
+        runEndTime = simulatedTime + cycles * runCyclePeriod;
+        if (condition != null) condition.reset(values);
+    }
+
+    private void fastForward(long deadline) {
+        int steps = 0;
+        while (scheduler.getNextToggleTime() <= runEndTime) {
+            if (++steps == STEPS_PER_CHECK) {
+                steps = 0;
+                if (System.nanoTime() > deadline) return; // Serve commands, then continue
+            }
+            beginStep();
+            stepClocks();
+            simulatedTime = scheduler.getTime();
+            completeStep(simulatedTime);
+
+            if (runCondition != null && runCondition.test(values)) {
+                finishRun(RunResult.Outcome.CONDITION_MET);
+                return;
+            }
+        }
+        simulatedTime = runEndTime;
+        finishRun(RunResult.Outcome.COMPLETED);
+    }
+
+    private void finishRun(RunResult.Outcome outcome) {
+        if (run == null) return;
+        CompletableFuture<RunResult> future = run;
+        run = null;
+        runCondition = null;
+        dirty = true;
+        future.complete(new RunResult(outcome, (simulatedTime - runStartTime) / runCyclePeriod, simulatedTime));
+    }
+
+    // Writes all values (after a new version) or just the changes; stops recording if the file fails.
+    // After a move back, times the file already has are skipped and the first later one catches up
+    private void writeVcd(boolean allValues, long time) {
+        if (vcdBehind) {
+            if (time <= vcd.getLastTime()) return;
+            vcdBehind = false;
+            allValues = true;
+        }
+        try {
+            if (allValues) vcd.writeValues(time, values);
+            else vcd.writeChanges(time, values, propagator);
+        } catch (IOException e) {
+            System.err.println("Error writing VCD file: " + e.getMessage());
+            closeVcd();
+        }
+    }
+
+    private void closeVcd() {
+        if (vcd == null) return;
+        try {
+            vcd.close();
+        } catch (IOException e) {
+            System.err.println("Error closing VCD file: " + e.getMessage());
+        }
+        vcd = null;
+        vcdBehind = false;
+    }
+
+    private void publishSnapshot() {
+        latest.set(new Snapshot(netlist, values.clone(), simulatedTime, !oscillating,
+                (recorder == null) ? null : recorder.updateSince(shownWaveform), stepCount, paused, sourceCommands));
+        dirty = false;
+        lastPublishTime = System.nanoTime();
+    }
+
+    /**
+     * How a fast-forward run ended.
+     */
+    public static final class RunResult {
+        public enum Outcome { COMPLETED, CONDITION_MET, CANCELLED, NO_CLOCKS }
+
+        private final Outcome outcome;
+        private final long cycles;
+        private final long time;
+
+        RunResult(Outcome outcome, long cycles, long time) {
+            this.outcome = outcome;
+            this.cycles = cycles;
+            this.time = time;
+        }
+
+        public Outcome getOutcome() {
+            return outcome;
+        }
+
+        /**
+         * @return the number of full cycles of the fastest clock that were run.
+         */
+        public long getCycles() {
+            return cycles;
+        }
+
+        /**
+         * @return the simulated time at which the run stopped, in nanoseconds.
+         */
+        public long getTime() {
+            return time;
+        }
+    }
+
+    /**
+     * The signal values of one netlist version at one point in simulated time.
+     */
+    public static final class Snapshot {
+        private final Netlist netlist;
+        private final boolean[] values;
+        private final long time;
+        private final boolean settled;
+        private final WaveformRecorder.Update waveform;
+        private final long step;
+        private final boolean paused;
+        private final long sourceCommands;
+
+        Snapshot(Netlist netlist, boolean[] values, long time, boolean settled, WaveformRecorder.Update waveform,
+                 long step, boolean paused, long sourceCommands) {
+            this.netlist = netlist;
+            this.values = values;
+            this.time = time;
+            this.settled = settled;
+            this.waveform = waveform;
+            this.step = step;
+            this.paused = paused;
+            this.sourceCommands = sourceCommands;
+        }
+
+        /**
+         * @return the netlist version these values belong to.
+         */
+        public Netlist getNetlist() {
+            return netlist;
+        }
+
+        public boolean getValue(int node) {
+            return values[node];
+        }
+
+        /**
+         * @return the simulated time, in nanoseconds since the worker started.
+         */
+        public long getTime() {
+            return time;
+        }
+
+        /**
+         * @return false if a feedback loop has oscillated since this netlist version was published.
+         */
+        public boolean isSettled() {
+            return settled;
+        }
+
+        /**
+         * @return the recorded steps the reader does not have yet (see {@link WaveformRecorder#apply}),
+         * or null if no trace is running.
+         */
+        public WaveformRecorder.Update getWaveform() {
+            return waveform;
+        }
+
+        /**
+         * @return the number of steps since this netlist version was published.
+         */
+        public long getStep() {
+            return step;
+        }
+
+        public boolean isPaused() {
+            return paused;
+        }
+
+        /**
+         * @return the number of {@link SimulationWorker#setSource} calls served before these values, so a reader
+         * can tell whether they include the switch changes it has sent.
+         */
+        public long getSourceCommands() {
+            return sourceCommands;
+        }
+    }
+}
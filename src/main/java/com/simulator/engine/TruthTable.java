@@ -0,0 +1,212 @@
+package com.simulator.engine;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * A truth table computed with bit-parallel evaluation.
+ * Each output column is stored bit-packed (one bit per row in a long[]), and rows are
+ * evaluated 64 at a time: every input is given a 64-bit pattern word, and the netlist
+ * is evaluated once per block of 64 rows using bitwise word operations.
+ * Row i assigns input column j the bit (numInputs - 1 - j) of i, so the first column is the MSB.
+ * <p>
+ * The source values are captured when the table is created, so generation never touches the
+ * live model and can run on any thread. Large tables are split into row ranges and evaluated
+ * on a ForkJoin pool; each range writes to its own words of the output columns.
+ * <p>
+ * Rows can also be computed lazily: {@link #getOutput(int, int)} evaluates the 64-row block
+ * holding the requested row on first access. Output storage is allocated in pages as blocks
+ * are computed, so a huge table that is only partly viewed stays small in memory.
+ * Lazy access is not thread-safe and must come from a single thread.
+ */
+public final class TruthTable {
+
+    // Pattern words for the 6 lowest row bits: bit k of PATTERNS[p] is bit p of k
+    private static final long[] PATTERNS = {
+            0xAAAAAAAAAAAAAAAAL,
+            0xCCCCCCCCCCCCCCCCL,
+            0xF0F0F0F0F0F0F0F0L,
+            0xFF00FF00FF00FF00L,
+            0xFFFF0000FFFF0000L,
+            0xFFFFFFFF00000000L
+    };
+
+    // Below this much work (words * nodes) a range is evaluated on the current thread
+    private static final long SEQUENTIAL_THRESHOLD = 1L << 16;
+
+    // Words (64 rows each) per storage page
+    private static final int PAGE_WORDS = 1024;
+
+    private final Netlist netlist;
+    private final int[] inputNodes;
+    private final boolean[] pinned;      // Inputs held at a fixed value instead of being enumerated (clocks)
+    private final boolean[] pinnedValues;
+    private final int[] outputNodes;
+    private final long[] baseWords;      // Source words for everything that is not an enumerated input
+    private final int rowCount;
+    private final int wordCount;
+
+    // Bit-packed outputs, [page][column][word in page], allocated on demand
+    private final long[][][] outputPages;
+    // One bit per word of each page, set once that word has been computed
+    private final long[][] computedPages;
+    private long[] lazyScratch;
+
+    /**
+     * @param netlist      the compiled circuit
+     * @param inputNodes   node of each input column
+     * @param pinned       for each input column, true if its value stays at the current source value
+     * @param outputNodes  node of each output column
+     */
+    public TruthTable(Netlist netlist, int[] inputNodes, boolean[] pinned, int[] outputNodes) {
+        if (inputNodes.length > 30) {
+            throw new IllegalArgumentException("Too many inputs for a truth table: " + inputNodes.length);
+        }
+        this.netlist = netlist;
+        this.inputNodes = inputNodes;
+        this.pinned = pinned;
+        this.outputNodes = outputNodes;
+        this.rowCount = 1 << inputNodes.length;
+
+        // Snapshot the current source values (used by pinned inputs and any source outside the table)
+        boolean[] sourceValues = new boolean[netlist.size()];
+        netlist.readSources(sourceValues);
+        this.baseWords = new long[netlist.size()];
+        for (int node = 0; node < sourceValues.length; node++) {
+            baseWords[node] = sourceValues[node] ? -1L : 0L;
+        }
+        this.pinnedValues = new boolean[inputNodes.length];
+        for (int j = 0; j < inputNodes.length; j++) {
+            pinnedValues[j] = sourceValues[inputNodes[j]];
+        }
+
+        this.wordCount = (rowCount + 63) >>> 6;
+        int pageCount = (wordCount + PAGE_WORDS - 1) / PAGE_WORDS;
+        this.outputPages = new long[pageCount][][];
+        this.computedPages = new long[pageCount][];
+    }
+
+    /**
+     * Evaluates every row of the table on the common ForkJoin pool.
+     */
+    public TruthTable generate() {
+        return generate(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Evaluates every row of the table, splitting the row space across the given pool.
+     */
+    public TruthTable generate(ForkJoinPool pool) {
+        // Allocate every page up front, so the parallel tasks never race on allocation
+        for (int page = 0; page < outputPages.length; page++) {
+            allocatePage(page);
+        }
+        pool.invoke(new RangeTask(0, wordCount));
+        for (long[] computed : computedPages) {
+            Arrays.fill(computed, -1L);
+        }
+        return this;
+    }
+
+    /**
+     * Evaluates the 64 rows of one block and stores their outputs.
+     *
+     * @param scratch a work array of netlist.size() longs, owned by the caller
+     */
+    void computeWord(int word, long[] scratch) {
+        System.arraycopy(baseWords, 0, scratch, 0, scratch.length);
+        int numInputs = inputNodes.length;
+        for (int j = 0; j < numInputs; j++) {
+            if (pinned[j]) continue;
+            int bit = numInputs - 1 - j;
+            long pattern;
+            if (bit < 6) {
+                pattern = PATTERNS[bit];
+            } else {
+                pattern = (((long) word >>> (bit - 6)) & 1L) != 0 ? -1L : 0L;
+            }
+            scratch[inputNodes[j]] = pattern;
+        }
+
+        netlist.evaluateWords(scratch);
+
+        long[][] page = outputPages[word / PAGE_WORDS];
+        int offset = word % PAGE_WORDS;
+        for (int k = 0; k < outputNodes.length; k++) {
+            page[k][offset] = scratch[outputNodes[k]];
+        }
+    }
+
+    private void allocatePage(int page) {
+        if (outputPages[page] != null) return;
+        int words = Math.min(PAGE_WORDS, wordCount - page * PAGE_WORDS);
+        outputPages[page] = new long[outputNodes.length][words];
+        computedPages[page] = new long[(words + 63) >>> 6];
+    }
+
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    public int getInputCount() {
+        return inputNodes.length;
+    }
+
+    public int getOutputCount() {
+        return outputNodes.length;
+    }
+
+
+    /**
+     * @return the value of input column 'col' in the given row.
+     */
+    public boolean getInput(int row, int col) {
+        if (pinned[col]) return pinnedValues[col];
+        return ((row >>> (inputNodes.length - 1 - col)) & 1) == 1;
+    }
+
+    /**
+     * @return the value of output column 'col' in the given row, computing its block if needed.
+     */
+    public boolean getOutput(int row, int col) {
+        int word = row >>> 6;
+        int page = word / PAGE_WORDS;
+        int offset = word % PAGE_WORDS;
+        if (outputPages[page] == null || (computedPages[page][offset >>> 6] & (1L << (offset & 63))) == 0) {
+            allocatePage(page);
+            if (lazyScratch == null) lazyScratch = new long[netlist.size()];
+            computeWord(word, lazyScratch);
+            computedPages[page][offset >>> 6] |= 1L << (offset & 63);
+        }
+        return ((outputPages[page][col][offset] >>> (row & 63)) & 1L) == 1L;
+    }
+
+    /**
+     * Evaluates a range of 64-row blocks, splitting it in half until it is small enough.
+     */
+    @SuppressWarnings("serial") // Never serialized
+    private class RangeTask extends RecursiveAction {
+        private final int fromWord;
+        private final int toWord;
+
+        RangeTask(int fromWord, int toWord) {
+            this.fromWord = fromWord;
+            this.toWord = toWord;
+        }
+
+        @Override
+        protected void compute() {
+            int count = toWord - fromWord;
+            if (count <= 1 || (long) count * netlist.size() <= SEQUENTIAL_THRESHOLD) {
+                long[] scratch = new long[netlist.size()];
+                for (int word = fromWord; word < toWord; word++) {
+                    computeWord(word, scratch);
+                }
+                return;
+            }
+            int middle = fromWord + count / 2;
+            invokeAll(new RangeTask(fromWord, middle), new RangeTask(middle, toWord));
+        }
+    }
+}
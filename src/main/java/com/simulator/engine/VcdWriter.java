@@ -0,0 +1,218 @@
+package com.simulator.engine;
+
+import com.simulator.model.Gate;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Streams a simulation trace to a Value Change Dump (VCD) file.
+ * Only value changes are written, through a fixed-size buffer on a FileChannel, so the
+ * trace is never held in memory however long the run. Every net gets a short identifier
+ * (base 94 over the printable ASCII characters: "!", "\"", ..., "!!", ...).
+ * Times are simulated nanoseconds.
+ * <p>
+ * Nets are identified by their model gate, so a writer can follow the simulation across
+ * netlist versions (see {@link #bind(Netlist)}); gates that disappear just stop changing.
+ */
+public final class VcdWriter implements Closeable {
+
+    private static final int BUFFER_SIZE = 1 << 16;
+    // Longest record: a '#' and 19 digits, or a value and an identifier, plus the newline
+    private static final int MAX_RECORD = 24;
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private final Gate[] gates;
+    private final byte[][] identifiers;
+    private final boolean[] written; // Last value written for each net
+
+    private int[] netByNode = new int[0]; // -1 for untraced nodes
+    private boolean started = false;
+    private long lastTime = -1;
+
+    /**
+     * Creates the file and writes the header.
+     *
+     * @param names the display name of each net (whitespace is replaced by '_', duplicates get a _2, _3... suffix)
+     */
+    public VcdWriter(Path path, Gate[] gates, String[] names) throws IOException {
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        this.gates = gates.clone();
+        this.identifiers = new byte[gates.length][];
+        this.written = new boolean[gates.length];
+
+        Set<String> used = new HashSet<>();
+        StringBuilder header = new StringBuilder();
+        header.append("$version Digital Logic Simulator $end\n");
+        header.append("$timescale 1ns $end\n");
+        header.append("$scope module circuit $end\n");
+        for (int net = 0; net < gates.length; net++) {
+            identifiers[net] = identifier(net);
+            header.append("$var wire 1 ").append(new String(identifiers[net], StandardCharsets.US_ASCII))
+                    .append(' ').append(uniqueName(names[net], used)).append(" $end\n");
+        }
+        header.append("$upscope $end\n");
+        header.append("$enddefinitions $end\n");
+        writeAscii(header);
+    }
+
+    /**
+     * Maps the nets onto the nodes of a (new) netlist version.
+     */
+    public void bind(Netlist netlist) {
+        netByNode = new int[netlist.size()];
+        Arrays.fill(netByNode, -1);
+        for (int net = 0; net < gates.length; net++) {
+            int node = netlist.indexOf(gates[net]);
+            if (node >= 0) netByNode[node] = net;
+        }
+    }
+
+    /**
+     * Writes every net whose value differs from the last one written.
+     * The first call writes the initial value of every net; it must come after {@link #bind(Netlist)}
+     * and before any {@link #writeChanges}. Later calls resynchronize after a new netlist version.
+     */
+    public void writeValues(long time, boolean[] values) throws IOException {
+        if (!started) {
+            writeTime(time);
+            writeAscii("$dumpvars\n");
+            for (int node = 0; node < netByNode.length; node++) {
+                int net = netByNode[node];
+                if (net >= 0) writeValue(net, values[node]);
+            }
+            writeAscii("$end\n");
+            started = true;
+            return;
+        }
+        boolean timeWritten = false;
+        for (int node = 0; node < netByNode.length; node++) {
+            int net = netByNode[node];
+            if (net < 0 || written[net] == values[node]) continue;
+            if (!timeWritten) {
+                writeTime(time);
+                timeWritten = true;
+            }
+            writeValue(net, values[node]);
+        }
+    }
+
+    /**
+     * Writes the nets among the propagator's changed nodes whose value differs from the last one written.
+     * The changed list may cover more than one step; nodes that changed back are skipped.
+     */
+    public void writeChanges(long time, boolean[] values, ChangePropagator changes) throws IOException {
+        if (!started) throw new IllegalStateException("writeValues() must be called first");
+        boolean timeWritten = false;
+        for (int i = 0; i < changes.getChangedCount(); i++) {
+            int node = changes.getChanged(i);
+            int net = netByNode[node];
+            if (net < 0 || written[net] == values[node]) continue;
+            if (!timeWritten) {
+                writeTime(time);
+                timeWritten = true;
+            }
+            writeValue(net, values[node]);
+        }
+    }
+
+    /**
+     * @return the latest time written, or -1 if nothing has been written yet.
+     */
+    public long getLastTime() {
+        return lastTime;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            channel.close();
+        }
+    }
+
+    private void writeTime(long time) throws IOException {
+        if (time <= lastTime) return; // VCD times must increase; merge into the previous time
+        lastTime = time;
+        ensureRoom();
+        buffer.put((byte) '#');
+        putDecimal(time);
+        buffer.put((byte) '\n');
+    }
+
+    private void writeValue(int net, boolean value) throws IOException {
+        written[net] = value;
+        ensureRoom();
+        buffer.put(value ? (byte) '1' : (byte) '0');
+        buffer.put(identifiers[net]);
+        buffer.put((byte) '\n');
+    }
+
+    private void putDecimal(long value) {
+        if (value == 0) {
+            buffer.put((byte) '0');
+            return;
+        }
+        long divisor = 1;
+        while (value / divisor >= 10) divisor *= 10;
+        for (; divisor > 0; divisor /= 10) {
+            buffer.put((byte) ('0' + (value / divisor) % 10));
+        }
+    }
+
+    private void writeAscii(CharSequence text) throws IOException {
+        byte[] bytes = text.toString().getBytes(StandardCharsets.US_ASCII);
+        int offset = 0;
+        while (offset < bytes.length) {
+            if (!buffer.hasRemaining()) flush();
+            int length = Math.min(buffer.remaining(), bytes.length - offset);
+            buffer.put(bytes, offset, length);
+            offset += length;
+        }
+    }
+
+    private void ensureRoom() throws IOException {
+        if (buffer.remaining() < MAX_RECORD) flush();
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) channel.write(buffer);
+        buffer.clear();
+    }
+
+    private static String uniqueName(String name, Set<String> used) {
+        String base = (name == null || name.isEmpty()) ? "net" : name.replaceAll("\\s", "_");
+        String unique = base;
+        for (int suffix = 2; !used.add(unique); suffix++) {
+            unique = base + "_" + suffix;
+        }
+        return unique;
+    }
+
+    // Base 94 identifier over '!'..'~', shortest first
+    private static byte[] identifier(int index) {
+        int length = 1;
+        for (long span = 94; index >= span; span *= 94) {
+            index -= (int) span;
+            length++;
+        }
+        byte[] id = new byte[length];
+        for (int i = length - 1; i >= 0; i--) {
+            id[i] = (byte) ('!' + index % 94);
+            index /= 94;
+        }
+        return id;
+    }
+}
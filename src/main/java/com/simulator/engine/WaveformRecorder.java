@@ -0,0 +1,179 @@
+package com.simulator.engine;
+
+import com.simulator.model.Gate;
+
+/**
+ * Records the history of a few nets, one bit per net per simulation step.
+ * Each net has a ring buffer of packed bits (64 steps per long), so recording a step costs
+ * one bit write per net and a long history of thousands of steps fits in a few kilobytes.
+ * Once the buffer is full the oldest steps are overwritten. Steps are identified by their index
+ * since the recording started; no time is stored per step.
+ * <p>
+ * A recorder is written by one thread only. Readers keep a copy of their own, which they bring up
+ * to date with the {@link Update}s taken from the recorder ({@link #updateSince(Update)}), so only
+ * the steps recorded since the reader's last update are copied.
+ */
+public final class WaveformRecorder {
+
+    private final WaveformRecorder source; // The recorder this is a copy of, or this
+    private final Gate[] gates;
+    private final int[] nodes;
+    private final int capacity; // A power of two, at least 64
+    private final long[][] bits; // [net][word]
+    private long firstStep = 0;  // Oldest step ever held; a copy may start part-way through a recording
+    private long stepCount = 0;
+
+    /**
+     * @param gates the traced gates; those not part of the netlist are skipped
+     * @param depth how many steps to keep (rounded up to a power of two, at least 64)
+     */
+    public WaveformRecorder(Netlist netlist, Gate[] gates, int depth) {
+        int count = 0;
+        for (Gate gate : gates) {
+            if (netlist.indexOf(gate) >= 0) count++;
+        }
+        this.source = this;
+        this.gates = new Gate[count];
+        this.nodes = new int[count];
+        count = 0;
+        for (Gate gate : gates) {
+            int node = netlist.indexOf(gate);
+            if (node < 0) continue;
+            this.gates[count] = gate;
+            this.nodes[count++] = node;
+        }
+
+        int size = 64;
+        while (size < depth && size < (1 << 30)) size <<= 1;
+        this.capacity = size;
+        this.bits = new long[count][size >>> 6];
+    }
+
+    // An empty copy, starting at the first step of the update
+    private WaveformRecorder(Update update) {
+        this.source = update.source;
+        this.gates = source.gates;
+        this.nodes = source.nodes;
+        this.capacity = source.capacity;
+        this.bits = new long[gates.length][capacity >>> 6];
+        this.firstStep = update.fromStep;
+        this.stepCount = update.fromStep;
+    }
+
+    /**
+     * Appends one step with the current value of every traced net.
+     */
+    public void record(boolean[] values) {
+        int slot = (int) (stepCount & (capacity - 1));
+        int word = slot >>> 6;
+        long mask = 1L << slot; // Shifts use the low 6 bits only
+        for (int net = 0; net < nodes.length; net++) {
+            if (values[nodes[net]]) bits[net][word] |= mask;
+            else bits[net][word] &= ~mask;
+        }
+        stepCount++;
+    }
+
+    /**
+     * Copies the steps a reader does not have yet.
+     *
+     * @param previous the last update the reader applied, or null if it has none of this recording
+     * @return the steps recorded after 'previous' (all steps held, if it belongs to another recording).
+     */
+    public Update updateSince(Update previous) {
+        long from = (previous != null && previous.source == this) ? previous.toStep : 0;
+        from = Math.max(from, stepCount - getSampleCount());
+        int count = (int) (stepCount - from);
+        long[][] packed = new long[nodes.length][(count + 63) >>> 6];
+        for (int net = 0; net < packed.length; net++) {
+            for (int i = 0; i < count; i++) {
+                int slot = (int) ((from + i) & (capacity - 1));
+                if ((bits[net][slot >>> 6] & (1L << slot)) != 0) packed[net][i >>> 6] |= 1L << i;
+            }
+        }
+        return new Update(this, from, stepCount, packed);
+    }
+
+    /**
+     * Brings a reader's copy up to date.
+     *
+     * @param copy the reader's copy, or null if it has none yet
+     * @return the copy with the update applied; a new copy if the update belongs to another recording
+     * or does not continue from the copy's last step.
+     */
+    public static WaveformRecorder apply(WaveformRecorder copy, Update update) {
+        if (copy == null || copy.source != update.source || update.fromStep > copy.stepCount) {
+            copy = new WaveformRecorder(update);
+        }
+        for (long step = copy.stepCount; step < update.toStep; step++) {
+            int i = (int) (step - update.fromStep);
+            int slot = (int) (step & (copy.capacity - 1));
+            long mask = 1L << slot;
+            for (int net = 0; net < copy.bits.length; net++) {
+                if ((update.bits[net][i >>> 6] & (1L << i)) != 0) copy.bits[net][slot >>> 6] |= mask;
+                else copy.bits[net][slot >>> 6] &= ~mask;
+            }
+        }
+        copy.stepCount = Math.max(copy.stepCount, update.toStep);
+        return copy;
+    }
+
+    public int getNetCount() {
+        return nodes.length;
+    }
+
+    public Gate getGate(int net) {
+        return gates[net];
+    }
+
+    /**
+     * @return the number of steps held (at most the depth).
+     */
+    public int getSampleCount() {
+        return (int) Math.min(stepCount - firstStep, capacity);
+    }
+
+    /**
+     * @return the total number of steps recorded, including those already overwritten.
+     */
+    public long getStepCount() {
+        return stepCount;
+    }
+
+    /**
+     * @param sample 0 for the oldest step held, getSampleCount() - 1 for the newest
+     */
+    public boolean getSample(int net, int sample) {
+        int slot = slotOf(sample);
+        return (bits[net][slot >>> 6] & (1L << slot)) != 0;
+    }
+
+    private int slotOf(int sample) {
+        long first = stepCount - getSampleCount();
+        return (int) ((first + sample) & (capacity - 1));
+    }
+
+    /**
+     * The steps [fromStep, toStep) of a recording, packed from bit 0. Immutable once created.
+     */
+    public static final class Update {
+        private final WaveformRecorder source;
+        private final long fromStep;
+        private final long toStep;
+        private final long[][] bits; // [net][word]
+
+        Update(WaveformRecorder source, long fromStep, long toStep, long[][] bits) {
+            this.source = source;
+            this.fromStep = fromStep;
+            this.toStep = toStep;
+            this.bits = bits;
+        }
+
+        /**
+         * @return false if no step was recorded since the update the reader had applied.
+         */
+        public boolean hasSteps() {
+            return toStep > fromStep;
+        }
+    }
+}
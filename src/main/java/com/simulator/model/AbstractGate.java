@@ -0,0 +1,74 @@
+package com.simulator.model;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Base class for gates that cache their output.
+ * Each gate keeps its last computed value and a dirty flag. Connecting an input registers
+ * this gate in the input's fan-out, so when a source changes every gate downstream of it is
+ * marked dirty, and getOutput() only recomputes gates that are actually dirty.
+ * <p>
+ * If a gate is reached again while its own output is being computed (a feedback loop),
+ * the inner call returns the previous value instead of recursing forever.
+ */
+public abstract class AbstractGate implements Gate {
+
+    // Gates that read this gate's output (may contain duplicates if both inputs share a source)
+    private final List<AbstractGate> fanout = new ArrayList<>();
+
+    private boolean cachedOutput = false;
+    private boolean dirty = true;
+    private boolean evaluating = false;
+
+    /**
+     * Computes the output from the current inputs. Called only when the cached value is stale.
+     */
+    protected abstract boolean computeOutput();
+
+    @Override
+    public boolean getOutput() {
+        if (dirty && !evaluating) {
+            evaluating = true;
+            try {
+                cachedOutput = computeOutput();
+            } finally {
+                evaluating = false;
+            }
+            dirty = false;
+        }
+        return cachedOutput;
+    }
+
+    /**
+     * Moves this gate from the fan-out of its old input to the fan-out of its new input,
+     * then marks it (and everything downstream) dirty.
+     */
+    protected final void rewire(Gate oldInput, Gate newInput) {
+        if (oldInput instanceof AbstractGate) ((AbstractGate) oldInput).fanout.remove(this);
+        if (newInput instanceof AbstractGate) ((AbstractGate) newInput).fanout.add(this);
+        invalidate();
+    }
+
+    /**
+     * Marks this gate and every gate downstream of it as dirty.
+     * A gate that is already dirty is skipped: everything downstream of it is dirty too,
+     * since a gate can only become clean after all of its inputs did.
+     */
+    protected final void invalidate() {
+        if (dirty) return;
+        dirty = true;
+        if (fanout.isEmpty()) return;
+
+        // Iterative walk, so long chains cannot overflow the stack
+        Deque<AbstractGate> pending = new ArrayDeque<>(fanout);
+        while (!pending.isEmpty()) {
+            AbstractGate gate = pending.pop();
+            if (gate.dirty) continue;
+            gate.dirty = true;
+            pending.addAll(gate.fanout);
+        }
+    }
+}
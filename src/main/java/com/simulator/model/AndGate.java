@@ -3,23 +3,35 @@ package com.simulator.model;
 /**
  * Implements a 2-input AND gate.
  */
-public class AndGate implements BinaryGate {
+public class AndGate extends AbstractGate implements BinaryGate {
 
     private Gate inputA = null;
     private Gate inputB = null;
 
     @Override
     public void setInputA(Gate inputA) {
+        rewire(this.inputA, inputA);
         this.inputA = inputA;
     }
 
     @Override
     public void setInputB(Gate inputB) {
+        rewire(this.inputB, inputB);
         this.inputB = inputB;
     }
 
     @Override
-    public boolean getOutput() {
+    public Gate getInputA() {
+        return inputA;
+    }
+
+    @Override
+    public Gate getInputB() {
+        return inputB;
+    }
+
+    @Override
+    protected boolean computeOutput() {
         // Get the state of both inputs, defaulting to false if not connected
         boolean stateA = (inputA != null) && inputA.getOutput();
         boolean stateB = (inputB != null) && inputB.getOutput();
@@ -17,4 +17,14 @@ public interface BinaryGate extends Gate {
      * @param inputB The gate providing the signal for input B.
      */
     void setInputB(Gate inputB);
+
+    /**
+     * @return the gate connected to input A, or null if unconnected.
+     */
+    Gate getInputA();
+
+    /**
+     * @return the gate connected to input B, or null if unconnected.
+     */
+    Gate getInputB();
 }
\ No newline at end of file
@@ -4,10 +4,15 @@ package com.simulator.model;
  * A logical clock gate. It's a source (like InputSwitch)
  * but its state will be toggled by a central timer in the app.
  * It implements Gate so it can be connected to other gates.
+ * Each clock has its own frequency and phase; the default toggles once per second.
  */
-public class ClockGate implements Gate {
+public class ClockGate extends AbstractGate {
+
+    public static final double DEFAULT_FREQUENCY = 0.5; // Hz (one full cycle every 2 seconds)
 
     private boolean state = false;
+    private long halfPeriodNanos = toHalfPeriod(DEFAULT_FREQUENCY);
+    private long phaseNanos = 0;
 
     /**
      * Toggles the internal state of the clock.
@@ -15,14 +20,59 @@ public class ClockGate implements Gate {
      */
     public void toggle() {
         this.state = !this.state;
+        invalidate();
+    }
+
+    /**
+     * Sets the state directly, e.g. to mirror a clock that is simulated elsewhere.
+     */
+    public void setState(boolean state) {
+        if (this.state == state) return;
+        this.state = state;
+        invalidate();
+    }
+
+    /**
+     * Sets how often the clock completes a full 0-1-0 cycle.
+     * @param hertz cycles per second, must be positive
+     */
+    public void setFrequency(double hertz) {
+        if (!(hertz > 0)) throw new IllegalArgumentException("Clock frequency must be positive: " + hertz);
+        this.halfPeriodNanos = toHalfPeriod(hertz);
+    }
+
+    public double getFrequency() {
+        return 1e9 / (2.0 * halfPeriodNanos);
+    }
+
+    /**
+     * @return the time between two toggles, in nanoseconds.
+     */
+    public long getHalfPeriodNanos() {
+        return halfPeriodNanos;
+    }
+
+    /**
+     * Delays every toggle of this clock by the given amount, to offset it from other clocks.
+     */
+    public void setPhaseNanos(long phaseNanos) {
+        if (phaseNanos < 0) throw new IllegalArgumentException("Clock phase must not be negative: " + phaseNanos);
+        this.phaseNanos = phaseNanos;
+    }
+
+    public long getPhaseNanos() {
+        return phaseNanos;
+    }
+
+    private static long toHalfPeriod(double hertz) {
+        return Math.max(1L, Math.round(1e9 / (2.0 * hertz)));
     }
 
     /**
-     * Required by the Gate interface.
      * @return the current state (0 or 1) of the clock.
      */
     @Override
-    public boolean getOutput() {
+    protected boolean computeOutput() {
         return this.state;
     }
 }
\ No newline at end of file
@@ -0,0 +1,197 @@
+package com.simulator.model;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * A custom gate simulated through its template's internal gates, for templates without a lookup table
+ * (sequential ones, or ones with too many inputs).
+ * <p>
+ * Instances are flyweights: the internal gates are built once per template into a shared, immutable
+ * {@link Definition}, and an instance holds only its input bindings and one small gate per output pin.
+ * The netlist compiler copies the template's compiled nodes into the netlist once per instance, so each
+ * instance still has its own signal values (and latch state) in the simulation.
+ */
+public class CompositeGate implements CustomGate {
+
+    private final Definition definition;
+    private final Gate[] inputs;
+    private final Output[] outputs;
+
+    public CompositeGate(Definition definition) {
+        this.definition = definition;
+        this.inputs = new Gate[definition.inputNames.length];
+        this.outputs = new Output[definition.outputNames.length];
+        for (int i = 0; i < outputs.length; i++) {
+            outputs[i] = new Output(i);
+        }
+    }
+
+    /**
+     * @return the structure shared by every instance of the template.
+     */
+    public Definition getDefinition() {
+        return definition;
+    }
+
+    @Override
+    public String getTemplateName() {
+        return definition.templateName;
+    }
+
+    @Override
+    public int getInputCount() {
+        return inputs.length;
+    }
+
+    @Override
+    public String getInputName(int index) {
+        return definition.inputNames[index];
+    }
+
+    @Override
+    public void setInput(int index, Gate input) {
+        for (Output output : outputs) {
+            output.rewire(inputs[index], input);
+        }
+        inputs[index] = input;
+    }
+
+    @Override
+    public Gate getInput(int index) {
+        return inputs[index];
+    }
+
+    @Override
+    public int getOutputCount() {
+        return outputs.length;
+    }
+
+    @Override
+    public String getOutputName(int index) {
+        return definition.outputNames[index];
+    }
+
+    @Override
+    public Output getOutputGate(int index) {
+        return outputs[index];
+    }
+
+    @Override
+    public boolean getOutput() {
+        return outputs.length > 0 && outputs[0].getOutput();
+    }
+
+    /**
+     * The internal gates of a template, shared by all its instances. The exposed inputs are
+     * {@link Port} placeholders; nothing may be rewired once the definition is built.
+     */
+    public static final class Definition {
+        private final String templateName;
+        private final String[] inputNames;
+        private final String[] outputNames;
+        private final Port[] ports;
+        private final Gate[] outputGates;
+        private final Map<String, Gate> internalGates;
+
+        /**
+         * @param ports         for each input pin, the placeholder every internal pin mapped to it reads
+         * @param outputGates   for each output pin, the internal gate that drives it
+         * @param internalGates every internal gate by its id in the template
+         */
+        public Definition(String templateName, String[] inputNames, String[] outputNames,
+                          Port[] ports, Gate[] outputGates, Map<String, Gate> internalGates) {
+            this.templateName = templateName;
+            this.inputNames = inputNames.clone();
+            this.outputNames = outputNames.clone();
+            this.ports = ports.clone();
+            this.outputGates = outputGates.clone();
+            this.internalGates = Collections.unmodifiableMap(internalGates);
+        }
+
+        public String getTemplateName() {
+            return templateName;
+        }
+
+        public int getInputCount() {
+            return ports.length;
+        }
+
+        public Port getPort(int index) {
+            return ports[index];
+        }
+
+        public int getOutputCount() {
+            return outputGates.length;
+        }
+
+        public Gate getOutputGate(int index) {
+            return outputGates[index];
+        }
+
+        /**
+         * @return every internal gate by its id in the template.
+         */
+        public Map<String, Gate> getInternalGates() {
+            return internalGates;
+        }
+
+        // Evaluates an output through the shared gates for one instance's inputs (model-side only;
+        // the simulation evaluates its own copy of the nodes). Loops start from the last evaluated state.
+        private synchronized boolean evaluate(Gate[] inputs, int output) {
+            // Read the inputs first: they may be outputs of another instance of this template
+            boolean[] values = new boolean[inputs.length];
+            for (int i = 0; i < inputs.length; i++) {
+                values[i] = inputs[i] != null && inputs[i].getOutput();
+            }
+            for (int i = 0; i < ports.length; i++) {
+                ports[i].setValue(values[i]);
+            }
+            return outputGates[output].getOutput();
+        }
+    }
+
+    /**
+     * Stands for one input pin inside a {@link Definition}. The compiler replaces it with the gate
+     * connected to that pin of each instance.
+     */
+    public static final class Port extends AbstractGate {
+        private boolean value;
+
+        private void setValue(boolean value) {
+            if (this.value == value) return;
+            this.value = value;
+            invalidate();
+        }
+
+        @Override
+        protected boolean computeOutput() {
+            return value;
+        }
+    }
+
+    /**
+     * One output pin. It is not a node of its own: the netlist maps it onto the instance's copy
+     * of the internal gate that drives it.
+     */
+    public final class Output extends AbstractGate {
+        private final int index;
+
+        private Output(int index) {
+            this.index = index;
+        }
+
+        public CompositeGate getOwner() {
+            return CompositeGate.this;
+        }
+
+        public int getIndex() {
+            return index;
+        }
+
+        @Override
+        protected boolean computeOutput() {
+            return definition.evaluate(inputs, index);
+        }
+    }
+}
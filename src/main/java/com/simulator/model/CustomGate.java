@@ -0,0 +1,46 @@
+package com.simulator.model;
+
+/**
+ * An instance of a custom gate template, placed as a single component with named pins.
+ * Unlike the built-in gates it can have several outputs, so every output pin is a separate
+ * {@link Gate} (see {@link #getOutputGate(int)}); wires leaving the component connect to those.
+ * {@link #getOutput()} reports the first output.
+ */
+public interface CustomGate extends Gate {
+
+    /**
+     * @return the name of the template this component was created from.
+     */
+    String getTemplateName();
+
+    int getInputCount();
+
+    /**
+     * @return the exposed name of an input pin, e.g. "In-1".
+     */
+    String getInputName(int index);
+
+    /**
+     * Connects a source gate to an input pin.
+     *
+     * @param input The gate providing the signal, or null to disconnect.
+     */
+    void setInput(int index, Gate input);
+
+    /**
+     * @return the gate connected to an input pin, or null if unconnected.
+     */
+    Gate getInput(int index);
+
+    int getOutputCount();
+
+    /**
+     * @return the exposed name of an output pin, e.g. "Out-1".
+     */
+    String getOutputName(int index);
+
+    /**
+     * @return the gate whose output is the given output pin.
+     */
+    Gate getOutputGate(int index);
+}
@@ -6,7 +6,8 @@ package com.simulator.model;
 public interface Gate {
     /**
      * Computes and returns the output state of this gate.
-     * This method will recursively pull outputs from its inputs.
+     * This method will recursively pull outputs from its inputs
+     * (gates extending AbstractGate return a cached value while their inputs are unchanged).
      *
      * @return true for HIGH (1), false for LOW (0)
      */
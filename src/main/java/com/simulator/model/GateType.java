@@ -0,0 +1,78 @@
+package com.simulator.model;
+
+import java.util.function.Supplier;
+
+/**
+ * The built-in component types.
+ * The constant names are the type identifiers used by the palette and in saved files (e.g. "AND_GATE").
+ * Each type also has a fixed numeric code stored in compact circuit files: a new type takes the next
+ * unused code below 255, and a code is never changed or reused, whatever the order of the constants.
+ */
+public enum GateType {
+    SWITCH(0, "SWITCH", InputSwitch::new),
+    CLOCK_GATE(1, "CLOCK", ClockGate::new),
+    PROBE(2, "PROBE", OutputProbe::new),
+    AND_GATE(3, "AND", AndGate::new),
+    OR_GATE(4, "OR", OrGate::new),
+    NOT_GATE(5, "NOT", NotGate::new),
+    NAND_GATE(6, "NAND", NandGate::new),
+    NOR_GATE(7, "NOR", NorGate::new),
+    XOR_GATE(8, "XOR", XorGate::new),
+    XNOR_GATE(9, "XNOR", XnorGate::new);
+
+    private final int code;
+    private final String baseLabel;
+    private final Supplier<Gate> factory;
+
+    GateType(int code, String baseLabel, Supplier<Gate> factory) {
+        this.code = code;
+        this.baseLabel = baseLabel;
+        this.factory = factory;
+    }
+
+    /**
+     * @return the code stored for this type in compact circuit files.
+     */
+    public int getCode() {
+        return code;
+    }
+
+    /**
+     * @return the label shown on the component, e.g. "AND".
+     */
+    public String getBaseLabel() {
+        return baseLabel;
+    }
+
+    /**
+     * Creates a new, unconnected model gate of this type.
+     */
+    public Gate createModel() {
+        return factory.get();
+    }
+
+    /**
+     * Looks up a type by its identifier.
+     *
+     * @return the type, or null if the identifier is unknown.
+     */
+    public static GateType fromId(String id) {
+        if (id == null) return null;
+        for (GateType type : values()) {
+            if (type.name().equals(id)) return type;
+        }
+        return null;
+    }
+
+    /**
+     * Looks up a type by its code in compact circuit files.
+     *
+     * @return the type, or null if the code is unknown.
+     */
+    public static GateType fromCode(int code) {
+        for (GateType type : values()) {
+            if (type.code == code) return type;
+        }
+        return null;
+    }
+}
@@ -4,7 +4,7 @@ package com.simulator.model;
  * A controllable input source (like a switch or a power rail).
  * It implements Gate so it can be "plugged into" other gates.
  */
-public class InputSwitch implements Gate {
+public class InputSwitch extends AbstractGate {
 
     private boolean state = false;
 
@@ -13,11 +13,13 @@ public class InputSwitch implements Gate {
      * @param state true for ON (1), false for OFF (0)
      */
     public void setState(boolean state) {
+        if (this.state == state) return;
         this.state = state;
+        invalidate();
     }
 
     @Override
-    public boolean getOutput() {
+    protected boolean computeOutput() {
         return this.state;
     }
 }
\ No newline at end of file
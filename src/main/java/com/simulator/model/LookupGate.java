@@ -0,0 +1,131 @@
+package com.simulator.model;
+
+/**
+ * A combinational custom gate evaluated from a precomputed lookup table instead of its internal gates.
+ * Row i of the table holds the outputs (bit j = output j) for the input pattern i (bit k = input k),
+ * so evaluating an output is a single array read however many gates the template contains.
+ * The table is shared by every instance of a template and must not be modified.
+ */
+public class LookupGate implements CustomGate {
+
+    /** Largest number of inputs a table is built for (2^16 rows). */
+    public static final int MAX_INPUTS = 16;
+    /** Largest number of outputs a table row can hold. */
+    public static final int MAX_OUTPUTS = 64;
+
+    private final String templateName;
+    private final String[] inputNames;
+    private final String[] outputNames;
+    private final long[] table;
+    private final Gate[] inputs;
+    private final Output[] outputs;
+
+    public LookupGate(String templateName, String[] inputNames, String[] outputNames, long[] table) {
+        if (inputNames.length > MAX_INPUTS || outputNames.length > MAX_OUTPUTS) {
+            throw new IllegalArgumentException("Too many pins for a lookup table: " + templateName);
+        }
+        if (table.length != 1 << inputNames.length) {
+            throw new IllegalArgumentException("Lookup table of " + templateName + " has " + table.length
+                    + " rows, expected " + (1 << inputNames.length));
+        }
+        this.templateName = templateName;
+        this.inputNames = inputNames.clone();
+        this.outputNames = outputNames.clone();
+        this.table = table;
+        this.inputs = new Gate[inputNames.length];
+        this.outputs = new Output[outputNames.length];
+        for (int i = 0; i < outputs.length; i++) {
+            outputs[i] = new Output(i);
+        }
+    }
+
+    /**
+     * @return the shared table rows. Must not be modified.
+     */
+    public long[] getTable() {
+        return table;
+    }
+
+    /**
+     * @return the table row for the current input values.
+     */
+    private int currentRow() {
+        int row = 0;
+        for (int i = 0; i < inputs.length; i++) {
+            if (inputs[i] != null && inputs[i].getOutput()) row |= 1 << i;
+        }
+        return row;
+    }
+
+    @Override
+    public String getTemplateName() {
+        return templateName;
+    }
+
+    @Override
+    public int getInputCount() {
+        return inputs.length;
+    }
+
+    @Override
+    public String getInputName(int index) {
+        return inputNames[index];
+    }
+
+    @Override
+    public void setInput(int index, Gate input) {
+        for (Output output : outputs) {
+            output.rewire(inputs[index], input);
+        }
+        inputs[index] = input;
+    }
+
+    @Override
+    public Gate getInput(int index) {
+        return inputs[index];
+    }
+
+    @Override
+    public int getOutputCount() {
+        return outputs.length;
+    }
+
+    @Override
+    public String getOutputName(int index) {
+        return outputNames[index];
+    }
+
+    @Override
+    public Output getOutputGate(int index) {
+        return outputs[index];
+    }
+
+    @Override
+    public boolean getOutput() {
+        return outputs.length > 0 && outputs[0].getOutput();
+    }
+
+    /**
+     * One output pin: bit 'bit' of the current table row.
+     */
+    public final class Output extends AbstractGate {
+        private final int bit;
+
+        private Output(int bit) {
+            this.bit = bit;
+        }
+
+        public LookupGate getOwner() {
+            return LookupGate.this;
+        }
+
+        public int getBit() {
+            return bit;
+        }
+
+        @Override
+        protected boolean computeOutput() {
+            return ((table[currentRow()] >>> bit) & 1) != 0;
+        }
+    }
+}
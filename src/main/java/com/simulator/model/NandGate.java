@@ -2,38 +2,42 @@ package com.simulator.model;
 
 /**
  * Implements a 2-input NAND gate.
- * It "is a" BinaryGate, but "has a" AndGate and a NotGate.
+ * Evaluated directly as NOT (A AND B), reading each input once.
  */
-public class NandGate implements BinaryGate {
+public class NandGate extends AbstractGate implements BinaryGate {
 
-    // Internal gates (Encapsulation)
-    private final AndGate andGate;
-    private final NotGate notGate;
+    private Gate inputA = null;
+    private Gate inputB = null;
 
-    public NandGate() {
-        // Create the internal gates
-        this.andGate = new AndGate();
-        this.notGate = new NotGate();
+    @Override
+    public void setInputA(Gate inputA) {
+        rewire(this.inputA, inputA);
+        this.inputA = inputA;
+    }
 
-        // Wire them together: The output of AND goes into the input of NOT
-        this.notGate.setInput(this.andGate);
+    @Override
+    public void setInputB(Gate inputB) {
+        rewire(this.inputB, inputB);
+        this.inputB = inputB;
     }
 
     @Override
-    public void setInputA(Gate inputA) {
-        // Pass the input down to the internal AND gate
-        this.andGate.setInputA(inputA);
+    public Gate getInputA() {
+        return inputA;
     }
 
     @Override
-    public void setInputB(Gate inputB) {
-        // Pass the input down to the internal AND gate
-        this.andGate.setInputB(inputB);
+    public Gate getInputB() {
+        return inputB;
     }
 
     @Override
-    public boolean getOutput() {
-        // The final output is the output of the internal NOT gate
-        return this.notGate.getOutput();
+    protected boolean computeOutput() {
+        // Get the state of both inputs, defaulting to false if not connected
+        boolean stateA = (inputA != null) && inputA.getOutput();
+        boolean stateB = (inputB != null) && inputB.getOutput();
+
+        // The core logic: A NAND B
+        return !(stateA && stateB);
     }
 }
\ No newline at end of file
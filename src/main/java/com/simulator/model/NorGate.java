@@ -1,35 +1,43 @@
 package com.simulator.model;
 
 /**
- * Implements a 2-input NOR gate using composition (OR + NOT).
+ * Implements a 2-input NOR gate.
+ * Evaluated directly as NOT (A OR B), reading each input once.
  */
-public class NorGate implements BinaryGate {
+public class NorGate extends AbstractGate implements BinaryGate {
 
-    // Encapsulated internal gates
-    private final OrGate orGate;
-    private final NotGate notGate;
+    private Gate inputA = null;
+    private Gate inputB = null;
 
-    public NorGate() {
-        this.orGate = new OrGate();
-        this.notGate = new NotGate();
+    @Override
+    public void setInputA(Gate inputA) {
+        rewire(this.inputA, inputA);
+        this.inputA = inputA;
+    }
 
-        // Wire them together: OR -> NOT
-        this.notGate.setInput(this.orGate);
+    @Override
+    public void setInputB(Gate inputB) {
+        rewire(this.inputB, inputB);
+        this.inputB = inputB;
     }
 
     @Override
-    public void setInputA(Gate inputA) {
-        this.orGate.setInputA(inputA);
+    public Gate getInputA() {
+        return inputA;
     }
 
     @Override
-    public void setInputB(Gate inputB) {
-        this.orGate.setInputB(inputB);
+    public Gate getInputB() {
+        return inputB;
     }
 
     @Override
-    public boolean getOutput() {
-        // Get the output from the final gate in the chain
-        return this.notGate.getOutput();
+    protected boolean computeOutput() {
+        // Get the state of both inputs, defaulting to false if not connected
+        boolean stateA = (inputA != null) && inputA.getOutput();
+        boolean stateB = (inputB != null) && inputB.getOutput();
+
+        // The core logic: A NOR B
+        return !(stateA || stateB);
     }
 }
\ No newline at end of file
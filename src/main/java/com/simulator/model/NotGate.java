@@ -4,17 +4,23 @@ package com.simulator.model;
  * Implements a NOT gate (Inverter).
  * This is a concrete implementation of the UnaryGate interface.
  */
-public class NotGate implements UnaryGate {
+public class NotGate extends AbstractGate implements UnaryGate {
 
     private Gate input = null;
 
     @Override
     public void setInput(Gate input) {
+        rewire(this.input, input);
         this.input = input;
     }
 
     @Override
-    public boolean getOutput() {
+    public Gate getInput() {
+        return input;
+    }
+
+    @Override
+    protected boolean computeOutput() {
         // Handle the case of an unconnected input (default to LOW/false)
         if (input == null) {
             return true; // NOT(false) is true
@@ -4,23 +4,35 @@ package com.simulator.model;
  * Implements a 2-input OR gate.
  * This is a concrete implementation of the BinaryGate interface.
  */
-public class OrGate implements BinaryGate {
+public class OrGate extends AbstractGate implements BinaryGate {
 
     private Gate inputA = null;
     private Gate inputB = null;
 
     @Override
     public void setInputA(Gate inputA) {
+        rewire(this.inputA, inputA);
         this.inputA = inputA;
     }
 
     @Override
     public void setInputB(Gate inputB) {
+        rewire(this.inputB, inputB);
         this.inputB = inputB;
     }
 
     @Override
-    public boolean getOutput() {
+    public Gate getInputA() {
+        return inputA;
+    }
+
+    @Override
+    public Gate getInputB() {
+        return inputB;
+    }
+
+    @Override
+    protected boolean computeOutput() {
         // Get the state of both inputs, defaulting to false if unconnected
         boolean stateA = (inputA != null) && inputA.getOutput();
         boolean stateB = (inputB != null) && inputB.getOutput();
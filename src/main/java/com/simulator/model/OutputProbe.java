@@ -5,33 +5,38 @@ package com.simulator.model;
  * We implement UnaryGate so it can be "plugged into"
  * our system just like any other gate.
  */
-public class OutputProbe implements UnaryGate {
+public class OutputProbe extends AbstractGate implements UnaryGate {
 
     private Gate input = null;
 
     @Override
     public void setInput(Gate input) {
+        rewire(this.input, input);
         this.input = input;
     }
 
+    @Override
+    public Gate getInput() {
+        return input;
+    }
+
     /**
      * This is the method our ProbeView will call to get the state.
      */
     public boolean getResult() {
-        if (input == null) {
-            return false;
-        }
-        // Recursively pull the value from the entire circuit
-        return input.getOutput();
+        return getOutput();
     }
 
     /**
-     * Required by the Gate interface.
      * For a probe, its "output" is just its "input".
      * This allows a probe to be chained (though not typical).
      */
     @Override
-    public boolean getOutput() {
-        return getResult();
+    protected boolean computeOutput() {
+        if (input == null) {
+            return false;
+        }
+        // Pull the value from the circuit (cached gates upstream make this cheap)
+        return input.getOutput();
     }
 }
\ No newline at end of file
@@ -0,0 +1,62 @@
+package com.simulator.model;
+
+/**
+ * Connects gates by pin name, the same way for every kind of gate.
+ * Built-in gates have the inputs "A" and "B" (a unary gate only "A") and the output "OUT";
+ * custom gates use the exposed names of their template (e.g. "In-1", "Out-2").
+ */
+public final class Pins {
+
+    public static final String A = "A";
+    public static final String B = "B";
+    public static final String OUT = "OUT";
+
+    private Pins() {
+    }
+
+    /**
+     * Connects a source to an input pin of a gate.
+     *
+     * @param source the gate providing the signal, or null to disconnect
+     * @return false if the gate has no input with that name.
+     */
+    public static boolean connect(Gate gate, String pin, Gate source) {
+        if (gate instanceof BinaryGate) {
+            if (B.equals(pin)) ((BinaryGate) gate).setInputB(source);
+            else if (A.equals(pin)) ((BinaryGate) gate).setInputA(source);
+            else return false;
+            return true;
+        }
+        if (gate instanceof UnaryGate) {
+            if (!A.equals(pin)) return false;
+            ((UnaryGate) gate).setInput(source);
+            return true;
+        }
+        if (gate instanceof CustomGate) {
+            CustomGate custom = (CustomGate) gate;
+            for (int i = 0; i < custom.getInputCount(); i++) {
+                if (custom.getInputName(i).equals(pin)) {
+                    custom.setInput(i, source);
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param pin an output name, or null for the only output of a built-in gate
+     * @return the gate whose output is the given output pin, or null if there is no such pin.
+     */
+    public static Gate output(Gate gate, String pin) {
+        if (gate instanceof CustomGate) {
+            CustomGate custom = (CustomGate) gate;
+            for (int i = 0; i < custom.getOutputCount(); i++) {
+                if (custom.getOutputName(i).equals(pin)) return custom.getOutputGate(i);
+            }
+            return null;
+        }
+        if (gate instanceof OutputProbe) return null;
+        return (pin == null || OUT.equals(pin)) ? gate : null;
+    }
+}
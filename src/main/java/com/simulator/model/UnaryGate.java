@@ -10,4 +10,9 @@ public interface UnaryGate extends Gate {
      * @param input The gate providing the input signal.
      */
     void setInput(Gate input);
+
+    /**
+     * @return the gate connected to this gate's input, or null if unconnected.
+     */
+    Gate getInput();
 }
\ No newline at end of file
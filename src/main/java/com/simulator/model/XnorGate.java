@@ -1,34 +1,43 @@
 package com.simulator.model;
 
 /**
- * Implements a 2-input XNOR gate using composition (XOR + NOT).
+ * Implements a 2-input XNOR gate.
+ * Evaluated directly as NOT (A XOR B), reading each input once.
  */
-public class XnorGate implements BinaryGate {
+public class XnorGate extends AbstractGate implements BinaryGate {
 
-    // Encapsulated internal gates
-    private final XorGate xorGate;
-    private final NotGate notGate;
+    private Gate inputA = null;
+    private Gate inputB = null;
 
-    public XnorGate() {
-        this.xorGate = new XorGate();
-        this.notGate = new NotGate();
+    @Override
+    public void setInputA(Gate inputA) {
+        rewire(this.inputA, inputA);
+        this.inputA = inputA;
+    }
 
-        // Wire them together: XOR -> NOT
-        this.notGate.setInput(this.xorGate);
+    @Override
+    public void setInputB(Gate inputB) {
+        rewire(this.inputB, inputB);
+        this.inputB = inputB;
     }
 
     @Override
-    public void setInputA(Gate inputA) {
-        this.xorGate.setInputA(inputA);
+    public Gate getInputA() {
+        return inputA;
     }
 
     @Override
-    public void setInputB(Gate inputB) {
-        this.xorGate.setInputB(inputB);
+    public Gate getInputB() {
+        return inputB;
     }
 
     @Override
-    public boolean getOutput() {
-        return this.notGate.getOutput();
+    protected boolean computeOutput() {
+        // Get the state of both inputs, defaulting to false if not connected
+        boolean stateA = (inputA != null) && inputA.getOutput();
+        boolean stateB = (inputB != null) && inputB.getOutput();
+
+        // The core logic: A XNOR B
+        return !(stateA ^ stateB);
     }
 }
\ No newline at end of file
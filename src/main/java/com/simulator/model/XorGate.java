@@ -1,57 +1,43 @@
 package com.simulator.model;
 
 /**
- * Implements a 2-input XOR gate using composition.
- * Logic: (A AND (NOT B)) OR ((NOT A) AND B)
+ * Implements a 2-input XOR gate.
+ * Evaluated directly as a single primitive, reading each input once.
  */
-public class XorGate implements BinaryGate {
-
-    // Encapsulated internal gates
-    private final NotGate notA;
-    private final NotGate notB;
-    private final AndGate and1; // (NOT A) AND B
-    private final AndGate and2; // A AND (NOT B)
-    private final OrGate finalOr;
-
-    public XorGate() {
-        // Create all the necessary internal gates
-        this.notA = new NotGate();
-        this.notB = new NotGate();
-        this.and1 = new AndGate();
-        this.and2 = new AndGate();
-        this.finalOr = new OrGate();
-
-        // Wire them up according to the logic
-        // (NOT A) -> and1
-        this.and1.setInputA(notA);
-
-        // A -> and2
-        // B -> and1
-        // (NOT B) -> and2
-        this.and2.setInputB(notB);
-
-        // Connect the outputs of the two AND gates to the final OR gate
-        this.finalOr.setInputA(and1);
-        this.finalOr.setInputB(and2);
-    }
+public class XorGate extends AbstractGate implements BinaryGate {
+
+    private Gate inputA = null;
+    private Gate inputB = null;
 
     @Override
     public void setInputA(Gate inputA) {
-        // Input A feeds two internal gates
-        this.notA.setInput(inputA);
-        this.and2.setInputA(inputA);
+        rewire(this.inputA, inputA);
+        this.inputA = inputA;
     }
 
     @Override
     public void setInputB(Gate inputB) {
-        // Input B feeds two internal gates
-        this.notB.setInput(inputB);
-        this.and1.setInputB(inputB);
+        rewire(this.inputB, inputB);
+        this.inputB = inputB;
+    }
+
+    @Override
+    public Gate getInputA() {
+        return inputA;
     }
 
     @Override
-    public boolean getOutput() {
-        // The final output is from the OR gate
-        return this.finalOr.getOutput();
+    public Gate getInputB() {
+        return inputB;
+    }
+
+    @Override
+    protected boolean computeOutput() {
+        // Get the state of both inputs, defaulting to false if not connected
+        boolean stateA = (inputA != null) && inputA.getOutput();
+        boolean stateB = (inputB != null) && inputB.getOutput();
+
+        // The core logic: A XOR B
+        return stateA ^ stateB;
     }
 }
\ No newline at end of file
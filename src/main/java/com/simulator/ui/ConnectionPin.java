@@ -18,6 +18,7 @@ public class ConnectionPin extends Circle {
     }
 
     private final PinType type;
+    private final String name; // "A", "B", "OUT", or the exposed name of a custom gate pin
     private final GateView parentGateView; // The GateView this pin belongs to
     private final SimulatorApp app; // Reference to the main app to call onPinClicked
     private boolean isConnected = false;
@@ -26,12 +27,14 @@ public class ConnectionPin extends Circle {
      * Creates a new ConnectionPin.
      *
      * @param type           Whether this is an INPUT or OUTPUT pin.
+     * @param name           The pin name the model knows it by (see Pins).
      * @param parentGateView The GateView this pin is part of.
      * @param app            The main SimulatorApp instance for event handling.
      */
-    public ConnectionPin(PinType type, GateView parentGateView, SimulatorApp app) {
+    public ConnectionPin(PinType type, String name, GateView parentGateView, SimulatorApp app) {
         super(8); // Create a circle with a radius of 8
         this.type = type;
+        this.name = name;
         this.parentGateView = parentGateView;
         this.app = app;
 
@@ -67,6 +70,10 @@ public class ConnectionPin extends Circle {
         return type;
     }
 
+    public String getName() {
+        return name;
+    }
+
     /**
      * Gets the GateView that this pin is attached to.
      *
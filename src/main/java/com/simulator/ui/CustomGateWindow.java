@@ -0,0 +1,125 @@
+package com.simulator.ui;
+
+import com.simulator.data.CustomGateTemplate;
+import com.simulator.data.GateSaveData;
+import com.simulator.data.PinMapping;
+import com.simulator.data.WireSaveData;
+import com.simulator.model.CompositeGate;
+import com.simulator.model.CustomGate;
+import com.simulator.model.Gate;
+import com.simulator.model.GateType;
+import javafx.scene.Scene;
+import javafx.scene.control.Label;
+import javafx.scene.control.ScrollPane;
+import javafx.scene.layout.Pane;
+import javafx.scene.paint.Color;
+import javafx.scene.text.Font;
+import javafx.stage.Stage;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A read-only window showing the inside of one custom gate instance, laid out as in its template.
+ * The views show live values (the SimulationManager updates them like workspace views while the
+ * window is open); nested custom gates can be opened in turn by double-clicking them.
+ */
+public class CustomGateWindow extends Stage {
+
+    private static final double MARGIN = 60;
+
+    private final List<GateView> views = new ArrayList<>();
+    private final List<CompositeGate> path;
+
+    /**
+     * @param owner     the view of the instance being opened
+     * @param internals the internal model gates to show, by their id in the template
+     * @param path      the instances leading to these gates (see {@link #getPath()}), or null if no values are shown
+     */
+    public CustomGateWindow(SimulatorApp app, GateView owner, CustomGateTemplate template, Map<String, Gate> internals,
+                            List<CompositeGate> path) {
+        this.path = path;
+        Pane content = new Pane();
+        content.setStyle("-fx-background-color: white;");
+
+        double baseX = Double.MAX_VALUE, baseY = Double.MAX_VALUE;
+        for (GateSaveData d : template.getInternalGates()) {
+            baseX = Math.min(baseX, d.getX());
+            baseY = Math.min(baseY, d.getY());
+        }
+
+        // 1. Internal gates, positioned as they were when bundled
+        Map<String, GateView> viewsById = new HashMap<>();
+        for (GateSaveData d : template.getInternalGates()) {
+            Gate model = internals.get(d.getId());
+            if (model == null) continue; // The template changed since this instance was created
+            String gateType = d.getGateType();
+            String baseLabel = gateType.startsWith("CUSTOM:") ? gateType.substring("CUSTOM:".length())
+                    : GateType.fromId(gateType).getBaseLabel();
+            GateView view = new GateView(model, baseLabel, app, gateType, d.getId());
+            if (d.getCustomLabel() != null) view.setCustomLabel(d.getCustomLabel());
+            view.setLayoutX(d.getX() - baseX + MARGIN);
+            view.setLayoutY(d.getY() - baseY + MARGIN);
+            view.setReadOnly();
+            content.getChildren().add(view);
+            views.add(view);
+            viewsById.put(d.getId(), view);
+        }
+
+        // 2. Internal wires
+        for (WireSaveData d : template.getInternalWires()) {
+            GateView startView = viewsById.get(d.getStartGateId());
+            GateView endView = viewsById.get(d.getEndGateId());
+            if (startView == null || endView == null) continue;
+            ConnectionPin startPin = startView.getOutputPin(d.getStartPinName());
+            ConnectionPin endPin = endView.getInputPin(d.getEndPinType());
+            if (startPin == null || endPin == null) continue;
+            Wire wire = new Wire(startPin, endPin);
+            wire.setMouseTransparent(true);
+            content.getChildren().add(0, wire); // Behind the gates
+        }
+
+        // 3. Exposed pin names next to the internal pins they map to
+        for (PinMapping mapping : template.getMappings()) {
+            GateView view = viewsById.get(mapping.getInternalGateId());
+            if (view == null) continue;
+            boolean input = "IN".equals(mapping.getDirection());
+            ConnectionPin pin = input ? view.getInputPin(mapping.getInternalPinType())
+                    : view.getOutputPin(view.getGateModel() instanceof CustomGate ? mapping.getInternalPinType() : null);
+            if (pin == null) continue;
+            Label name = new Label(mapping.getExposedName());
+            name.setFont(new Font("Arial", 11));
+            name.setTextFill(Color.DODGERBLUE);
+            name.setLayoutX(view.getLayoutX() + pin.getLayoutX() + (input ? -50 : 12));
+            name.setLayoutY(view.getLayoutY() + pin.getLayoutY() - 8);
+            name.setMouseTransparent(true);
+            content.getChildren().add(name);
+        }
+
+        setTitle(template.getGateName() + " (" + owner.getLabelText() + ")");
+        setScene(new Scene(new ScrollPane(content), 800, 600));
+
+        // Close with the instance (deleted, or the workspace cleared)
+        owner.sceneProperty().addListener((obs, was, now) -> {
+            if (now == null) close();
+        });
+    }
+
+    /**
+     * @return the CompositeGate instances from the workspace down to the one shown, whose shared template
+     * gates the views display; empty if the views show gates of their own, null if they show no values.
+     */
+    public List<CompositeGate> getPath() {
+        return path;
+    }
+
+    /**
+     * @return the views of the internal gates.
+     */
+    public List<GateView> getViews() {
+        return Collections.unmodifiableList(views);
+    }
+}
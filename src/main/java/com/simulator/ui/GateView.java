@@ -1,11 +1,20 @@
 package com.simulator.ui;
 
 import com.simulator.model.*;
+import javafx.event.Event;
 import javafx.scene.Cursor;
+import javafx.scene.control.Alert;
+import javafx.scene.control.ButtonType;
+import javafx.scene.control.ContextMenu;
+import javafx.scene.control.Dialog;
 import javafx.scene.control.Label;
+import javafx.scene.control.MenuItem;
+import javafx.scene.control.TextField;
 import javafx.scene.control.TextInputDialog;
+import javafx.scene.control.Tooltip;
 import javafx.scene.effect.DropShadow;
 import javafx.scene.effect.Effect;
+import javafx.scene.layout.GridPane;
 import javafx.scene.layout.Pane;
 import javafx.scene.paint.Color;
 import javafx.scene.shape.Circle;
@@ -13,6 +22,9 @@ import javafx.scene.shape.Rectangle;
 import javafx.scene.shape.Shape;
 import javafx.scene.text.Font;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
 
@@ -28,10 +40,12 @@ public class GateView extends Pane {
     private final Label label;
     private double offsetX;
     private double offsetY;
+    private boolean dragged = false; // Moved since the mouse was pressed
 
     public static final double GATE_WIDTH = 80;
     public static final double GATE_HEIGHT = 50;
     public static final double PROBE_RADIUS = 25;
+    public static final double PIN_SPACING = 20; // Between the pins of a custom gate
 
     // Fields for Labels and Connections
     private final String gateType;
@@ -41,6 +55,16 @@ public class GateView extends Pane {
     private ConnectionPin pinOut = null;
     private ConnectionPin pinInA = null;
     private ConnectionPin pinInB = null;
+    private final List<ConnectionPin> inputPins = new ArrayList<>();
+    private final List<ConnectionPin> outputPins = new ArrayList<>();
+
+    // Precomputed rendering for the two signal states, so a repaint only swaps references
+    private final Color offFill;
+    private final Color onFill;
+    private String offText;
+    private String onText;
+    private boolean renderedState;
+    private boolean rendered = false;
 
     private static final Effect selectedEffect = new DropShadow(20, Color.DODGERBLUE);
 
@@ -79,19 +103,35 @@ public class GateView extends Pane {
             this.label.setLayoutY(0);
 
         } else {
-            this.body = new Rectangle(GATE_WIDTH, GATE_HEIGHT);
+            double height = getBodyHeight();
+            this.body = new Rectangle(GATE_WIDTH, height);
             this.body.setFill(Color.WHITE);
             this.body.setStroke(Color.BLACK);
             this.body.setStrokeWidth(2);
             this.body.setLayoutX(0);
             this.body.setLayoutY(0);
             this.label.setMinWidth(GATE_WIDTH);
-            this.label.setMinHeight(GATE_HEIGHT);
+            this.label.setMinHeight(height);
             this.label.setAlignment(javafx.geometry.Pos.CENTER);
             this.label.setLayoutX(0);
             this.label.setLayoutY(0);
         }
 
+        if (gateModel instanceof OutputProbe) {
+            this.offFill = Color.DARKRED;
+            this.onFill = Color.LIME;
+        } else if (gateModel instanceof InputSwitch) {
+            this.offFill = Color.WHITE;
+            this.onFill = Color.LIGHTYELLOW;
+        } else if (gateModel instanceof ClockGate) {
+            this.offFill = Color.WHITE;
+            this.onFill = Color.LIGHTCYAN; // Use a different color for clocks
+        } else {
+            this.offFill = Color.WHITE;
+            this.onFill = Color.WHITE;
+        }
+        buildLabelTexts();
+
         this.getChildren().addAll(body, label);
         createPins();
         setupEventHandlers();
@@ -99,93 +139,114 @@ public class GateView extends Pane {
     }
 
     /**
-     * Updates the UI state (color and label) based on the model.
+     * Updates the UI state (color and label) by pulling the value from the model.
      */
     public void update() {
-        if (gateModel instanceof OutputProbe) {
-            OutputProbe probeModel = (OutputProbe) gateModel;
-            boolean result = probeModel.getResult();
-            if (result) {
-                body.setFill(Color.LIME);
-            } else {
-                body.setFill(Color.DARKRED);
-            }
-        } else if (gateModel instanceof InputSwitch) {
-            InputSwitch switchModel = (InputSwitch) gateModel;
-            boolean state = switchModel.getOutput();
-            if (state) {
-                ((Rectangle) body).setFill(Color.LIGHTYELLOW);
-            } else {
-                ((Rectangle) body).setFill(Color.WHITE);
-            }
-        } else if (gateModel instanceof ClockGate) {
-            ClockGate clockModel = (ClockGate) gateModel;
-            boolean state = clockModel.getOutput();
-            if (state) {
-                ((Rectangle) body).setFill(Color.LIGHTCYAN); // Use a different color for clocks
-            } else {
-                ((Rectangle) body).setFill(Color.WHITE);
-            }
-        }
+        update(gateModel.getOutput());
+    }
+
+    /**
+     * Updates the UI state (color and label) from an already computed output value.
+     * Used by the SimulationManager, which evaluates the whole circuit in one pass.
+     * Does nothing if the view already shows this state.
+     */
+    public void update(boolean state) {
+        if (rendered && state == renderedState) return;
+        rendered = true;
+        renderedState = state;
 
-        updateLabelText();
+        body.setFill(state ? onFill : offFill);
+        label.setText(state ? onText : offText);
     }
 
     /**
-     * Combines the custom label, base label, and state into the UI label.
+     * Combines the custom label, base label, and state into the two possible UI labels.
      */
-    private void updateLabelText() {
-        String stateText = "";
-        if (gateModel instanceof InputSwitch) {
-            stateText = ((InputSwitch) gateModel).getOutput() ? ": 1" : ": 0";
-        }
-        else if (gateModel instanceof ClockGate) {
-            stateText = ((ClockGate) gateModel).getOutput() ? ": 1" : ": 0";
-        }
+    private void buildLabelTexts() {
+        boolean hasState = gateModel instanceof InputSwitch || gateModel instanceof ClockGate;
+        offText = composeLabel(hasState ? ": 0" : "");
+        onText = hasState ? composeLabel(": 1") : offText;
+    }
 
+    private String composeLabel(String stateText) {
         if (customLabel == null || customLabel.isEmpty()) {
-            label.setText(baseLabel + stateText);
-        } else {
-            String fullBaseLabel = baseLabel;
-            if (gateModel instanceof InputSwitch || gateModel instanceof ClockGate) {
-                fullBaseLabel += stateText;
-            }
-            label.setText(customLabel + " (" + fullBaseLabel + ")");
+            return baseLabel + stateText;
         }
+        return customLabel + " (" + baseLabel + stateText + ")";
+    }
+
+    /**
+     * @return the height of a rectangular body; custom gates grow to fit their pins.
+     */
+    private double getBodyHeight() {
+        if (!(gateModel instanceof CustomGate)) return GATE_HEIGHT;
+        CustomGate custom = (CustomGate) gateModel;
+        int pins = Math.max(custom.getInputCount(), custom.getOutputCount());
+        return Math.max(GATE_HEIGHT, PIN_SPACING * (pins + 1));
     }
 
     /**
      * Creates and positions the connection pins.
      */
     private void createPins() {
+        if (gateModel instanceof CustomGate) {
+            createCustomPins((CustomGate) gateModel);
+            return;
+        }
         if (!(gateModel instanceof OutputProbe)) {
-            this.pinOut = new ConnectionPin(ConnectionPin.PinType.OUTPUT, this, app);
+            this.pinOut = new ConnectionPin(ConnectionPin.PinType.OUTPUT, Pins.OUT, this, app);
             double xPos = (body instanceof Circle) ? PROBE_RADIUS * 2 : GATE_WIDTH;
             double yPos = (body instanceof Circle) ? PROBE_RADIUS : GATE_HEIGHT / 2;
             pinOut.setLayoutX(xPos);
             pinOut.setLayoutY(yPos);
             this.getChildren().add(pinOut);
+            outputPins.add(pinOut);
         }
 
         double yCenter = (body instanceof Circle) ? PROBE_RADIUS : GATE_HEIGHT / 2;
 
         if (gateModel instanceof BinaryGate) {
-            this.pinInA = new ConnectionPin(ConnectionPin.PinType.INPUT, this, app);
-            this.pinInB = new ConnectionPin(ConnectionPin.PinType.INPUT, this, app);
+            this.pinInA = new ConnectionPin(ConnectionPin.PinType.INPUT, Pins.A, this, app);
+            this.pinInB = new ConnectionPin(ConnectionPin.PinType.INPUT, Pins.B, this, app);
             pinInA.setLayoutX(0);
             pinInA.setLayoutY(yCenter - (GATE_HEIGHT / 4));
             pinInB.setLayoutX(0);
             pinInB.setLayoutY(yCenter + (GATE_HEIGHT / 4));
             this.getChildren().addAll(pinInA, pinInB);
+            inputPins.add(pinInA);
+            inputPins.add(pinInB);
         } else if (gateModel instanceof UnaryGate) {
-            this.pinInA = new ConnectionPin(ConnectionPin.PinType.INPUT, this, app);
+            this.pinInA = new ConnectionPin(ConnectionPin.PinType.INPUT, Pins.A, this, app);
             pinInA.setLayoutX(0);
             pinInA.setLayoutY(yCenter);
             this.getChildren().add(pinInA);
+            inputPins.add(pinInA);
         }
         // (InputSwitch and ClockGate fall through and correctly get 0 input pins)
     }
 
+    /**
+     * One named pin per template pin: inputs down the left edge, outputs down the right edge.
+     */
+    private void createCustomPins(CustomGate custom) {
+        for (int i = 0; i < custom.getInputCount(); i++) {
+            ConnectionPin pin = new ConnectionPin(ConnectionPin.PinType.INPUT, custom.getInputName(i), this, app);
+            pin.setLayoutX(0);
+            pin.setLayoutY(PIN_SPACING * (i + 1));
+            Tooltip.install(pin, new Tooltip(custom.getInputName(i)));
+            this.getChildren().add(pin);
+            inputPins.add(pin);
+        }
+        for (int i = 0; i < custom.getOutputCount(); i++) {
+            ConnectionPin pin = new ConnectionPin(ConnectionPin.PinType.OUTPUT, custom.getOutputName(i), this, app);
+            pin.setLayoutX(GATE_WIDTH);
+            pin.setLayoutY(PIN_SPACING * (i + 1));
+            Tooltip.install(pin, new Tooltip(custom.getOutputName(i)));
+            this.getChildren().add(pin);
+            outputPins.add(pin);
+        }
+    }
+
     /**
      * Sets up all mouse handlers for dragging, clicking, and double-clicking.
      */
@@ -200,8 +261,14 @@ public class GateView extends Pane {
         this.setOnMouseDragged(event -> {
             this.setLayoutX(event.getSceneX() - offsetX);
             this.setLayoutY(event.getSceneY() - offsetY);
+            dragged = true;
             event.consume();
         });
+        this.setOnMouseReleased(event -> {
+            if (!dragged) return;
+            dragged = false;
+            app.getCircuitPersistence().gateMoved(this); // Autosave the drop position only
+        });
 
         //Cursor Handlers
         this.setOnMouseEntered(event -> {
@@ -237,9 +304,91 @@ public class GateView extends Pane {
                 InputSwitch switchModel = (InputSwitch) gateModel;
                 boolean newState = !switchModel.getOutput();
                 switchModel.setState(newState);
-                app.triggerCircuitUpdate();
+                app.propagateSourceChange(switchModel);
             }
         });
+
+        //Context Menu (clocks and custom gates only)
+        ContextMenu contextMenu = null;
+        if (gateModel instanceof ClockGate) {
+            MenuItem clockItem = new MenuItem("Clock Settings...");
+            clockItem.setOnAction(event -> showClockDialog((ClockGate) gateModel));
+            contextMenu = new ContextMenu(clockItem);
+        } else if (gateModel instanceof CustomGate) {
+            MenuItem openItem = new MenuItem("Open");
+            openItem.setOnAction(event -> app.openCustomGate(this));
+            contextMenu = new ContextMenu(openItem);
+        }
+        if (contextMenu != null) {
+            ContextMenu menu = contextMenu;
+            this.setOnContextMenuRequested(event -> {
+                menu.show(this, event.getScreenX(), event.getScreenY());
+                event.consume();
+            });
+        }
+    }
+
+    /**
+     * Turns this view into a read-only picture of a gate inside a custom gate:
+     * it cannot be moved, toggled, renamed or wired. Double-clicking a nested custom gate opens it.
+     */
+    public void setReadOnly() {
+        this.setOnMousePressed(Event::consume);
+        this.setOnMouseDragged(Event::consume);
+        this.setOnMouseEntered(null);
+        this.setOnMouseExited(null);
+        this.setOnContextMenuRequested(null);
+        this.setOnMouseClicked(event -> {
+            if (event.getClickCount() == 2 && gateModel instanceof CustomGate) app.openCustomGate(this);
+            event.consume();
+        });
+        for (ConnectionPin pin : inputPins) pin.setMouseTransparent(true);
+        for (ConnectionPin pin : outputPins) pin.setMouseTransparent(true);
+    }
+
+    /**
+     * Shows a dialog to change a clock's frequency and phase.
+     */
+    private void showClockDialog(ClockGate clock) {
+        TextField frequencyField = new TextField(String.valueOf(clock.getFrequency()));
+        TextField phaseField = new TextField(String.valueOf(clock.getPhaseNanos() / 1e6));
+
+        GridPane grid = new GridPane();
+        grid.setHgap(10);
+        grid.setVgap(10);
+        grid.addRow(0, new Label("Frequency (Hz):"), frequencyField);
+        grid.addRow(1, new Label("Phase (ms):"), phaseField);
+
+        Dialog<ButtonType> dialog = new Dialog<>();
+        dialog.setTitle("Clock Settings");
+        dialog.setHeaderText("Full cycles per second, and how long every toggle is delayed.");
+        dialog.getDialogPane().setContent(grid);
+        dialog.getDialogPane().getButtonTypes().addAll(ButtonType.OK, ButtonType.CANCEL);
+
+        Optional<ButtonType> result = dialog.showAndWait();
+        if (result.isEmpty() || result.get() != ButtonType.OK) return;
+
+        double frequency;
+        long phaseNanos;
+        try {
+            frequency = Double.parseDouble(frequencyField.getText().trim());
+            if (!(frequency > 0)) throw new NumberFormatException();
+        } catch (NumberFormatException e) {
+            new Alert(Alert.AlertType.ERROR, "Invalid frequency: " + frequencyField.getText()).showAndWait();
+            return;
+        }
+        try {
+            double phaseMillis = Double.parseDouble(phaseField.getText().trim());
+            if (!(phaseMillis >= 0)) throw new NumberFormatException();
+            phaseNanos = Math.round(phaseMillis * 1e6);
+        } catch (NumberFormatException e) {
+            new Alert(Alert.AlertType.ERROR, "Invalid phase: " + phaseField.getText()).showAndWait();
+            return;
+        }
+        clock.setFrequency(frequency);
+        clock.setPhaseNanos(phaseNanos);
+        app.getCircuitPersistence().clockChanged(this);
+        app.invalidateNetlist(); // Reschedules the clocks
     }
 
     /**
@@ -254,6 +403,7 @@ public class GateView extends Pane {
         Optional<String> result = dialog.showAndWait();
         result.ifPresent(name -> {
             this.setCustomLabel(name.trim());
+            app.getCircuitPersistence().labelChanged(this);
         });
     }
 
@@ -287,7 +437,8 @@ public class GateView extends Pane {
 
     public void setCustomLabel(String customLabel) {
         this.customLabel = customLabel;
-        updateLabelText(); // Refresh the UI immediately
+        buildLabelTexts();
+        if (rendered) label.setText(renderedState ? onText : offText); // Refresh the UI immediately
     }
 
     public String getGateType() {
@@ -305,4 +456,41 @@ public class GateView extends Pane {
     public ConnectionPin getPinInB() {
         return pinInB;
     }
+
+    public List<ConnectionPin> getInputPins() {
+        return Collections.unmodifiableList(inputPins);
+    }
+
+    public List<ConnectionPin> getOutputPins() {
+        return Collections.unmodifiableList(outputPins);
+    }
+
+    /**
+     * @return the input pin with the given name ("A", "B", or a custom gate input), or null if there is none.
+     */
+    public ConnectionPin getInputPin(String name) {
+        for (ConnectionPin pin : inputPins) {
+            if (pin.getName().equals(name)) return pin;
+        }
+        return null;
+    }
+
+    /**
+     * @param name a custom gate output, or null for the only output of a built-in gate
+     * @return the output pin, or null if there is none.
+     */
+    public ConnectionPin getOutputPin(String name) {
+        if (name == null) return pinOut;
+        for (ConnectionPin pin : outputPins) {
+            if (pin.getName().equals(name)) return pin;
+        }
+        return null;
+    }
+
+    /**
+     * @return the model gate whose output the given output pin carries.
+     */
+    public Gate getOutputGate(ConnectionPin pin) {
+        return Pins.output(gateModel, pin.getName());
+    }
 }
\ No newline at end of file
@@ -7,18 +7,27 @@ import javafx.geometry.Pos;
 import javafx.scene.control.Button;
 import javafx.scene.control.Label;
 import javafx.scene.control.Separator;
+import javafx.scene.control.ToggleButton;
+import javafx.scene.control.Tooltip;
 import javafx.scene.layout.HBox;
 import javafx.scene.layout.Priority;
 import javafx.scene.layout.VBox;
 import javafx.scene.text.Font;
 import javafx.stage.Stage;
 
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
 public class PaletteManager {
     private final VBox palettePane;
     private final SimulatorApp app;
     private final TemplateManager templateManager;
     private final CircuitPersistence circuitPersistence;
     private final Stage mainStage;
+    private final ToggleButton pauseBtn = new ToggleButton("Pause"); // Kept across reloads, it follows the simulation
+    private final VBox customSection = new VBox(10);
+    private final Map<String, PaletteIcon> customIcons = new TreeMap<>(); // By template name, in palette order
 
     public PaletteManager(SimulatorApp app, TemplateManager templateManager, CircuitPersistence circuitPersistence, Stage mainStage) {
         this.app = app;
@@ -31,6 +40,12 @@ public class PaletteManager {
         this.palettePane.setStyle("-fx-background-color: #E0E0E0;");
         this.palettePane.setMinWidth(160); // Slightly wider to fit side-by-side buttons
         this.palettePane.setAlignment(Pos.TOP_CENTER); // Center align contents
+
+        pauseBtn.setMaxWidth(Double.MAX_VALUE);
+        HBox.setHgrow(pauseBtn, Priority.ALWAYS);
+        pauseBtn.setOnAction(e -> app.setPaused(pauseBtn.isSelected()));
+        app.pausedProperty().addListener((obs, was, now) -> pauseBtn.setSelected(now)); // Stepping pauses too
+        customSection.setAlignment(Pos.TOP_CENTER);
     }
 
     public VBox getPalettePane() {
@@ -59,13 +74,27 @@ public class PaletteManager {
         HBox tools = new HBox(5);
         Button bundleBtn = createSmallButton("Bundle", () -> {
             templateManager.bundleSelectedCircuit(app.getSelectedItems(), app.getRootPane());
-            reloadPalette();
+            app.refreshTemplates();
         });
         Button tableBtn = createSmallButton("Table", app::generateTruthTable);
         tools.getChildren().addAll(bundleBtn, tableBtn);
         palettePane.getChildren().add(tools);
 
-        // 4. Clear (Full Width)
+        // 4. Fast-forward (Run | Stop) - Side by Side
+        HBox runOps = new HBox(5);
+        Button runBtn = createSmallButton("Run...", app::showRunDialog);
+        Button stopBtn = createSmallButton("Stop", app::cancelRun);
+        runOps.getChildren().addAll(runBtn, stopBtn);
+        palettePane.getChildren().add(runOps);
+
+        // 5. Stepping (Back | Pause | Forward) - Side by Side
+        HBox stepOps = new HBox(5);
+        Button backStepBtn = createSmallButton("◀", app::stepBack);
+        Button forwardStepBtn = createSmallButton("▶", app::stepForward);
+        stepOps.getChildren().addAll(backStepBtn, pauseBtn, forwardStepBtn);
+        palettePane.getChildren().add(stepOps);
+
+        // 6. Clear (Full Width)
         Button clearBtn = new Button("Clear Workspace");
         styleButton(clearBtn, "-fx-base: #ffcccc;"); // Light red tint
         clearBtn.setOnAction(e -> app.clearWorkspace());
@@ -97,21 +126,45 @@ public class PaletteManager {
         );
 
         // Custom Gates
-        if (!templateManager.getAllTemplates().isEmpty()) {
-            palettePane.getChildren().add(new Separator());
-
-            Label customTitle = new Label("Custom Gates");
-            customTitle.setFont(new Font("Arial", 14));
-            customTitle.setAlignment(Pos.CENTER);
-            customTitle.setMaxWidth(Double.MAX_VALUE);
-            palettePane.getChildren().add(customTitle);
-
-            for (String gateName : templateManager.getAllTemplates().keySet()) {
-                palettePane.getChildren().add(
-                        new PaletteIcon(gateName, "CUSTOM:" + gateName, true)
-                );
+        customIcons.clear();
+        for (String gateName : templateManager.getTemplateNames()) {
+            customIcons.put(gateName, createCustomIcon(gateName));
+        }
+        layoutCustomSection();
+        palettePane.getChildren().add(customSection);
+    }
+
+    /**
+     * Adds, keeps or removes the palette entries of the given templates; all other entries are left as they are.
+     */
+    public void updateCustomGates(Set<String> gateNames) {
+        for (String gateName : gateNames) {
+            if (templateManager.hasTemplate(gateName)) {
+                customIcons.put(gateName, createCustomIcon(gateName)); // The pin counts may have changed
+            } else {
+                customIcons.remove(gateName);
             }
         }
+        layoutCustomSection();
+    }
+
+    // Library templates are not parsed for this: the tooltip comes from the library's index
+    private PaletteIcon createCustomIcon(String gateName) {
+        PaletteIcon icon = new PaletteIcon(gateName, "CUSTOM:" + gateName, true);
+        Tooltip.install(icon, new Tooltip(templateManager.describeTemplate(gateName)));
+        return icon;
+    }
+
+    private void layoutCustomSection() {
+        customSection.getChildren().clear();
+        if (customIcons.isEmpty()) return;
+
+        Label customTitle = new Label("Custom Gates");
+        customTitle.setFont(new Font("Arial", 14));
+        customTitle.setAlignment(Pos.CENTER);
+        customTitle.setMaxWidth(Double.MAX_VALUE);
+        customSection.getChildren().addAll(new Separator(), customTitle);
+        customSection.getChildren().addAll(customIcons.values());
     }
 
     // Helper to create side-by-side buttons
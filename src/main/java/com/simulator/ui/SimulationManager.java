@@ -1,58 +1,455 @@
 package com.simulator.ui;
 
+import com.simulator.engine.BreakCondition;
+import com.simulator.engine.Netlist;
+import com.simulator.engine.NetlistCompiler;
+import com.simulator.engine.SimulationWorker;
+import com.simulator.engine.TruthTable;
+import com.simulator.engine.VcdWriter;
+import com.simulator.engine.WaveformRecorder;
 import com.simulator.model.*;
-import javafx.animation.Animation;
-import javafx.animation.KeyFrame;
-import javafx.animation.Timeline;
-import javafx.beans.property.SimpleBooleanProperty;
+import javafx.animation.AnimationTimer;
+import javafx.application.Platform;
+import javafx.beans.property.ReadOnlyBooleanProperty;
+import javafx.beans.property.ReadOnlyBooleanWrapper;
+import javafx.beans.value.ObservableValue;
 import javafx.collections.FXCollections;
+import javafx.collections.ObservableListBase;
 import javafx.geometry.Pos;
+import javafx.scene.control.Alert;
+import javafx.scene.control.ButtonType;
+import javafx.scene.control.Dialog;
+import javafx.scene.control.Label;
 import javafx.scene.control.TableCell;
 import javafx.scene.control.TableColumn;
 import javafx.scene.control.TableView;
-import javafx.util.Duration;
+import javafx.scene.control.TextField;
+import javafx.scene.layout.GridPane;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.function.ToIntFunction;
+import java.util.concurrent.CompletableFuture;
 
+/**
+ * Connects the workspace to the background {@link SimulationWorker}.
+ * Edits compile the circuit into a new netlist version, which is handed to the worker;
+ * once per frame the latest snapshot from the worker is pulled and only views whose value changed
+ * are repainted. The models and views are only ever touched on the JavaFX Application Thread.
+ */
 public class SimulationManager {
 
+    // 2^30 rows is the most a TableView (int indexed) can hold
+    private static final int MAX_TABLE_INPUTS = 30;
+    // Tables up to this many rows are computed completely in the background before being shown
+    private static final int EAGER_TABLE_ROWS = 1 << 20;
+
+    // Shared cell values, so rendering a cell allocates nothing
+    private static final ObservableValue<Boolean> CELL_ONE = new ReadOnlyBooleanWrapper(true).getReadOnlyProperty();
+    private static final ObservableValue<Boolean> CELL_ZERO = new ReadOnlyBooleanWrapper(false).getReadOnlyProperty();
+
     private final List<GateView> allGateViews;
-    private Timeline clockTimer;
-    private final TableView<boolean[]> truthTable;
+    private final Map<List<GateView>, List<CompositeGate>> detailViews = new LinkedHashMap<>(); // Inside open custom gate windows, with their path
+    private final TableView<Integer> truthTable;
+    private final TimingDiagramView timingDiagram;
+    private final SimulationWorker worker = new SimulationWorker();
+    private final ReadOnlyBooleanWrapper paused = new ReadOnlyBooleanWrapper(false);
+    private AnimationTimer frameTimer;
+
+    // Latest published version of the circuit, rebuilt lazily (at most once per frame) after any structural edit
+    private Netlist netlist;
+    private GateView[] nodeViews;
+    private String[] pinNames; // "Label.Out-1" for the output nodes of custom gates, else null
+    private boolean oscillationReported = false;
+    private long sourceCommandsSent = 0; // Switch changes sent to the worker
+
+    // What the views currently show
+    private SimulationWorker.Snapshot renderedSnapshot;
+    private boolean[] renderedValues;
+    private WaveformRecorder renderedWaveform; // Our copy, updated from the snapshots
+
+    // Incremented whenever the table is cleared, so stale background results are dropped
+    private long tableGeneration = 0;
 
-    public SimulationManager(List<GateView> allGateViews, TableView<boolean[]> truthTable) {
+    public SimulationManager(List<GateView> allGateViews, TableView<Integer> truthTable, TimingDiagramView timingDiagram) {
         this.allGateViews = allGateViews;
         this.truthTable = truthTable;
+        this.timingDiagram = timingDiagram;
     }
 
+    /**
+     * Starts the simulation worker (which runs the clocks) and the per-frame view refresh.
+     */
     public void startClock() {
-        clockTimer = new Timeline(new KeyFrame(Duration.seconds(1), event -> {
-            for (GateView view : allGateViews) {
-                if (view.getGateModel() instanceof ClockGate) {
-                    ((ClockGate) view.getGateModel()).toggle();
+        worker.start();
+        frameTimer = new AnimationTimer() {
+            @Override
+            public void handle(long now) {
+                renderFrame();
+            }
+        };
+        frameTimer.start();
+    }
+
+    public void shutdown() {
+        if (frameTimer != null) frameTimer.stop();
+        worker.shutdown();
+    }
+
+    /**
+     * Marks the compiled netlist as stale.
+     * Must be called whenever gates or wires are added or removed. The circuit is recompiled and
+     * published on the next frame, so a batch of edits costs a single recompile.
+     */
+    public void invalidateNetlist() {
+        netlist = null;
+    }
+
+    /**
+     * Shows live values on the views of an opened custom gate, until they are removed again.
+     *
+     * @param path the CompositeGate instances whose shared template gates the views show (see
+     *             {@link Netlist#indexOf(List, Gate)}), or empty if the views have gates of their own
+     */
+    public void addDetailViews(List<GateView> views, List<CompositeGate> path) {
+        detailViews.put(views, path);
+        invalidateNetlist();
+    }
+
+    public void removeDetailViews(List<GateView> views) {
+        detailViews.remove(views);
+        invalidateNetlist();
+    }
+
+    /**
+     * Recompiles and publishes the circuit right away, instead of on the next frame: every switch is
+     * re-read from the models and the whole circuit re-evaluated. Clocks and latches keep the state
+     * they have in the running simulation. The views are refreshed on the next frame.
+     * Edits should just call {@link #invalidateNetlist()}.
+     */
+    public void triggerCircuitUpdate() {
+        invalidateNetlist();
+        ensureNetlist();
+    }
+
+    /**
+     * Sends a changed source (a switch) to the worker.
+     * Several changes within one frame are shown together.
+     */
+    public void propagateSourceChange(Gate source) {
+        ensureNetlist();
+        sourceCommandsSent++;
+        worker.setSource(source, source.getOutput());
+    }
+
+    private void renderFrame() {
+        ensureNetlist(); // Publishes the circuit if it was edited since the last frame
+
+        SimulationWorker.Snapshot snapshot = worker.getSnapshot();
+        // Skip if nothing is new, or if the worker has not caught up with the latest edit yet
+        if (snapshot == null || snapshot == renderedSnapshot || snapshot.getNetlist() != netlist) return;
+        boolean fullRefresh = (renderedSnapshot == null || renderedSnapshot.getNetlist() != netlist);
+        renderedSnapshot = snapshot;
+
+        // The worker owns the clocks, and stepping back resets switches there; mirror them into the
+        // models, which labels, switch clicks and truth tables read. Switches are only mirrored once
+        // the worker has served every change sent, or a snapshot from before a click would undo it
+        boolean switchesCurrent = (snapshot.getSourceCommands() == sourceCommandsSent);
+        for (int node : netlist.getSourceNodes()) {
+            Gate source = netlist.getGate(node);
+            if (source instanceof ClockGate) ((ClockGate) source).setState(snapshot.getValue(node));
+            else if (source instanceof InputSwitch && switchesCurrent) ((InputSwitch) source).setState(snapshot.getValue(node));
+        }
+        paused.set(snapshot.isPaused());
+
+        for (int node = 0; node < nodeViews.length; node++) {
+            boolean value = snapshot.getValue(node);
+            if (nodeViews[node] != null && (fullRefresh || value != renderedValues[node])) {
+                nodeViews[node].update(value);
+            }
+            renderedValues[node] = value;
+        }
+        if (!snapshot.isSettled()) reportOscillation();
+
+        WaveformRecorder.Update update = snapshot.getWaveform();
+        if (update == null) {
+            if (renderedWaveform != null) timingDiagram.clear();
+            renderedWaveform = null;
+        } else {
+            // Only the steps since the last update applied are copied from the worker
+            WaveformRecorder waveform = WaveformRecorder.apply(renderedWaveform, update);
+            worker.waveformShown(update);
+            if (waveform != renderedWaveform || update.hasSteps()) {
+                renderedWaveform = waveform;
+                timingDiagram.show(renderedWaveform, traceNames(renderedWaveform));
+            }
+        }
+    }
+
+    /**
+     * Starts recording the given views for the timing diagram.
+     * With no views, every switch, clock and probe is recorded.
+     *
+     * @param depth the number of simulation steps to keep
+     */
+    public void startTrace(List<GateView> views, int depth) {
+        List<Gate> gates = new ArrayList<>();
+        for (GateView view : views.isEmpty() ? allGateViews : views) {
+            Gate model = view.getGateModel();
+            if (model instanceof CustomGate) {
+                if (!views.isEmpty()) gates.addAll(outputGatesOf((CustomGate) model));
+            } else if (!views.isEmpty() || model instanceof InputSwitch || model instanceof ClockGate || model instanceof OutputProbe) {
+                gates.add(model);
+            }
+        }
+        ensureNetlist();
+        worker.startTrace(gates.toArray(new Gate[0]), depth);
+    }
+
+    public void stopTrace() {
+        worker.stopTrace();
+    }
+
+    /**
+     * Starts streaming every gate's value changes to a VCD file.
+     *
+     * @return false if the file could not be created (the user has been told).
+     */
+    public boolean startVcd(File file) {
+        List<Gate> gates = new ArrayList<>();
+        List<String> names = new ArrayList<>();
+        for (GateView view : allGateViews) {
+            Gate model = view.getGateModel();
+            if (model instanceof CustomGate) {
+                CustomGate custom = (CustomGate) model;
+                for (int i = 0; i < custom.getOutputCount(); i++) {
+                    gates.add(custom.getOutputGate(i));
+                    names.add(view.getLabelText() + "." + custom.getOutputName(i));
                 }
+            } else {
+                gates.add(model);
+                names.add(view.getLabelText());
+            }
+        }
+        try {
+            VcdWriter writer = new VcdWriter(file.toPath(), gates.toArray(new Gate[0]), names.toArray(new String[0]));
+            ensureNetlist();
+            worker.startVcd(writer);
+            return true;
+        } catch (IOException e) {
+            new Alert(Alert.AlertType.ERROR, "Error creating trace file: " + e.getMessage()).showAndWait();
+            return false;
+        }
+    }
+
+    public void stopVcd() {
+        worker.stopVcd();
+    }
+
+    /**
+     * Asks for a cycle count and an optional breakpoint condition, then fast-forwards the clocks.
+     * The views are not updated during the run, only when it stops.
+     */
+    public void showRunDialog() {
+        TextField cyclesField = new TextField("1000");
+        TextField conditionField = new TextField();
+        conditionField.setPromptText("e.g. rise(Carry) || {Q3,Q2,Q1,Q0} == 12");
+        conditionField.setPrefColumnCount(24);
+
+        GridPane grid = new GridPane();
+        grid.setHgap(10);
+        grid.setVgap(10);
+        grid.addRow(0, new Label("Cycles:"), cyclesField);
+        grid.addRow(1, new Label("Stop when:"), conditionField);
+
+        Dialog<ButtonType> dialog = new Dialog<>();
+        dialog.setTitle("Run");
+        dialog.setHeaderText("Run the clocks without updating the display.\nCycles are counted on the fastest clock.");
+        dialog.getDialogPane().setContent(grid);
+        dialog.getDialogPane().getButtonTypes().addAll(ButtonType.OK, ButtonType.CANCEL);
+
+        Optional<ButtonType> result = dialog.showAndWait();
+        if (result.isEmpty() || result.get() != ButtonType.OK) return;
+
+        long cycles;
+        BreakCondition condition = null;
+        try {
+            cycles = Long.parseLong(cyclesField.getText().trim());
+            if (cycles <= 0) throw new NumberFormatException();
+        } catch (NumberFormatException e) {
+            new Alert(Alert.AlertType.ERROR, "Invalid cycle count: " + cyclesField.getText()).showAndWait();
+            return;
+        }
+        ensureNetlist();
+        if (!conditionField.getText().isBlank()) {
+            try {
+                condition = BreakCondition.compile(conditionField.getText(), nodeResolver());
+            } catch (IllegalArgumentException e) {
+                new Alert(Alert.AlertType.ERROR, e.getMessage()).showAndWait();
+                return;
+            }
+        }
+
+        String conditionText = conditionField.getText().trim();
+        worker.run(cycles, condition).thenAccept(run -> Platform.runLater(() -> {
+            switch (run.getOutcome()) {
+                case CONDITION_MET:
+                    new Alert(Alert.AlertType.INFORMATION, "Stopped after " + run.getCycles() + " cycles: " + conditionText).show();
+                    break;
+                case COMPLETED:
+                    new Alert(Alert.AlertType.INFORMATION, "Ran " + run.getCycles() + " cycles.").show();
+                    break;
+                case NO_CLOCKS:
+                    new Alert(Alert.AlertType.WARNING, "The circuit has no clocks to run.").show();
+                    break;
+                default: // Cancelled; the user knows
             }
-            triggerCircuitUpdate();
         }));
-        clockTimer.setCycleCount(Animation.INDEFINITE);
-        clockTimer.play();
     }
 
-    public void triggerCircuitUpdate() {
+    public void cancelRun() {
+        worker.cancelRun();
+    }
+
+    /**
+     * Stops or restarts the clocks. Stepping pauses as well.
+     */
+    public void setPaused(boolean pause) {
+        ensureNetlist();
+        if (pause) worker.pause();
+        else worker.resume();
+    }
+
+    /**
+     * @return whether the clocks are paused, as of the last rendered frame.
+     */
+    public ReadOnlyBooleanProperty pausedProperty() {
+        return paused.getReadOnlyProperty();
+    }
+
+    public void stepBack() {
+        ensureNetlist();
+        worker.stepBack();
+    }
+
+    public void stepForward() {
+        ensureNetlist();
+        worker.stepForward();
+    }
+
+    // Resolves component labels to nodes of the current netlist, for breakpoint conditions
+    private ToIntFunction<String> nodeResolver() {
+        final int ambiguous = -2;
+        Map<String, Integer> nodesByName = new HashMap<>();
         for (GateView view : allGateViews) {
-            view.update();
+            int node = netlist.indexOf(view.getGateModel());
+            if (node >= 0) nodesByName.merge(view.getLabelText(), node, (a, b) -> ambiguous);
+        }
+        for (int node = 0; node < pinNames.length; node++) {
+            if (pinNames[node] != null) nodesByName.merge(pinNames[node], node, (a, b) -> ambiguous);
+        }
+        return name -> {
+            Integer node = nodesByName.get(name);
+            if (node == null) return -1;
+            if (node == ambiguous) throw new IllegalArgumentException("More than one component is labeled '" + name + "'");
+            return node;
+        };
+    }
+
+    private static List<Gate> outputGatesOf(CustomGate custom) {
+        List<Gate> outputs = new ArrayList<>();
+        for (int i = 0; i < custom.getOutputCount(); i++) {
+            outputs.add(custom.getOutputGate(i));
+        }
+        return outputs;
+    }
+
+    private String[] traceNames(WaveformRecorder waveform) {
+        String[] names = new String[waveform.getNetCount()];
+        for (int net = 0; net < names.length; net++) {
+            int node = netlist.indexOf(waveform.getGate(net));
+            if (node >= 0 && nodeViews[node] != null) names[net] = nodeViews[node].getLabelText();
+            else names[net] = (node >= 0 && pinNames[node] != null) ? pinNames[node] : "?";
+        }
+        return names;
+    }
+
+    /**
+     * Warns (once per circuit edit) that a feedback loop did not settle.
+     */
+    private void reportOscillation() {
+        if (oscillationReported) return;
+        oscillationReported = true;
+        // show() rather than showAndWait(): this runs inside the frame animation
+        new Alert(Alert.AlertType.WARNING, "A feedback loop in the circuit is oscillating and did not settle.").show();
+    }
+
+    private void ensureNetlist() {
+        if (netlist != null) return;
+        oscillationReported = false;
+
+        List<GateView> views = new ArrayList<>(allGateViews);
+        for (Map.Entry<List<GateView>, List<CompositeGate>> detail : detailViews.entrySet()) {
+            if (detail.getValue().isEmpty()) views.addAll(detail.getKey());
+        }
+        List<Gate> models = new ArrayList<>();
+        for (GateView view : views) {
+            models.add(view.getGateModel());
+        }
+        netlist = NetlistCompiler.compile(models);
+        nodeViews = new GateView[netlist.size()];
+        pinNames = new String[netlist.size()];
+        renderedValues = new boolean[netlist.size()];
+        for (GateView view : views) {
+            mapView(view, Collections.emptyList());
+        }
+        // Views of shared template gates show the copy belonging to their instance
+        for (Map.Entry<List<GateView>, List<CompositeGate>> detail : detailViews.entrySet()) {
+            if (detail.getValue().isEmpty()) continue;
+            for (GateView view : detail.getKey()) {
+                mapView(view, detail.getValue());
+            }
+        }
+
+        boolean[] sourceValues = new boolean[netlist.size()];
+        netlist.readSources(sourceValues);
+        worker.publish(netlist, sourceValues);
+    }
+
+    // Registers the view for the node of its gate (or the pin names of its outputs, for a custom gate)
+    private void mapView(GateView view, List<CompositeGate> path) {
+        Gate model = view.getGateModel();
+        if (model instanceof CustomGate) {
+            // Not a node itself; its outputs are
+            CustomGate custom = (CustomGate) model;
+            for (int i = 0; i < custom.getOutputCount(); i++) {
+                int node = nodeOf(custom.getOutputGate(i), path);
+                if (node >= 0 && pinNames[node] == null) pinNames[node] = view.getLabelText() + "." + custom.getOutputName(i);
+            }
+        } else {
+            int node = nodeOf(model, path);
+            if (node >= 0 && nodeViews[node] == null) nodeViews[node] = view;
         }
     }
 
+    private int nodeOf(Gate gate, List<CompositeGate> path) {
+        return path.isEmpty() ? netlist.indexOf(gate) : netlist.indexOf(path, gate);
+    }
+
     /**
      * Clears the truth table UI.
      */
     public void clearTruthTable() {
+        tableGeneration++; // Discard any table still being computed in the background
         truthTable.getColumns().clear();
-        truthTable.getItems().clear();
+        truthTable.setItems(FXCollections.observableArrayList());
     }
 
     public void generateTruthTable() {
@@ -73,66 +470,90 @@ public class SimulationManager {
 
         int numInputs = inputs.size();
         int numOutputs = outputs.size();
-        Map<Gate, Boolean> originalStates = new HashMap<>();
+        if (numInputs > MAX_TABLE_INPUTS) {
+            new Alert(Alert.AlertType.WARNING, "Truth tables are limited to " + MAX_TABLE_INPUTS + " inputs.").showAndWait();
+            return;
+        }
 
-        // Save state
-        for (GateView inputView : inputs) {
-            if (inputView.getGateModel() instanceof InputSwitch) {
-                InputSwitch sw = (InputSwitch) inputView.getGateModel();
-                originalStates.put(sw, sw.getOutput());
-            }
+        // Snapshot the circuit; rows are computed from the snapshot without touching the live switches
+        ensureNetlist();
+        int[] inputNodes = new int[numInputs];
+        boolean[] pinned = new boolean[numInputs];
+        int[] outputNodes = new int[numOutputs];
+        for (int j = 0; j < numInputs; j++) {
+            Gate model = inputs.get(j).getGateModel();
+            inputNodes[j] = netlist.indexOf(model);
+            pinned[j] = model instanceof ClockGate; // Clocks keep their current state
         }
+        for (int k = 0; k < numOutputs; k++) {
+            outputNodes[k] = netlist.indexOf(outputs.get(k).getGateModel());
+        }
+        TruthTable table = new TruthTable(netlist, inputNodes, pinned, outputNodes);
 
-        // Create columns
+        // Create columns (cells read straight from the bit-packed table)
         for (int i = 0; i < numInputs; i++) {
             final int colIndex = i;
             String colName = inputs.get(i).getLabelText().replace(": 0", "").replace(": 1", "");
-            TableColumn<boolean[], Boolean> col = new TableColumn<>(colName + " (In)");
-            col.setCellValueFactory(cellData -> new SimpleBooleanProperty(cellData.getValue()[colIndex]));
+            TableColumn<Integer, Boolean> col = new TableColumn<>(colName + " (In)");
+            col.setCellValueFactory(cellData -> cellValue(table.getInput(cellData.getValue(), colIndex)));
             col.setCellFactory(c -> new TruthTableCell());
             truthTable.getColumns().add(col);
         }
         for (int i = 0; i < numOutputs; i++) {
-            final int colIndex = i + numInputs;
+            final int colIndex = i;
             String colName = outputs.get(i).getLabelText();
-            TableColumn<boolean[], Boolean> col = new TableColumn<>(colName + " (Out)");
-            col.setCellValueFactory(cellData -> new SimpleBooleanProperty(cellData.getValue()[colIndex]));
+            TableColumn<Integer, Boolean> col = new TableColumn<>(colName + " (Out)");
+            col.setCellValueFactory(cellData -> cellValue(table.getOutput(cellData.getValue(), colIndex)));
             col.setCellFactory(c -> new TruthTableCell());
             truthTable.getColumns().add(col);
         }
 
-        // Generate rows
-        int numRows = (int) Math.pow(2, numInputs);
-        List<boolean[]> allRowsData = new ArrayList<>();
-
-        for (int i = 0; i < numRows; i++) {
-            boolean[] rowData = new boolean[numInputs + numOutputs];
-            for (int j = 0; j < numInputs; j++) {
-                //Reverse bit order so first column is MSB (slowest change)
-                boolean state = ((i >> (numInputs - 1 - j)) & 1) == 1;
+        if (table.getRowCount() > EAGER_TABLE_ROWS) {
+            // Too big to compute up front: show it now and let the visible rows compute on demand
+            truthTable.setItems(new RowIndexList(table.getRowCount()));
+            return;
+        }
 
-                Gate model = inputs.get(j).getGateModel();
-                if (model instanceof InputSwitch) ((InputSwitch) model).setState(state);
-                else if (model instanceof ClockGate) state = model.getOutput();
-                rowData[j] = state;
+        // Small enough to compute completely, 64 rows at a time on the ForkJoin pool
+        final long generation = tableGeneration;
+        CompletableFuture.runAsync(table::generate).whenComplete((ignored, error) -> Platform.runLater(() -> {
+            if (generation != tableGeneration) return; // Cleared or regenerated meanwhile
+            if (error != null) {
+                System.err.println("Error generating truth table: " + error.getMessage());
+                return;
             }
-            for (int k = 0; k < numOutputs; k++) {
-                boolean state = ((OutputProbe) outputs.get(k).getGateModel()).getResult();
-                rowData[k + numInputs] = state;
-            }
-            allRowsData.add(rowData);
+            truthTable.setItems(new RowIndexList(table.getRowCount()));
+        }));
+    }
+
+    private static ObservableValue<Boolean> cellValue(boolean state) {
+        return state ? CELL_ONE : CELL_ZERO;
+    }
+
+    /**
+     * A read-only list of row indices 0..size-1 that stores nothing.
+     * The table items are just row numbers; cell values are looked up in the TruthTable.
+     */
+    private static class RowIndexList extends ObservableListBase<Integer> {
+        private final int size;
+
+        RowIndexList(int size) {
+            this.size = size;
         }
 
-        truthTable.setItems(FXCollections.observableArrayList(allRowsData));
+        @Override
+        public Integer get(int index) {
+            if (index < 0 || index >= size) throw new IndexOutOfBoundsException(index);
+            return index;
+        }
 
-        // Restore state
-        for (Map.Entry<Gate, Boolean> entry : originalStates.entrySet()) {
-            ((InputSwitch) entry.getKey()).setState(entry.getValue());
+        @Override
+        public int size() {
+            return size;
         }
-        triggerCircuitUpdate();
     }
 
-    private static class TruthTableCell extends TableCell<boolean[], Boolean> {
+    private static class TruthTableCell extends TableCell<Integer, Boolean> {
         @Override
         protected void updateItem(Boolean item, boolean empty) {
             super.updateItem(item, empty);
@@ -1,16 +1,26 @@
 package com.simulator.ui;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.SerializationFeature;
 import com.simulator.data.CircuitPersistence;
+import com.simulator.data.CustomGateTemplate;
+import com.simulator.data.EditJournal;
+import com.simulator.data.TemplateCircuit;
 import com.simulator.data.TemplateManager;
+import com.simulator.model.CompositeGate;
+import com.simulator.model.CustomGate;
+import com.simulator.model.Gate;
 import javafx.application.Application;
+import javafx.application.Platform;
+import javafx.beans.property.ReadOnlyBooleanProperty;
+import javafx.geometry.Orientation;
 import javafx.geometry.Pos;
 import javafx.scene.Node;
 import javafx.scene.Scene;
+import javafx.scene.control.Alert;
 import javafx.scene.control.Button;
 import javafx.scene.control.Label;
 import javafx.scene.control.ScrollPane;
+import javafx.scene.control.SplitPane;
 import javafx.scene.control.TableView;
 import javafx.scene.effect.DropShadow;
 import javafx.scene.input.KeyCode;
@@ -22,8 +32,13 @@ import javafx.scene.text.Font;
 import javafx.scene.text.FontWeight;
 import javafx.stage.Stage;
 
+import java.io.File;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 public class SimulatorApp extends Application {
 
@@ -33,6 +48,7 @@ public class SimulatorApp extends Application {
     // Core Components
     private Pane rootPane;
     private final List<GateView> allGateViews = new ArrayList<>();
+    private final Map<GateView, CustomGateWindow> openCustomGates = new HashMap<>(); // By the opened instance
 
     // Managers
     private WorkspaceManager workspaceManager;
@@ -51,6 +67,13 @@ public class SimulatorApp extends Application {
         mainStage.show();
     }
 
+    @Override
+    public void stop() {
+        if (simulationManager != null) simulationManager.shutdown();
+        if (templateManager != null) templateManager.stopWatching();
+        if (circuitPersistence != null) circuitPersistence.closeJournal();
+    }
+
     /**
      * Builds and displays the Front Page / Welcome Screen.
      */
@@ -73,6 +96,7 @@ public class SimulatorApp extends Application {
         Button newProjectBtn = createStyledButton("New Project");
         newProjectBtn.setOnAction(e -> {
             initializeWorkspace();
+            if (!circuitPersistence.isJournaling()) circuitPersistence.startNewCircuit(); // First circuit of the session
             mainStage.setScene(mainScene);
             mainStage.centerOnScreen();
         });
@@ -93,6 +117,20 @@ public class SimulatorApp extends Application {
         });
 
         welcomeLayout.getChildren().addAll(title, subtitle, newProjectBtn, loadProjectBtn);
+
+        // A circuit that was never saved survives in the autosave journal if the last session ended abruptly
+        // (offered until a circuit is journaled, which would replace it)
+        boolean journaling = (circuitPersistence != null && circuitPersistence.isJournaling());
+        if (!journaling && EditJournal.hasEdits(EditJournal.pathFor(null))) {
+            Button recoverBtn = createStyledButton("Recover Unsaved Work");
+            recoverBtn.setOnAction(e -> {
+                initializeWorkspace();
+                circuitPersistence.recoverUnsavedWork();
+                mainStage.setScene(mainScene);
+                mainStage.centerOnScreen();
+            });
+            welcomeLayout.getChildren().add(recoverBtn);
+        }
         Scene welcomeScene = new Scene(welcomeLayout, 800, 600);
         mainStage.setScene(welcomeScene);
     }
@@ -125,8 +163,7 @@ public class SimulatorApp extends Application {
         if (mainScene != null) return; // Already initialized
 
         // 1. Init Data & Persistence
-        ObjectMapper objectMapper = new ObjectMapper();
-        objectMapper.enable(SerializationFeature.INDENT_OUTPUT);
+        ObjectMapper objectMapper = new ObjectMapper(); // Template files are written compactly
 
         templateManager = new TemplateManager(objectMapper);
         templateManager.loadCustomGateTemplates();
@@ -137,21 +174,27 @@ public class SimulatorApp extends Application {
         // 2. Init Managers
         workspaceManager = new WorkspaceManager(rootPane, this, allGateViews, templateManager);
 
-        TableView<boolean[]> truthTable = new TableView<>();
-        simulationManager = new SimulationManager(allGateViews, truthTable);
+        TableView<Integer> truthTable = new TableView<>();
+        TimingDiagramView timingDiagram = new TimingDiagramView(this);
+        simulationManager = new SimulationManager(allGateViews, truthTable, timingDiagram);
 
         paletteManager = new PaletteManager(this, templateManager, circuitPersistence, mainStage);
         paletteManager.reloadPalette();
+        templateManager.startWatching(() -> Platform.runLater(this::refreshTemplates));
 
         // 3. Layout
         BorderPane mainLayout = new BorderPane();
         mainLayout.setLeft(paletteManager.getPalettePane());
         mainLayout.setCenter(rootPane);
+        mainLayout.setBottom(circuitPersistence.getProgressPane());
 
         ScrollPane tablePane = new ScrollPane(truthTable);
         tablePane.setFitToWidth(true);
         tablePane.setMinWidth(250);
-        mainLayout.setRight(tablePane);
+        SplitPane analysisPane = new SplitPane(tablePane, timingDiagram);
+        analysisPane.setOrientation(Orientation.VERTICAL);
+        analysisPane.setPrefWidth(350);
+        mainLayout.setRight(analysisPane);
 
         // 4. Scene & Input
         mainScene = new Scene(mainLayout, 1280, 768);
@@ -170,6 +213,25 @@ public class SimulatorApp extends Application {
         return workspaceManager.createGate(gateType, x, y, id);
     }
 
+    /**
+     * Creates a gate's model only; safe to call off the FX thread (used while loading a circuit).
+     */
+    public Gate createGateModel(String gateType) {
+        return workspaceManager.createModel(gateType);
+    }
+
+    public GateView createGateView(Gate model, String gateType, double x, double y, String id) {
+        return workspaceManager.createView(model, gateType, x, y, id);
+    }
+
+    /**
+     * Locks editing while a circuit streams in: the workspace can be watched but not changed.
+     */
+    public void setLoading(boolean loading) {
+        paletteManager.getPalettePane().setDisable(loading);
+        rootPane.setMouseTransparent(loading);
+    }
+
     public void toggleSelectItem(Node item, boolean isShiftDown) {
         workspaceManager.toggleSelectItem(item, isShiftDown);
     }
@@ -186,24 +248,163 @@ public class SimulatorApp extends Application {
         simulationManager.triggerCircuitUpdate();
     }
 
+    public void propagateSourceChange(Gate source) {
+        simulationManager.propagateSourceChange(source);
+    }
+
+    public void invalidateNetlist() {
+        simulationManager.invalidateNetlist();
+    }
+
+    public void startTrace(int depth) {
+        List<GateView> views = new ArrayList<>();
+        for (Node item : workspaceManager.getSelectedItems()) {
+            if (item instanceof GateView) views.add((GateView) item);
+        }
+        simulationManager.startTrace(views, depth);
+    }
+
+    public void stopTrace() {
+        simulationManager.stopTrace();
+    }
+
+    public boolean startVcd(File file) {
+        return simulationManager.startVcd(file);
+    }
+
+    public void stopVcd() {
+        simulationManager.stopVcd();
+    }
+
+    public void showRunDialog() {
+        simulationManager.showRunDialog();
+    }
+
+    public void cancelRun() {
+        simulationManager.cancelRun();
+    }
+
+    public void setPaused(boolean pause) {
+        simulationManager.setPaused(pause);
+    }
+
+    public ReadOnlyBooleanProperty pausedProperty() {
+        return simulationManager.pausedProperty();
+    }
+
+    public void stepBack() {
+        simulationManager.stepBack();
+    }
+
+    public void stepForward() {
+        simulationManager.stepForward();
+    }
+
+    /**
+     * Opens a window showing the inside of a custom gate instance, or brings it to the front if already open.
+     */
+    public void openCustomGate(GateView view) {
+        CustomGateWindow open = openCustomGates.get(view);
+        if (open != null) {
+            open.toFront();
+            return;
+        }
+        CustomGate custom = (CustomGate) view.getGateModel();
+        CustomGateTemplate template = templateManager.getTemplate(custom.getTemplateName());
+        if (template == null) {
+            new Alert(Alert.AlertType.ERROR, "Template not found: " + custom.getTemplateName()).showAndWait();
+            return;
+        }
+
+        // Instances leading to this one, if it is opened from inside another custom gate (null if that shows no values)
+        List<CompositeGate> parentPath = Collections.emptyList();
+        for (CustomGateWindow parent : openCustomGates.values()) {
+            if (parent.getViews().contains(view)) parentPath = parent.getPath();
+        }
+
+        Map<String, Gate> internals;
+        List<CompositeGate> path;
+        Runnable release;
+        if (custom instanceof CompositeGate) {
+            // The internals are the template's shared gates; the views show this instance's copy of them
+            internals = ((CompositeGate) custom).getDefinition().getInternalGates();
+            if (parentPath != null) {
+                path = new ArrayList<>(parentPath);
+                path.add((CompositeGate) custom);
+            } else {
+                path = null;
+            }
+            release = () -> {};
+        } else {
+            // Evaluated from its lookup table: build the internals for display only, fed by the same inputs.
+            // Inside another custom gate those inputs are shared template gates, so values are not shown there.
+            TemplateCircuit circuit;
+            try {
+                circuit = new TemplateCircuit(template, templateManager::createInstance);
+            } catch (IllegalArgumentException e) {
+                new Alert(Alert.AlertType.ERROR, e.getMessage()).showAndWait();
+                return;
+            }
+            boolean live = parentPath != null && parentPath.isEmpty();
+            for (int i = 0; i < custom.getInputCount() && live; i++) {
+                circuit.connectInput(i, custom.getInput(i));
+            }
+            internals = circuit.getGates();
+            path = live ? Collections.emptyList() : null;
+            release = () -> {
+                for (int i = 0; i < custom.getInputCount(); i++) {
+                    circuit.connectInput(i, null);
+                }
+            };
+        }
+
+        CustomGateWindow window = new CustomGateWindow(this, view, template, internals, path);
+        window.initOwner(mainStage);
+        window.setOnHidden(e -> {
+            openCustomGates.remove(view);
+            if (path != null) simulationManager.removeDetailViews(window.getViews());
+            release.run();
+            // Nested windows opened from this one go with it
+            for (GateView inner : window.getViews()) {
+                CustomGateWindow nested = openCustomGates.get(inner);
+                if (nested != null) nested.close();
+            }
+        });
+        openCustomGates.put(view, window);
+        if (path != null) simulationManager.addDetailViews(window.getViews(), path);
+        window.show();
+    }
+
     public void generateTruthTable() {
         simulationManager.generateTruthTable();
     }
 
     public void clearWorkspace() {
         workspaceManager.clear();
+        circuitPersistence.workspaceCleared();
         simulationManager.clearTruthTable();
 
         circuitPersistence.resetFileChooser();
-        simulationManager.triggerCircuitUpdate();
-        templateManager.loadCustomGateTemplates();
-        paletteManager.reloadPalette();
+        refreshTemplates();
+    }
+
+    /**
+     * Picks up template files added, changed or removed since the last look and updates their palette entries.
+     */
+    public void refreshTemplates() {
+        Set<String> changed = templateManager.loadCustomGateTemplates();
+        if (!changed.isEmpty()) paletteManager.updateCustomGates(changed);
+        templateManager.startWatching(() -> Platform.runLater(this::refreshTemplates)); // The first bundle creates the directory
     }
 
     public List<Node> getSelectedItems() {
         return workspaceManager.getSelectedItems();
     }
 
+    public CircuitPersistence getCircuitPersistence() {
+        return circuitPersistence;
+    }
+
     public Pane getRootPane() {
         return rootPane;
     }
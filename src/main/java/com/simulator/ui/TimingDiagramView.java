@@ -0,0 +1,127 @@
+package com.simulator.ui;
+
+import com.simulator.engine.WaveformRecorder;
+import javafx.geometry.Insets;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.control.Button;
+import javafx.scene.control.ComboBox;
+import javafx.scene.control.ToggleButton;
+import javafx.scene.layout.BorderPane;
+import javafx.scene.layout.HBox;
+import javafx.scene.layout.Pane;
+import javafx.scene.paint.Color;
+import javafx.scene.text.Font;
+import javafx.stage.FileChooser;
+
+import java.io.File;
+
+/**
+ * Timing diagram of the traced nets, drawn from a {@link WaveformRecorder}.
+ * The history is drawn column by column: each pixel column covers a range of steps and shows
+ * a vertical bar if the net toggled within it, so drawing costs the same at any clock rate.
+ */
+public class TimingDiagramView extends BorderPane {
+
+    private static final double ROW_HEIGHT = 28;
+    private static final double NAME_WIDTH = 70;
+    private static final double TRACE_HEIGHT = 16;
+
+    private final Pane canvasHolder = new Pane();
+    private final Canvas canvas = new Canvas();
+    private WaveformRecorder waveform;
+    private String[] names;
+
+    public TimingDiagramView(SimulatorApp app) {
+        Button traceBtn = new Button("Trace");
+        ComboBox<Integer> depthBox = new ComboBox<>();
+        depthBox.getItems().addAll(1024, 4096, 16384, 65536);
+        depthBox.setValue(4096);
+        depthBox.setPrefWidth(90);
+        traceBtn.setOnAction(e -> app.startTrace(depthBox.getValue()));
+        Button stopBtn = new Button("Stop");
+        stopBtn.setOnAction(e -> app.stopTrace());
+
+        // Streams every change to a VCD file while selected
+        ToggleButton vcdBtn = new ToggleButton("Record VCD");
+        vcdBtn.setOnAction(e -> {
+            if (!vcdBtn.isSelected()) {
+                app.stopVcd();
+                return;
+            }
+            FileChooser fileChooser = new FileChooser();
+            fileChooser.setTitle("Record Trace");
+            fileChooser.getExtensionFilters().add(new FileChooser.ExtensionFilter("Value Change Dump (*.vcd)", "*.vcd"));
+            File file = fileChooser.showSaveDialog(getScene().getWindow());
+            if (file == null || !app.startVcd(file)) vcdBtn.setSelected(false);
+        });
+
+        HBox toolbar = new HBox(5, traceBtn, depthBox, stopBtn, vcdBtn);
+        toolbar.setPadding(new Insets(5));
+        setTop(toolbar);
+
+        // Keep the canvas the size of its container
+        canvasHolder.getChildren().add(canvas);
+        canvas.widthProperty().bind(canvasHolder.widthProperty());
+        canvas.heightProperty().bind(canvasHolder.heightProperty());
+        canvas.widthProperty().addListener(obs -> redraw());
+        canvas.heightProperty().addListener(obs -> redraw());
+        setCenter(canvasHolder);
+        setMinHeight(150);
+    }
+
+    /**
+     * Shows a new recording.
+     *
+     * @param names the display name of each traced net
+     */
+    public void show(WaveformRecorder waveform, String[] names) {
+        this.waveform = waveform;
+        this.names = names;
+        redraw();
+    }
+
+    public void clear() {
+        show(null, null);
+    }
+
+    private void redraw() {
+        GraphicsContext g = canvas.getGraphicsContext2D();
+        double width = canvas.getWidth();
+        g.setFill(Color.WHITE);
+        g.fillRect(0, 0, width, canvas.getHeight());
+        if (waveform == null || waveform.getSampleCount() == 0) return;
+
+        int samples = waveform.getSampleCount();
+        int columns = (int) Math.max(1, width - NAME_WIDTH - 5);
+        g.setFont(Font.font("Arial", 12));
+        g.setLineWidth(1);
+
+        for (int net = 0; net < waveform.getNetCount(); net++) {
+            double top = net * ROW_HEIGHT + 6;
+            double high = top;
+            double low = top + TRACE_HEIGHT;
+
+            g.setFill(Color.BLACK);
+            g.fillText(names[net], 4, low);
+            g.setStroke(Color.DARKGREEN);
+
+            // Each column covers the steps [from, to); draw an edge wherever the level changed
+            boolean previous = waveform.getSample(net, 0);
+            for (int x = 0; x < columns; x++) {
+                int from = (int) ((long) x * samples / columns);
+                int to = (int) Math.max(from + 1, (long) (x + 1) * samples / columns);
+                boolean toggled = waveform.getSample(net, from) != previous;
+                for (int i = from + 1; i < to && !toggled; i++) {
+                    toggled = waveform.getSample(net, i) != waveform.getSample(net, from);
+                }
+                boolean last = waveform.getSample(net, to - 1);
+                double px = NAME_WIDTH + x + 0.5;
+                if (toggled) g.strokeLine(px, high, px, low);
+                double y = last ? high : low;
+                g.strokeLine(px, y, px + 1, y);
+                previous = last;
+            }
+        }
+    }
+}
@@ -1,9 +1,6 @@
 package com.simulator.ui;
 
-import com.simulator.data.CustomGateTemplate;
-import com.simulator.data.GateSaveData;
 import com.simulator.data.TemplateManager;
-import com.simulator.data.WireSaveData;
 import com.simulator.model.*;
 import javafx.scene.Node;
 import javafx.scene.input.Dragboard;
@@ -70,86 +67,48 @@ public class WorkspaceManager {
     //Gate Creation
 
     public GateView createGate(String gateType, double x, double y) {
-        if (gateType.startsWith("CUSTOM:")) {
-            createCustomGateFromTemplate(gateType.substring("CUSTOM:".length()), x, y);
-            return null;
-        }
         double newX = x - (GateView.GATE_WIDTH / 2.0);
         double newY = y - (GateView.GATE_HEIGHT / 2.0);
-        return createGate(gateType, newX, newY, UUID.randomUUID().toString());
+        GateView view = createGate(gateType, newX, newY, UUID.randomUUID().toString());
+        if (view != null) app.getCircuitPersistence().gateAdded(view);
+        return view;
     }
 
     public GateView createGate(String gateType, double x, double y, String id) {
-        Gate model;
-        String baseLabel;
-
-        switch (gateType) {
-            case "SWITCH": model = new InputSwitch(); baseLabel = "SWITCH"; break;
-            case "CLOCK_GATE": model = new ClockGate(); baseLabel = "CLOCK"; break;
-            case "PROBE": model = new OutputProbe(); baseLabel = "PROBE"; break;
-            case "AND_GATE": model = new AndGate(); baseLabel = "AND"; break;
-            case "OR_GATE": model = new OrGate(); baseLabel = "OR"; break;
-            case "NOT_GATE": model = new NotGate(); baseLabel = "NOT"; break;
-            case "NAND_GATE": model = new NandGate(); baseLabel = "NAND"; break;
-            case "NOR_GATE": model = new NorGate(); baseLabel = "NOR"; break;
-            case "XOR_GATE": model = new XorGate(); baseLabel = "XOR"; break;
-            case "XNOR_GATE": model = new XnorGate(); baseLabel = "XNOR"; break;
-            default: return null;
-        }
-
-        GateView view = new GateView(model, baseLabel, app, gateType, id);
-        view.setLayoutX(x);
-        view.setLayoutY(y);
+        Gate model = createModel(gateType);
+        if (model == null) return null;
+        GateView view = createView(model, gateType, x, y, id);
         rootPane.getChildren().add(view);
         allGateViews.add(view);
+        app.invalidateNetlist();
         return view;
     }
 
-    private void createCustomGateFromTemplate(String gateName, double dropX, double dropY) {
-        CustomGateTemplate template = templateManager.getTemplate(gateName);
-        if (template == null) return;
-
-        List<GateView> newGates = new ArrayList<>();
-        List<Wire> newWires = new ArrayList<>();
-        Map<String, GateView> oldIdMap = new HashMap<>();
-
-        double baseX = Double.MAX_VALUE, baseY = Double.MAX_VALUE;
-        for (GateSaveData d : template.getInternalGates()) {
-            if (d.getX() < baseX) baseX = d.getX();
-            if (d.getY() < baseY) baseY = d.getY();
-        }
-
-        for (GateSaveData d : template.getInternalGates()) {
-            GateView newGate = createGate(d.getGateType(), dropX + (d.getX() - baseX), dropY + (d.getY() - baseY), UUID.randomUUID().toString());
-            if (d.getCustomLabel() != null) newGate.setCustomLabel(d.getCustomLabel());
-            newGates.add(newGate);
-            oldIdMap.put(d.getId(), newGate);
+    /**
+     * Creates the model of a gate, without a view. Safe to call off the FX thread.
+     *
+     * @return the model, or null if the type is unknown.
+     */
+    public Gate createModel(String gateType) {
+        if (gateType.startsWith("CUSTOM:")) {
+            // A custom gate, placed as a single component; its internals are not on the workspace
+            return templateManager.createInstance(gateType.substring("CUSTOM:".length()));
         }
+        GateType type = GateType.fromId(gateType);
+        return (type == null) ? null : type.createModel();
+    }
 
-        for (WireSaveData d : template.getInternalWires()) {
-            GateView sView = oldIdMap.get(d.getStartGateId());
-            GateView eView = oldIdMap.get(d.getEndGateId());
-            if (sView != null && eView != null) {
-                ConnectionPin sPin = sView.getPinOut();
-                ConnectionPin ePin = (d.getEndPinType().equals("B")) ? eView.getPinInB() : eView.getPinInA();
-                if (sPin != null && ePin != null) {
-                    Wire w = new Wire(sPin, ePin);
-                    w.setOnMouseClicked(e -> { toggleSelectItem(w, e.isShiftDown()); e.consume(); });
-                    rootPane.getChildren().add(w);
-                    newWires.add(w);
-
-                    Gate inGate = eView.getGateModel();
-                    if (inGate instanceof UnaryGate) ((UnaryGate)inGate).setInput(sView.getGateModel());
-                    else if (inGate instanceof BinaryGate) {
-                        if(d.getEndPinType().equals("B")) ((BinaryGate)inGate).setInputB(sView.getGateModel());
-                        else ((BinaryGate)inGate).setInputA(sView.getGateModel());
-                    }
-                }
-            }
-        }
-        deselectAll();
-        newGates.forEach(this::selectItem);
-        newWires.forEach(this::selectItem);
+    /**
+     * Creates the view of a model, without adding it to the workspace.
+     */
+    public GateView createView(Gate model, String gateType, double x, double y, String id) {
+        String baseLabel = (model instanceof CustomGate)
+                ? ((CustomGate) model).getTemplateName()
+                : GateType.fromId(gateType).getBaseLabel();
+        GateView view = new GateView(model, baseLabel, app, gateType, id);
+        view.setLayoutX(x);
+        view.setLayoutY(y);
+        return view;
     }
 
     //Wiring
@@ -173,17 +132,11 @@ public class WorkspaceManager {
                 Wire wire = new Wire(startPin, clickedPin);
                 wire.setOnMouseClicked(event -> { toggleSelectItem(wire, event.isShiftDown()); event.consume(); });
                 rootPane.getChildren().add(wire);
+                app.getCircuitPersistence().wireAdded(wire);
 
-                Gate outputGate = startPin.getParentGateView().getGateModel();
-                GateView inputView = clickedPin.getParentGateView();
-                Gate inputGate = inputView.getGateModel();
-
-                if (inputGate instanceof UnaryGate) ((UnaryGate) inputGate).setInput(outputGate);
-                else if (inputGate instanceof BinaryGate) {
-                    if (clickedPin == inputView.getPinInA()) ((BinaryGate) inputGate).setInputA(outputGate);
-                    else if (clickedPin == inputView.getPinInB()) ((BinaryGate) inputGate).setInputB(outputGate);
-                }
-                app.triggerCircuitUpdate();
+                Gate outputGate = startPin.getParentGateView().getOutputGate(startPin);
+                Pins.connect(clickedPin.getParentGateView().getGateModel(), clickedPin.getName(), outputGate);
+                app.invalidateNetlist();
             }
             isWiring = false;
             rootPane.getChildren().remove(tempWire);
@@ -236,18 +189,12 @@ public class WorkspaceManager {
     }
 
     private void removeWire(Wire wire) {
+        app.getCircuitPersistence().wireRemoved(wire);
         ConnectionPin inputPin = wire.getEndPin();
-        Gate inputGate = inputPin.getParentGateView().getGateModel();
-        GateView inputView = inputPin.getParentGateView();
-
-        if (inputGate instanceof UnaryGate) ((UnaryGate) inputGate).setInput(null);
-        else if (inputGate instanceof BinaryGate) {
-            if (inputPin == inputView.getPinInA()) ((BinaryGate) inputGate).setInputA(null);
-            else if (inputPin == inputView.getPinInB()) ((BinaryGate) inputGate).setInputB(null);
-        }
+        Pins.connect(inputPin.getParentGateView().getGateModel(), inputPin.getName(), null);
 
         rootPane.getChildren().remove(wire);
-        app.triggerCircuitUpdate();
+        app.invalidateNetlist();
     }
 
     private void removeGateView(GateView gateView) {
@@ -261,13 +208,16 @@ public class WorkspaceManager {
             }
         }
         wiresToRemove.forEach(this::removeWire);
+        app.getCircuitPersistence().gateRemoved(gateView);
         rootPane.getChildren().remove(gateView);
         allGateViews.remove(gateView);
+        app.invalidateNetlist();
     }
 
     public void clear() {
         rootPane.getChildren().clear();
         allGateViews.clear();
+        app.invalidateNetlist();
         selectedItems.clear();
         isWiring = false;
         tempWire = null;
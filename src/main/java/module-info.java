@@ -11,6 +11,7 @@ module com.simulator {
     exports com.simulator.ui;
     exports com.simulator.model;
     exports com.simulator.data;
+    exports com.simulator.engine;
 
     // OPENS: Allow libraries to use reflection (for FXML and Jackson)
     opens com.simulator.ui to javafx.fxml;
@@ -0,0 +1,194 @@
+package com.simulator.data;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.simulator.engine.HeadlessCircuit;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CircuitFileFormatTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @TempDir
+    Path dir;
+
+    // Every built-in type, a custom gate with named pins, labels and null labels, and a clock with settings
+    private static CircuitData sampleCircuit() {
+        List<GateSaveData> gates = new ArrayList<>();
+        gates.add(new GateSaveData("s1", "SWITCH", 10, 20, "A"));
+        gates.add(new GateSaveData("s2", "SWITCH", 10, 80, null));
+        GateSaveData clock = new GateSaveData("clk", "CLOCK_GATE", 10, 140, "Clk");
+        clock.setFrequency(1000.0);
+        clock.setPhase(250_000L);
+        gates.add(clock);
+        gates.add(new GateSaveData("and", "AND_GATE", 100, 20, null));
+        gates.add(new GateSaveData("or", "OR_GATE", 100, 80, null));
+        gates.add(new GateSaveData("not", "NOT_GATE", 100, 140, null));
+        gates.add(new GateSaveData("nand", "NAND_GATE", 100, 200, null));
+        gates.add(new GateSaveData("nor", "NOR_GATE", 100, 260, null));
+        gates.add(new GateSaveData("xor", "XOR_GATE", 100, 320, "Sum"));
+        gates.add(new GateSaveData("xnor", "XNOR_GATE", 100, 380, null));
+        gates.add(new GateSaveData("half", "CUSTOM:Half Adder", 200, 20, "Ünïcode label"));
+        gates.add(new GateSaveData("p1", "PROBE", 300, 20, "Carry"));
+        gates.add(new GateSaveData("p2", "PROBE", 300, 80, null));
+
+        List<WireSaveData> wires = new ArrayList<>();
+        wires.add(new WireSaveData("s1", "and", "A"));
+        wires.add(new WireSaveData("s2", "and", "B"));
+        wires.add(new WireSaveData("s1", "xor", "A"));
+        wires.add(new WireSaveData("s2", "xor", "B"));
+        wires.add(new WireSaveData("clk", "not", "A"));
+        wires.add(new WireSaveData("s1", "half", "In-1"));
+        wires.add(new WireSaveData("s2", "half", "In-2"));
+        WireSaveData carry = new WireSaveData("half", "p1", "A");
+        carry.setStartPinName("Out-2");
+        wires.add(carry);
+        wires.add(new WireSaveData("xor", "p2", "A"));
+        return new CircuitData(gates, wires);
+    }
+
+    @Test
+    void jsonRoundTripKeepsEveryField() throws IOException {
+        CircuitData circuit = sampleCircuit();
+        File file = dir.resolve("circuit.json").toFile();
+        CircuitFileFormat.write(circuit, file, objectMapper);
+
+        assertSameCircuit(circuit, CircuitFileFormat.read(file, objectMapper), false);
+    }
+
+    @Test
+    void binaryRoundTripKeepsEveryFieldButIds() throws IOException {
+        CircuitData circuit = sampleCircuit();
+        File file = dir.resolve("circuit.dlc").toFile();
+        CircuitFileFormat.write(circuit, file, objectMapper);
+
+        CircuitData read = CircuitFileFormat.read(file, objectMapper);
+        assertSameCircuit(circuit, read, true);
+        for (int i = 0; i < read.getGates().size(); i++) {
+            assertEquals(Integer.toString(i), read.getGates().get(i).getId());
+        }
+    }
+
+    @Test
+    void jsonToBinaryAndBack() throws IOException {
+        CircuitData circuit = sampleCircuit();
+        File json = dir.resolve("circuit.json").toFile();
+        File binary = dir.resolve("circuit.dlc").toFile();
+        File jsonAgain = dir.resolve("again.json").toFile();
+
+        CircuitFileFormat.write(circuit, json, objectMapper);
+        CircuitFileFormat.write(CircuitFileFormat.read(json, objectMapper), binary, objectMapper);
+        CircuitFileFormat.write(CircuitFileFormat.read(binary, objectMapper), jsonAgain, objectMapper);
+
+        assertSameCircuit(circuit, CircuitFileFormat.read(jsonAgain, objectMapper), true);
+    }
+
+    @Test
+    void bothFormatsEvaluateTheSame() throws IOException {
+        CircuitData circuit = sampleCircuit();
+        circuit.getGates().removeIf(gate -> gate.getGateType().startsWith("CUSTOM:"));
+        circuit.getWires().removeIf(wire -> wire.getStartGateId().equals("half") || wire.getEndGateId().equals("half"));
+        circuit.getWires().add(new WireSaveData("and", "p1", "A"));
+        File json = dir.resolve("circuit.json").toFile();
+        File binary = dir.resolve("circuit.dlc").toFile();
+        CircuitFileFormat.write(circuit, json, objectMapper);
+        CircuitFileFormat.write(circuit, binary, objectMapper);
+
+        HeadlessCircuit fromJson = HeadlessCircuit.load(json, objectMapper);
+        HeadlessCircuit fromBinary = HeadlessCircuit.load(binary, objectMapper);
+        assertEquals(List.of(), fromJson.getErrors());
+        assertEquals(List.of(), fromBinary.getErrors());
+        assertEquals(fromJson.getInputNames(), fromBinary.getInputNames());
+        assertEquals(fromJson.getOutputNames(), fromBinary.getOutputNames());
+        assertEquals(fromJson.getWireCount(), fromBinary.getWireCount());
+        assertArrayEquals(fromJson.evaluate(), fromBinary.evaluate());
+        assertEquals(fromJson.getNetlist().getClockHalfPeriod(0), fromBinary.getNetlist().getClockHalfPeriod(0));
+        assertEquals(500_000, fromBinary.getNetlist().getClockHalfPeriod(0));
+        assertEquals(250_000, fromBinary.getNetlist().getClockPhase(0));
+    }
+
+    @Test
+    void truncatedBinaryFileIsReportedAsDamaged() throws IOException {
+        File file = dir.resolve("circuit.dlc").toFile();
+        CircuitFileFormat.write(sampleCircuit(), file, objectMapper);
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        Files.write(file.toPath(), Arrays.copyOf(bytes, bytes.length - 10));
+
+        List<GateSaveData> delivered = new ArrayList<>();
+        IOException e = assertThrows(IOException.class, () -> CircuitFileFormat.read(file, objectMapper, new CircuitFileFormat.Handler() {
+            @Override
+            public void gate(GateSaveData gate) {
+                delivered.add(gate);
+            }
+
+            @Override
+            public void wire(WireSaveData wire) {
+            }
+        }));
+        assertTrue(e.getMessage().contains("damaged"), e.getMessage());
+        assertEquals(sampleCircuit().getGates().size(), delivered.size()); // Only the last wire was cut
+    }
+
+    @Test
+    void truncatedJsonFileFails() throws IOException {
+        File file = dir.resolve("circuit.json").toFile();
+        CircuitFileFormat.write(sampleCircuit(), file, objectMapper);
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        Files.write(file.toPath(), Arrays.copyOf(bytes, bytes.length / 2));
+
+        assertThrows(IOException.class, () -> CircuitFileFormat.read(file, objectMapper));
+    }
+
+    @Test
+    void unknownBinaryVersionIsRejected() throws IOException {
+        File file = dir.resolve("circuit.dlc").toFile();
+        CircuitFileFormat.write(sampleCircuit(), file, objectMapper);
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        bytes[7] = 99; // Low byte of the version
+        Files.write(file.toPath(), bytes);
+
+        assertThrows(IOException.class, () -> CircuitFileFormat.read(file, objectMapper));
+    }
+
+    // Compares gates by position and wires through the gate positions; ids only if they are kept
+    private static void assertSameCircuit(CircuitData expected, CircuitData actual, boolean renumbered) {
+        assertEquals(expected.getGates().size(), actual.getGates().size());
+        Map<String, Integer> expectedIndex = new HashMap<>();
+        Map<String, Integer> actualIndex = new HashMap<>();
+        for (int i = 0; i < expected.getGates().size(); i++) {
+            GateSaveData e = expected.getGates().get(i);
+            GateSaveData a = actual.getGates().get(i);
+            expectedIndex.put(e.getId(), i);
+            actualIndex.put(a.getId(), i);
+            if (!renumbered) assertEquals(e.getId(), a.getId());
+            assertEquals(e.getGateType(), a.getGateType());
+            assertEquals(e.getX(), a.getX());
+            assertEquals(e.getY(), a.getY());
+            assertEquals(e.getCustomLabel(), a.getCustomLabel());
+            assertEquals(e.getFrequency(), a.getFrequency());
+            assertEquals(e.getPhase(), a.getPhase());
+        }
+
+        assertEquals(expected.getWires().size(), actual.getWires().size());
+        for (int i = 0; i < expected.getWires().size(); i++) {
+            WireSaveData e = expected.getWires().get(i);
+            WireSaveData a = actual.getWires().get(i);
+            assertEquals(expectedIndex.get(e.getStartGateId()), actualIndex.get(a.getStartGateId()));
+            assertEquals(expectedIndex.get(e.getEndGateId()), actualIndex.get(a.getEndGateId()));
+            assertEquals(e.getEndPinType(), a.getEndPinType());
+            assertEquals(e.getStartPinName(), a.getStartPinName());
+        }
+    }
+}
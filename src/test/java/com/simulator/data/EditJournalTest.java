@@ -0,0 +1,167 @@
+package com.simulator.data;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class EditJournalTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void replayRebuildsEveryKindOfEdit() throws IOException {
+        Path path = dir.resolve("autosave.journal");
+        EditJournal journal = EditJournal.start(path, false, 0);
+        journal.gateAdded(new GateSaveData("s", "SWITCH", 0, 0, null));
+        journal.gateAdded(new GateSaveData("n", "NOT_GATE", 50, 0, "Inverter"));
+        journal.gateAdded(new GateSaveData("c", "CLOCK_GATE", 0, 50, null));
+        journal.gateAdded(new GateSaveData("gone", "AND_GATE", 0, 100, null));
+        journal.wireAdded(new WireSaveData("s", "n", "A"));
+        journal.wireAdded(new WireSaveData("c", "gone", "A"));
+        journal.gateMoved("n", 75, 25);
+        journal.labelChanged("s", "Enable");
+        journal.labelChanged("n", null);
+        journal.clockChanged("c", 10, 1_000);
+        journal.wireRemoved(new WireSaveData("c", "gone", "A"));
+        journal.gateRemoved("gone");
+        journal.close();
+
+        assertTrue(EditJournal.hasEdits(path));
+        CircuitData circuit = replay(path);
+        assertEquals(3, circuit.getGates().size());
+        GateSaveData s = circuit.getGates().get(0);
+        GateSaveData n = circuit.getGates().get(1);
+        GateSaveData c = circuit.getGates().get(2);
+        assertEquals("Enable", s.getCustomLabel());
+        assertEquals(75, n.getX());
+        assertEquals(25, n.getY());
+        assertNull(n.getCustomLabel());
+        assertEquals(10.0, c.getFrequency());
+        assertEquals(1_000L, c.getPhase());
+        assertEquals(1, circuit.getWires().size());
+        assertEquals("s", circuit.getWires().get(0).getStartGateId());
+        assertNull(circuit.getWires().get(0).getStartPinName());
+    }
+
+    @Test
+    void replayStartsFromTheCircuitFile() throws IOException {
+        File file = dir.resolve("circuit.json").toFile();
+        List<GateSaveData> gates = new ArrayList<>();
+        gates.add(new GateSaveData("a", "SWITCH", 0, 0, null));
+        gates.add(new GateSaveData("b", "PROBE", 100, 0, null));
+        CircuitFileFormat.write(new CircuitData(gates, new ArrayList<>()), file, objectMapper);
+
+        Path path = EditJournal.pathFor(file);
+        EditJournal journal = EditJournal.start(path, true, 2);
+        assertFalse(EditJournal.hasEdits(path));
+        journal.wireAdded(new WireSaveData("a", "b", "A"));
+        journal.gateMoved("b", 200, 0);
+        journal.close();
+
+        CircuitData circuit = replay(path);
+        assertEquals(2, circuit.getGates().size());
+        assertEquals(200, circuit.getGates().get(1).getX());
+        assertEquals(1, circuit.getWires().size());
+    }
+
+    @Test
+    void tornRecordIsIgnoredAndOverwrittenOnResume() throws IOException {
+        Path path = dir.resolve("autosave.journal");
+        EditJournal journal = EditJournal.start(path, false, 0);
+        journal.gateAdded(new GateSaveData("a", "SWITCH", 0, 0, null));
+        journal.gateMoved("a", 10, 10);
+        journal.close();
+        // A crash half-way through the last record
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 5);
+        }
+
+        CircuitData circuit = replay(path);
+        assertEquals(1, circuit.getGates().size());
+        assertEquals(0, circuit.getGates().get(0).getX());
+
+        journal = EditJournal.resume(path, 1);
+        journal.gateMoved("a", 20, 30);
+        journal.close();
+        circuit = replay(path);
+        assertEquals(20, circuit.getGates().get(0).getX());
+        assertEquals(30, circuit.getGates().get(0).getY());
+    }
+
+    @Test
+    void compactionKeepsEditsRecordedMeanwhile() throws Exception {
+        Path path = dir.resolve("autosave.journal");
+        EditJournal journal = EditJournal.start(path, false, 0);
+        List<GateSaveData> gates = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            GateSaveData gate = new GateSaveData("g" + i, "SWITCH", 0, 0, null);
+            gates.add(gate);
+            journal.gateAdded(gate);
+        }
+        GateSaveData clock = new GateSaveData("clk", "CLOCK_GATE", 0, 0, null);
+        clock.setFrequency(2.0);
+        gates.add(clock);
+        journal.gateAdded(clock);
+        for (int i = 0; !journal.needsCompaction(); i++) {
+            GateSaveData gate = gates.get(i % 10);
+            gate.setX(i);
+            journal.gateMoved(gate.getId(), i, 0);
+        }
+        long before = Files.size(path);
+
+        journal.compact(new CircuitData(new ArrayList<>(gates), new ArrayList<>()));
+        journal.gateMoved("g0", -1, -1); // Possibly while the snapshot is being written
+        journal.gateAdded(new GateSaveData("late", "PROBE", 5, 5, null));
+        long deadline = System.nanoTime() + 10_000_000_000L;
+        while (journal.isCompacting()) {
+            assertTrue(System.nanoTime() < deadline, "Compaction did not finish");
+            Thread.sleep(5);
+        }
+        assertFalse(journal.needsCompaction());
+        journal.gateMoved("g1", -2, -2); // After the snapshot took the journal's place
+        journal.close();
+
+        assertTrue(Files.size(path) < before / 10, "Journal was not compacted");
+        assertFalse(Files.exists(path.resolveSibling(path.getFileName() + ".tmp")));
+        CircuitData circuit = replay(path);
+        assertEquals(12, circuit.getGates().size());
+        assertEquals(-1, circuit.getGates().get(0).getX());
+        assertEquals(-2, circuit.getGates().get(1).getX());
+        for (int i = 2; i < 10; i++) {
+            assertEquals(gates.get(i).getX(), circuit.getGates().get(i).getX());
+        }
+        assertEquals(2.0, circuit.getGates().get(10).getFrequency());
+        assertEquals("late", circuit.getGates().get(11).getId());
+    }
+
+    private CircuitData replay(Path path) throws IOException {
+        List<GateSaveData> gates = new ArrayList<>();
+        List<WireSaveData> wires = new ArrayList<>();
+        EditJournal.replay(path, objectMapper, new CircuitFileFormat.Handler() {
+            @Override
+            public void gate(GateSaveData gate) {
+                gates.add(gate);
+            }
+
+            @Override
+            public void wire(WireSaveData wire) {
+                wires.add(wire);
+            }
+        });
+        return new CircuitData(gates, wires);
+    }
+}